@@ -64,6 +64,16 @@ public final class DownloaderImpl extends Downloader {
         return instance;
     }
 
+    /**
+     * Other HTTP clients of the app should be derived from this one with
+     * {@link OkHttpClient#newBuilder()}, so that they share its connection pool.
+     *
+     * @return the {@link OkHttpClient} used by the downloader
+     */
+    public OkHttpClient getClient() {
+        return client;
+    }
+
     public String getCookies(final String url) {
         final String youtubeCookie = url.contains(YOUTUBE_DOMAIN)
                 ? getCookie(YOUTUBE_RESTRICTED_MODE_COOKIE_KEY) : null;
@@ -75,6 +75,7 @@ import org.schabi.newpipe.player.Player;
 import org.schabi.newpipe.player.event.OnKeyDownListener;
 import org.schabi.newpipe.player.helper.PlayerHolder;
 import org.schabi.newpipe.player.playqueue.PlayQueue;
+import org.schabi.newpipe.player.playqueue.PlayQueueHandOff;
 import org.schabi.newpipe.util.Constants;
 import org.schabi.newpipe.util.DeviceUtils;
 import org.schabi.newpipe.util.KioskTranslator;
@@ -82,7 +83,6 @@ import org.schabi.newpipe.util.Localization;
 import org.schabi.newpipe.util.NavigationHelper;
 import org.schabi.newpipe.util.PeertubeHelper;
 import org.schabi.newpipe.util.PermissionHelper;
-import org.schabi.newpipe.util.SerializedCache;
 import org.schabi.newpipe.util.ServiceHelper;
 import org.schabi.newpipe.util.StateSaver;
 import org.schabi.newpipe.util.ThemeHelper;
@@ -745,8 +745,7 @@ public class MainActivity extends AppCompatActivity {
                         final String intentCacheKey = intent.getStringExtra(
                                 Player.PLAY_QUEUE_KEY);
                         final PlayQueue playQueue = intentCacheKey != null
-                                ? SerializedCache.getInstance()
-                                .take(intentCacheKey, PlayQueue.class)
+                                ? PlayQueueHandOff.take(intentCacheKey)
                                 : null;
 
                         final boolean switchingPlayers = intent.getBooleanExtra(
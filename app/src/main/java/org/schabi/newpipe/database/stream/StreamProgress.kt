@@ -0,0 +1,16 @@
+package org.schabi.newpipe.database.stream
+
+import androidx.room.ColumnInfo
+import org.schabi.newpipe.database.stream.model.StreamEntity
+import org.schabi.newpipe.database.stream.model.StreamStateEntity
+
+data class StreamProgress(
+    @ColumnInfo(name = StreamEntity.STREAM_SERVICE_ID)
+    val serviceId: Int,
+
+    @ColumnInfo(name = StreamEntity.STREAM_URL)
+    val url: String,
+
+    @ColumnInfo(name = StreamStateEntity.STREAM_PROGRESS_MILLIS)
+    val progressMillis: Long
+)
@@ -7,17 +7,29 @@ import androidx.room.Query;
 import androidx.room.Transaction;
 
 import org.schabi.newpipe.database.BasicDAO;
+import org.schabi.newpipe.database.stream.StreamProgress;
 import org.schabi.newpipe.database.stream.model.StreamStateEntity;
 
 import java.util.List;
 
 import io.reactivex.rxjava3.core.Flowable;
 
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_ID;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_SERVICE_ID;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_TABLE;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_URL;
 import static org.schabi.newpipe.database.stream.model.StreamStateEntity.JOIN_STREAM_ID;
+import static org.schabi.newpipe.database.stream.model.StreamStateEntity.STREAM_PROGRESS_MILLIS;
 import static org.schabi.newpipe.database.stream.model.StreamStateEntity.STREAM_STATE_TABLE;
 
 @Dao
 public interface StreamStateDAO extends BasicDAO<StreamStateEntity> {
+    /**
+     * Maximum number of values passed to the queries with an {@code IN} clause, to stay below
+     * the limit of SQLite on the number of query parameters (999 on older versions).
+     */
+    int MAX_BATCH_SIZE = 500;
+
     @Override
     @Query("SELECT * FROM " + STREAM_STATE_TABLE)
     Flowable<List<StreamStateEntity>> getAll();
@@ -34,6 +46,23 @@ public interface StreamStateDAO extends BasicDAO<StreamStateEntity> {
     @Query("SELECT * FROM " + STREAM_STATE_TABLE + " WHERE " + JOIN_STREAM_ID + " = :streamId")
     Flowable<List<StreamStateEntity>> getState(long streamId);
 
+    /**
+     * @return the progress of all the streams with a state, along with their service and url
+     */
+    @Query("SELECT " + STREAM_SERVICE_ID + ", " + STREAM_URL + ", " + STREAM_PROGRESS_MILLIS
+            + " FROM " + STREAM_STATE_TABLE + " INNER JOIN " + STREAM_TABLE
+            + " ON " + JOIN_STREAM_ID + " = " + STREAM_ID)
+    List<StreamProgress> getAllProgress();
+
+    /**
+     * @param streamIds the ids of the streams, at most {@link #MAX_BATCH_SIZE}
+     * @return the states of the streams among the given ones which have a state, sorted by
+     * stream id
+     */
+    @Query("SELECT * FROM " + STREAM_STATE_TABLE + " WHERE " + JOIN_STREAM_ID
+            + " IN (:streamIds) ORDER BY " + JOIN_STREAM_ID)
+    List<StreamStateEntity> getStates(List<Long> streamIds);
+
     @Query("DELETE FROM " + STREAM_STATE_TABLE + " WHERE " + JOIN_STREAM_ID + " = :streamId")
     int deleteState(long streamId);
 
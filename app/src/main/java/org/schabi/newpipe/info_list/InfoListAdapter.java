@@ -35,8 +35,12 @@ import org.schabi.newpipe.util.OnClickGesture;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.disposables.Disposable;
+
 /*
  * Created by Christian Schabesberger on 01.08.16.
  *
@@ -76,6 +80,11 @@ public class InfoListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
     private static final int MINI_COMMENT_HOLDER_TYPE = 0x400;
     private static final int COMMENT_HOLDER_TYPE = 0x401;
 
+    /**
+     * Payload of the item changes which only require to update the watch progress.
+     */
+    private static final Object PAYLOAD_STREAM_STATE = new Object();
+
     private final LayoutInflater layoutInflater;
     private final InfoItemBuilder infoItemBuilder;
     private final List<InfoItem> infoItemList;
@@ -87,6 +96,9 @@ public class InfoListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
 
     private Supplier<View> headerSupplier = null;
 
+    @Nullable
+    private Disposable streamProgressChanges = null;
+
     public InfoListAdapter(final Context context) {
         layoutInflater = LayoutInflater.from(context);
         recordManager = new HistoryRecordManager(context);
@@ -310,6 +322,40 @@ public class InfoListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
         }
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull final RecyclerView.ViewHolder holder, final int position,
+                                 @NonNull final List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_STREAM_STATE) && holder instanceof InfoItemHolder) {
+            ((InfoItemHolder) holder).updateState(
+                    infoItemList.get(hasHeader() ? position - 1 : position), recordManager);
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull final RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        // Update the watch progress of the shown items when it is loaded or changed, e.g. while
+        // a stream is played in the background
+        if (streamProgressChanges == null) {
+            streamProgressChanges = recordManager.getStreamProgressChanges()
+                    .throttleLatest(1, TimeUnit.SECONDS, true)
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(ignored -> notifyItemRangeChanged(0, getItemCount(),
+                            PAYLOAD_STREAM_STATE));
+        }
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull final RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        if (streamProgressChanges != null) {
+            streamProgressChanges.dispose();
+            streamProgressChanges = null;
+        }
+    }
+
     public GridLayoutManager.SpanSizeLookup getSpanSizeLookup(final int spanCount) {
         return new GridLayoutManager.SpanSizeLookup() {
             @Override
@@ -22,8 +22,12 @@ import android.content.Context;
 import android.content.SharedPreferences;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
 import androidx.preference.PreferenceManager;
 
+import com.google.common.collect.Lists;
+
 import org.schabi.newpipe.NewPipeDatabase;
 import org.schabi.newpipe.R;
 import org.schabi.newpipe.database.AppDatabase;
@@ -50,11 +54,16 @@ import org.schabi.newpipe.util.ExtractorHelper;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Flowable;
 import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 
@@ -64,6 +73,8 @@ public class HistoryRecordManager {
     private final StreamHistoryDAO streamHistoryTable;
     private final SearchHistoryDAO searchHistoryTable;
     private final StreamStateDAO streamStateTable;
+    private final StreamProgressIndex progressIndex;
+    private final StreamStateWriteBuffer stateWriteBuffer;
     private final SharedPreferences sharedPreferences;
     private final String searchHistoryKey;
     private final String streamHistoryKey;
@@ -74,6 +85,8 @@ public class HistoryRecordManager {
         streamHistoryTable = database.streamHistoryDAO();
         searchHistoryTable = database.searchHistoryDAO();
         streamStateTable = database.streamStateDAO();
+        progressIndex = StreamProgressIndex.getInstance(context);
+        stateWriteBuffer = StreamStateWriteBuffer.getInstance(context);
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         searchHistoryKey = context.getString(R.string.enable_search_history_key);
         streamHistoryKey = context.getString(R.string.enable_watch_history_key);
@@ -97,6 +110,8 @@ public class HistoryRecordManager {
         }
 
         final OffsetDateTime currentTime = OffsetDateTime.now(ZoneOffset.UTC);
+        // The buffered progress is written first (on subscription), so that it does not
+        // overwrite the full progress set here
         return Maybe.fromCallable(() -> database.runInTransaction(() -> {
             final long streamId;
             final long duration;
@@ -122,6 +137,7 @@ public class HistoryRecordManager {
                     duration * 1000
             );
             streamStateTable.upsert(entity);
+            progressIndex.put(info.getServiceId(), info.getUrl(), entity.getProgressMillis());
 
             // Add a history entry
             final StreamHistoryEntity latestEntry = streamHistoryTable.getLatestEntry(streamId);
@@ -131,7 +147,7 @@ public class HistoryRecordManager {
             } else {
                 return 0L;
             }
-        })).subscribeOn(Schedulers.io());
+        })).doOnSubscribe(d -> stateWriteBuffer.flush()).subscribeOn(Schedulers.io());
     }
 
     public Maybe<Long> onViewed(final StreamInfo info) {
@@ -158,9 +174,10 @@ public class HistoryRecordManager {
 
     public Completable deleteStreamHistoryAndState(final long streamId) {
         return Completable.fromAction(() -> {
+            stateWriteBuffer.flush();
             streamStateTable.deleteState(streamId);
             streamHistoryTable.deleteStreamHistory(streamId);
-        }).subscribeOn(Schedulers.io());
+        }).doOnComplete(progressIndex::reload).subscribeOn(Schedulers.io());
     }
 
     public Single<Integer> deleteWholeStreamHistory() {
@@ -169,8 +186,10 @@ public class HistoryRecordManager {
     }
 
     public Single<Integer> deleteCompleteStreamStateHistory() {
-        return Single.fromCallable(streamStateTable::deleteAll)
-                .subscribeOn(Schedulers.io());
+        return Single.fromCallable(() -> {
+            stateWriteBuffer.flush();
+            return streamStateTable.deleteAll();
+        }).doOnSuccess(deleted -> progressIndex.clearAndReload()).subscribeOn(Schedulers.io());
     }
 
     public Flowable<List<StreamHistoryEntry>> getStreamHistorySortedById() {
@@ -236,7 +255,10 @@ public class HistoryRecordManager {
 
     public Maybe<StreamStateEntity> loadStreamState(final PlayQueueItem queueItem) {
         return queueItem.getStream()
-                .map(info -> streamTable.upsert(new StreamEntity(info)))
+                .map(info -> {
+                    stateWriteBuffer.flush();
+                    return streamTable.upsert(new StreamEntity(info));
+                })
                 .flatMapPublisher(streamStateTable::getState)
                 .firstElement()
                 .flatMap(list -> list.isEmpty() ? Maybe.empty() : Maybe.just(list.get(0)))
@@ -245,26 +267,71 @@ public class HistoryRecordManager {
     }
 
     public Maybe<StreamStateEntity> loadStreamState(final StreamInfo info) {
-        return Single.fromCallable(() -> streamTable.upsert(new StreamEntity(info)))
-                .flatMapPublisher(streamStateTable::getState)
+        return Single.fromCallable(() -> {
+            stateWriteBuffer.flush();
+            return streamTable.upsert(new StreamEntity(info));
+        }).flatMapPublisher(streamStateTable::getState)
                 .firstElement()
                 .flatMap(list -> list.isEmpty() ? Maybe.empty() : Maybe.just(list.get(0)))
                 .filter(state -> state.isValid(info.getDuration()))
                 .subscribeOn(Schedulers.io());
     }
 
+    /**
+     * Saves the progress of a stream. The progress is buffered in memory and written to the
+     * database later, together with the progress of other streams, see
+     * {@link #flushStreamStates()}. The methods of this class which read or delete stream states
+     * write the buffered progress first.
+     *
+     * @param info           the stream
+     * @param progressMillis the progress
+     * @return a completable which buffers the progress, without accessing the database
+     */
     public Completable saveStreamState(@NonNull final StreamInfo info, final long progressMillis) {
-        return Completable.fromAction(() -> database.runInTransaction(() -> {
-            final long streamId = streamTable.upsert(new StreamEntity(info));
-            final StreamStateEntity state = new StreamStateEntity(streamId, progressMillis);
-            if (state.isValid(info.getDuration())) {
-                streamStateTable.upsert(state);
+        return Completable.fromAction(() -> {
+            stateWriteBuffer.save(info, progressMillis);
+            if (new StreamStateEntity(0, progressMillis).isValid(info.getDuration())) {
+                progressIndex.put(info.getServiceId(), info.getUrl(), progressMillis);
             }
-        })).subscribeOn(Schedulers.io());
+        });
+    }
+
+    /**
+     * Writes the progress buffered by {@link #saveStreamState(StreamInfo, long)} to the
+     * database, in a single transaction. Should be called when the playback is paused or
+     * stopped.
+     *
+     * @return a completable which writes the buffered progress
+     */
+    public Completable flushStreamStates() {
+        return Completable.fromAction(stateWriteBuffer::flush)
+                .subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Returns the watch progress of a stream from the in-memory {@link StreamProgressIndex},
+     * without accessing the database, so it can be called while binding list items.
+     *
+     * @param info the stream
+     * @return the progress in milliseconds, or {@code null} if the stream has no progress or the
+     * progress of all streams is not loaded yet
+     */
+    @Nullable
+    public Long getStreamProgressMillis(@NonNull final InfoItem info) {
+        return progressIndex.getProgressMillis(info.getServiceId(), info.getUrl());
+    }
+
+    /**
+     * @return an observable which emits whenever the result of
+     * {@link #getStreamProgressMillis(InfoItem)} may have changed, on an arbitrary thread
+     */
+    public Observable<Long> getStreamProgressChanges() {
+        return progressIndex.getChanges();
     }
 
     public Single<StreamStateEntity[]> loadStreamState(final InfoItem info) {
         return Single.fromCallable(() -> {
+            stateWriteBuffer.flush();
             final List<StreamEntity> entities = streamTable
                     .getStream(info.getServiceId(), info.getUrl()).blockingFirst();
             if (entities.isEmpty()) {
@@ -282,37 +349,56 @@ public class HistoryRecordManager {
     public Single<List<StreamStateEntity>> loadLocalStreamStateBatch(
             final List<? extends LocalItem> items) {
         return Single.fromCallable(() -> {
-            final List<StreamStateEntity> result = new ArrayList<>(items.size());
-            for (final LocalItem item : items) {
-                final long streamId;
+            stateWriteBuffer.flush();
+
+            final long[] streamIds = new long[items.size()];
+            final Set<Long> uniqueStreamIds = new HashSet<>();
+            for (int i = 0; i < items.size(); i++) {
+                final LocalItem item = items.get(i);
                 if (item instanceof StreamStatisticsEntry) {
-                    streamId = ((StreamStatisticsEntry) item).getStreamId();
+                    streamIds[i] = ((StreamStatisticsEntry) item).getStreamId();
                 } else if (item instanceof PlaylistStreamEntity) {
-                    streamId = ((PlaylistStreamEntity) item).getStreamUid();
+                    streamIds[i] = ((PlaylistStreamEntity) item).getStreamUid();
                 } else if (item instanceof PlaylistStreamEntry) {
-                    streamId = ((PlaylistStreamEntry) item).getStreamId();
+                    streamIds[i] = ((PlaylistStreamEntry) item).getStreamId();
                 } else {
-                    result.add(null);
+                    streamIds[i] = -1;
                     continue;
                 }
-                final List<StreamStateEntity> states = streamStateTable.getState(streamId)
-                        .blockingFirst();
-                if (states.isEmpty()) {
-                    result.add(null);
-                } else {
-                    result.add(states.get(0));
-                }
+                uniqueStreamIds.add(streamIds[i]);
+            }
+
+            final LongSparseArray<StreamStateEntity> states = getStreamStates(uniqueStreamIds);
+            final List<StreamStateEntity> result = new ArrayList<>(items.size());
+            for (final long streamId : streamIds) {
+                result.add(streamId == -1 ? null : states.get(streamId));
             }
             return result;
         }).subscribeOn(Schedulers.io());
     }
 
+    private LongSparseArray<StreamStateEntity> getStreamStates(final Collection<Long> streamIds) {
+        // sorted, so that the states of every chunk are returned after the previous ones and
+        // can be appended
+        final List<Long> sortedStreamIds = new ArrayList<>(new TreeSet<>(streamIds));
+        final LongSparseArray<StreamStateEntity> states = new LongSparseArray<>();
+        for (final List<Long> chunk
+                : Lists.partition(sortedStreamIds, StreamStateDAO.MAX_BATCH_SIZE)) {
+            for (final StreamStateEntity state : streamStateTable.getStates(chunk)) {
+                states.append(state.getStreamUid(), state);
+            }
+        }
+        return states;
+    }
+
     ///////////////////////////////////////////////////////
     // Utility
     ///////////////////////////////////////////////////////
 
     public Single<Integer> removeOrphanedRecords() {
-        return Single.fromCallable(streamTable::deleteOrphans).subscribeOn(Schedulers.io());
+        return Single.fromCallable(streamTable::deleteOrphans)
+                .doOnSuccess(deleted -> progressIndex.reload())
+                .subscribeOn(Schedulers.io());
     }
 
 }
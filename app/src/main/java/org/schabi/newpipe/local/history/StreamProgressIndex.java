@@ -0,0 +1,182 @@
+package org.schabi.newpipe.local.history;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.schabi.newpipe.NewPipeDatabase;
+import org.schabi.newpipe.database.stream.StreamProgress;
+import org.schabi.newpipe.database.stream.dao.StreamStateDAO;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+/**
+ * Process-wide in-memory copy of the watch progress of all streams, so that lists can show the
+ * progress of their items without querying the database while binding them.
+ * <p>
+ * The progress is loaded from the database in background when the index is created, and is kept
+ * up to date by {@link HistoryRecordManager}, which writes to both. Until the loading finishes,
+ * {@link #getProgressMillis(int, String)} returns {@code null}; {@link #getChanges()} notifies
+ * when it does.
+ * </p>
+ */
+public final class StreamProgressIndex {
+    private static final String TAG = StreamProgressIndex.class.getSimpleName();
+
+    @Nullable
+    private static volatile StreamProgressIndex instance;
+
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final Object loadLock = new Object();
+    @NonNull
+    private final PublishSubject<Long> changes = PublishSubject.create();
+
+    @NonNull
+    private volatile Map<String, Long> progress = new ConcurrentHashMap<>();
+
+    /**
+     * Progress written while the index is being (re)loaded, which the loaded data may not
+     * contain yet. Guarded by {@code this}, {@code null} when not loading.
+     */
+    @Nullable
+    private Map<String, Long> writtenWhileLoading;
+
+    private StreamProgressIndex(@NonNull final Context context) {
+        this.context = context;
+        reload();
+    }
+
+    @NonNull
+    public static StreamProgressIndex getInstance(@NonNull final Context context) {
+        StreamProgressIndex result = instance;
+        if (result == null) {
+            synchronized (StreamProgressIndex.class) {
+                result = instance;
+                if (result == null) {
+                    result = new StreamProgressIndex(context.getApplicationContext());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the watch progress of a stream without blocking.
+     *
+     * @param serviceId the service of the stream
+     * @param url       the url of the stream
+     * @return the progress in milliseconds, or {@code null} if the stream has no progress or the
+     * index is not loaded yet
+     */
+    @Nullable
+    public Long getProgressMillis(final int serviceId, @NonNull final String url) {
+        return progress.get(keyOf(serviceId, url));
+    }
+
+    /**
+     * @return an observable which emits (on an arbitrary thread) whenever progress is loaded or
+     * changed
+     */
+    @NonNull
+    public Observable<Long> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Updates the progress of a stream, after it was written to the database.
+     */
+    void put(final int serviceId, @NonNull final String url, final long progressMillis) {
+        final String key = keyOf(serviceId, url);
+        synchronized (this) {
+            progress.put(key, progressMillis);
+            if (writtenWhileLoading != null) {
+                writtenWhileLoading.put(key, progressMillis);
+            }
+        }
+        changes.onNext(System.currentTimeMillis());
+    }
+
+    /**
+     * Forgets the progress of all streams, needed when the database was replaced (e.g. by an
+     * import) and is not going to be used anymore by this process.
+     */
+    public void clear() {
+        synchronized (this) {
+            progress = new ConcurrentHashMap<>();
+        }
+        changes.onNext(System.currentTimeMillis());
+    }
+
+    /**
+     * Forgets the progress of all streams and reloads it from the database in background, needed
+     * after all the progress was deleted, so that the old progress is not shown while loading.
+     */
+    void clearAndReload() {
+        clear();
+        reload();
+    }
+
+    /**
+     * Reloads the whole index from the database in background, needed after the progress of
+     * streams whose url is not known was deleted.
+     */
+    void reload() {
+        Completable.fromAction(this::load)
+                .subscribeOn(Schedulers.io())
+                .subscribe(() -> changes.onNext(System.currentTimeMillis()),
+                        error -> Log.e(TAG, "Could not load the watch progress", error));
+    }
+
+    private void load() {
+        // reloads must not overlap, or an older one could replace the result of a newer one
+        synchronized (loadLock) {
+            synchronized (this) {
+                writtenWhileLoading = new HashMap<>();
+            }
+
+            final Map<String, Long> loaded = new ConcurrentHashMap<>();
+            try {
+                // the database is not kept, since it may be replaced (e.g. by an import)
+                final StreamStateDAO streamStateTable =
+                        NewPipeDatabase.getInstance(context).streamStateDAO();
+                final List<StreamProgress> all = streamStateTable.getAllProgress();
+                for (final StreamProgress streamProgress : all) {
+                    loaded.put(keyOf(streamProgress.getServiceId(), streamProgress.getUrl()),
+                            streamProgress.getProgressMillis());
+                }
+            } catch (final RuntimeException e) {
+                // keep the current progress, which already contains the writes made meanwhile
+                synchronized (this) {
+                    writtenWhileLoading = null;
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                if (writtenWhileLoading != null) {
+                    loaded.putAll(writtenWhileLoading);
+                }
+                writtenWhileLoading = null;
+                progress = loaded;
+            }
+        }
+    }
+
+    @NonNull
+    private static String keyOf(final int serviceId, @NonNull final String url) {
+        return serviceId + ":" + url;
+    }
+}
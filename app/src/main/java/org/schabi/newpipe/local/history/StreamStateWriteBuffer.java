@@ -0,0 +1,199 @@
+package org.schabi.newpipe.local.history;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteConstraintException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.collection.LruCache;
+
+import org.schabi.newpipe.NewPipeDatabase;
+import org.schabi.newpipe.database.AppDatabase;
+import org.schabi.newpipe.database.stream.dao.StreamDAO;
+import org.schabi.newpipe.database.stream.dao.StreamStateDAO;
+import org.schabi.newpipe.database.stream.model.StreamEntity;
+import org.schabi.newpipe.database.stream.model.StreamStateEntity;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Write-behind buffer of the playback progress of streams.
+ * <p>
+ * The player saves the progress at many points (seeks, skips, pauses...). Instead of writing
+ * each of them right away, only the last progress of every stream is kept in memory and all of
+ * them are written in a single transaction, {@link #FLUSH_DELAY_MILLIS} after the first one or
+ * when {@link #flush()} is called (e.g. when the playback is paused or stopped). The row of the
+ * stream in the {@code streams} table is only updated when its metadata changed since it was last
+ * written, otherwise only the {@code stream_state} row is.
+ * </p>
+ */
+final class StreamStateWriteBuffer {
+    private static final String TAG = StreamStateWriteBuffer.class.getSimpleName();
+
+    private static final long FLUSH_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Number of streams whose last written metadata is remembered.
+     */
+    private static final int WRITTEN_STREAMS_CACHE_SIZE = 64;
+
+    @Nullable
+    private static volatile StreamStateWriteBuffer instance;
+
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final Object flushLock = new Object();
+
+    // guarded by this
+    @NonNull
+    private final Map<String, PendingState> pendingStates = new LinkedHashMap<>();
+    @Nullable
+    private Disposable scheduledFlush;
+
+    // guarded by flushLock
+    @NonNull
+    private final LruCache<String, WrittenStream> writtenStreams =
+            new LruCache<>(WRITTEN_STREAMS_CACHE_SIZE);
+
+    private StreamStateWriteBuffer(@NonNull final Context context) {
+        this.context = context;
+    }
+
+    @NonNull
+    static StreamStateWriteBuffer getInstance(@NonNull final Context context) {
+        StreamStateWriteBuffer result = instance;
+        if (result == null) {
+            synchronized (StreamStateWriteBuffer.class) {
+                result = instance;
+                if (result == null) {
+                    result = new StreamStateWriteBuffer(context.getApplicationContext());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Buffers the progress of a stream, replacing the one buffered before for the same stream.
+     */
+    void save(@NonNull final StreamInfo info, final long progressMillis) {
+        synchronized (this) {
+            pendingStates.put(keyOf(info), new PendingState(info, progressMillis));
+            if (scheduledFlush == null) {
+                scheduledFlush = Completable.timer(FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS,
+                                Schedulers.io())
+                        .subscribe(this::flush,
+                                error -> Log.e(TAG, "Could not save the stream states", error));
+            }
+        }
+    }
+
+    /**
+     * Writes all buffered progress to the database, in a single transaction. Must be called
+     * before reading or deleting stream states, so that they are up to date.
+     */
+    @WorkerThread
+    void flush() {
+        synchronized (flushLock) {
+            final List<PendingState> states;
+            synchronized (this) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.dispose();
+                    scheduledFlush = null;
+                }
+                if (pendingStates.isEmpty()) {
+                    return;
+                }
+                states = new ArrayList<>(pendingStates.values());
+                pendingStates.clear();
+            }
+
+            // the database is not kept, since it may be replaced (e.g. by an import)
+            final AppDatabase database = NewPipeDatabase.getInstance(context);
+            final StreamDAO streamTable = database.streamDAO();
+            final StreamStateDAO streamStateTable = database.streamStateDAO();
+            try {
+                database.runInTransaction(() -> {
+                    for (final PendingState state : states) {
+                        write(streamTable, streamStateTable, state);
+                    }
+                });
+            } catch (final RuntimeException e) {
+                // the stream rows may have been rolled back
+                writtenStreams.evictAll();
+                throw e;
+            }
+        }
+    }
+
+    private void write(@NonNull final StreamDAO streamTable,
+                       @NonNull final StreamStateDAO streamStateTable,
+                       @NonNull final PendingState state) {
+        final String key = keyOf(state.info);
+        final StreamEntity metadata = new StreamEntity(state.info);
+
+        final WrittenStream written = writtenStreams.get(key);
+        final long streamId;
+        if (written != null && written.metadata.equals(metadata)) {
+            streamId = written.streamId;
+        } else {
+            // upsert() modifies the entity, so it is not the one compared the next time
+            streamId = streamTable.upsert(new StreamEntity(state.info));
+            writtenStreams.put(key, new WrittenStream(streamId, metadata));
+        }
+
+        final StreamStateEntity streamState = new StreamStateEntity(streamId, state.progressMillis);
+        if (!streamState.isValid(state.info.getDuration())) {
+            return;
+        }
+        try {
+            streamStateTable.upsert(streamState);
+        } catch (final SQLiteConstraintException e) {
+            // the stream row was deleted since it was last written (e.g. the history was
+            // cleared), so write it again
+            final long newStreamId = streamTable.upsert(new StreamEntity(state.info));
+            writtenStreams.put(key, new WrittenStream(newStreamId, metadata));
+            streamStateTable.upsert(new StreamStateEntity(newStreamId, state.progressMillis));
+        }
+    }
+
+    @NonNull
+    private static String keyOf(@NonNull final StreamInfo info) {
+        return info.getServiceId() + ":" + info.getUrl();
+    }
+
+    private static final class PendingState {
+        @NonNull
+        private final StreamInfo info;
+        private final long progressMillis;
+
+        PendingState(@NonNull final StreamInfo info, final long progressMillis) {
+            this.info = info;
+            this.progressMillis = progressMillis;
+        }
+    }
+
+    private static final class WrittenStream {
+        private final long streamId;
+        @NonNull
+        private final StreamEntity metadata;
+
+        WrittenStream(final long streamId, @NonNull final StreamEntity metadata) {
+            this.streamId = streamId;
+            this.metadata = metadata;
+        }
+    }
+}
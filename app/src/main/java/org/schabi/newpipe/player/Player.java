@@ -56,11 +56,14 @@ import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.media.AudioManager;
+import android.net.ConnectivityManager;
+import android.os.PowerManager;
 import android.util.Log;
 import android.view.LayoutInflater;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.core.math.MathUtils;
 import androidx.preference.PreferenceManager;
 
@@ -96,16 +99,21 @@ import org.schabi.newpipe.fragments.detail.VideoDetailFragment;
 import org.schabi.newpipe.local.history.HistoryRecordManager;
 import org.schabi.newpipe.player.event.PlayerEventListener;
 import org.schabi.newpipe.player.event.PlayerServiceEventListener;
+import org.schabi.newpipe.player.helper.AudioOnlyRenderersFactory;
 import org.schabi.newpipe.player.helper.AudioReactor;
+import org.schabi.newpipe.player.helper.AudioTransitionFader;
 import org.schabi.newpipe.player.helper.LoadController;
 import org.schabi.newpipe.player.helper.PlayerDataSource;
 import org.schabi.newpipe.player.helper.PlayerHelper;
+import org.schabi.newpipe.player.helper.PlayerThumbnailCache;
 import org.schabi.newpipe.player.mediaitem.MediaItemTag;
 import org.schabi.newpipe.player.mediasession.MediaSessionPlayerUi;
 import org.schabi.newpipe.player.notification.NotificationPlayerUi;
+import org.schabi.newpipe.player.playback.MediaPrefetcher;
 import org.schabi.newpipe.player.playback.MediaSourceManager;
 import org.schabi.newpipe.player.playback.PlaybackListener;
 import org.schabi.newpipe.player.playqueue.PlayQueue;
+import org.schabi.newpipe.player.playqueue.PlayQueueHandOff;
 import org.schabi.newpipe.player.playqueue.PlayQueueItem;
 import org.schabi.newpipe.player.resolver.AudioPlaybackResolver;
 import org.schabi.newpipe.player.resolver.VideoPlaybackResolver;
@@ -119,11 +127,14 @@ import org.schabi.newpipe.util.DeviceUtils;
 import org.schabi.newpipe.util.ListHelper;
 import org.schabi.newpipe.util.NavigationHelper;
 import org.schabi.newpipe.util.PicassoHelper;
-import org.schabi.newpipe.util.SerializedCache;
 import org.schabi.newpipe.util.StreamTypeUtil;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.IntStream;
 
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
@@ -175,6 +186,11 @@ public final class Player implements PlaybackListener, Listener {
 
     public static final int RENDERER_UNAVAILABLE = -1;
     private static final String PICASSO_PLAYER_THUMBNAIL_TAG = "PICASSO_PLAYER_THUMBNAIL_TAG";
+    // the number of items after the current one whose thumbnails are loaded ahead of time
+    private static final int THUMBNAIL_PREFETCH_COUNT = 3;
+    // the number of items around the current one whose cached streams are pinned
+    private static final int PINNED_STREAMS_BEFORE = 1;
+    private static final int PINNED_STREAMS_AFTER = 5;
 
     /*//////////////////////////////////////////////////////////////////////////
     // Playback
@@ -188,6 +204,8 @@ public final class Player implements PlaybackListener, Listener {
     @Nullable private PlayQueueItem currentItem;
     @Nullable private MediaItemTag currentMetadata;
     @Nullable private Bitmap currentThumbnail;
+    @Nullable private String currentThumbnailUrl;
+    @Nullable private String loadingThumbnailUrl;
 
     /*//////////////////////////////////////////////////////////////////////////
     // Player
@@ -195,10 +213,14 @@ public final class Player implements PlaybackListener, Listener {
 
     private ExoPlayer simpleExoPlayer;
     private AudioReactor audioReactor;
+    private AudioTransitionFader audioTransitionFader;
 
     @NonNull private final DefaultTrackSelector trackSelector;
     @NonNull private final LoadController loadController;
+    @NonNull private final MediaPrefetcher prefetcher;
+    @NonNull private final PlayerDataSource dataSource;
     @NonNull private final RenderersFactory renderFactory;
+    @NonNull private final RenderersFactory audioOnlyRenderFactory;
 
     @NonNull private final VideoPlaybackResolver videoResolver;
     @NonNull private final AudioPlaybackResolver audioResolver;
@@ -215,6 +237,8 @@ public final class Player implements PlaybackListener, Listener {
     // audio only mode does not mean that player type is background, but that the player was
     // minimized to background but will resume automatically to the original player type
     private boolean isAudioOnly = false;
+    // whether the current ExoPlayer was built without video renderers, for the audio player
+    private boolean isHeadless = false;
     private boolean isPrepared = false;
     private boolean wasPlaying = false;
 
@@ -231,12 +255,20 @@ public final class Player implements PlaybackListener, Listener {
     @Nullable private PlayerEventListener activityListener = null;
 
     @NonNull private final SerialDisposable progressUpdateDisposable = new SerialDisposable();
+    // the UIs and listeners which show the progress and requested progress updates
+    @NonNull private final Set<Object> progressUpdateSubscribers = new HashSet<>();
+    // whether the playback needs progress updates, i.e. the player is playing or loading
+    private boolean progressLoopEnabled = false;
+    private boolean progressLoopScheduled = false;
+    // no progress can be seen while the screen is off
+    private boolean isScreenOn;
     @NonNull private final CompositeDisposable databaseUpdateDisposable = new CompositeDisposable();
 
     // This is the only listener we need for thumbnail loading, since there is always at most only
     // one thumbnail being loaded at a time. This field is also here to maintain a strong reference,
     // which would otherwise be garbage collected since Picasso holds weak references to targets.
     @NonNull private final Target currentThumbnailTarget;
+    @NonNull private final PlayerThumbnailCache thumbnailCache;
 
     /*//////////////////////////////////////////////////////////////////////////
     // Utils
@@ -258,18 +290,25 @@ public final class Player implements PlaybackListener, Listener {
         prefs = PreferenceManager.getDefaultSharedPreferences(context);
         recordManager = new HistoryRecordManager(context);
 
+        final PowerManager powerManager = ContextCompat.getSystemService(context,
+                PowerManager.class);
+        isScreenOn = powerManager == null || powerManager.isInteractive();
+
         setupBroadcastReceiver();
 
         trackSelector = new DefaultTrackSelector(context, PlayerHelper.getQualitySelector());
-        final PlayerDataSource dataSource = new PlayerDataSource(context,
+        dataSource = new PlayerDataSource(context,
                 new DefaultBandwidthMeter.Builder(context).build());
-        loadController = new LoadController();
+        loadController = new LoadController(context);
+        prefetcher = new MediaPrefetcher(context, dataSource);
         renderFactory = new DefaultRenderersFactory(context);
+        audioOnlyRenderFactory = new AudioOnlyRenderersFactory(context);
 
         videoResolver = new VideoPlaybackResolver(context, dataSource, getQualityResolver());
         audioResolver = new AudioPlaybackResolver(context, dataSource);
 
         currentThumbnailTarget = getCurrentThumbnailTarget();
+        thumbnailCache = new PlayerThumbnailCache(context);
 
         // The UIs added here should always be present. They will be initialized when the player
         // reaches the initialization step. Make sure the media session ui is before the
@@ -315,7 +354,7 @@ public final class Player implements PlaybackListener, Listener {
         if (queueCache == null) {
             return;
         }
-        final PlayQueue newQueue = SerializedCache.getInstance().take(queueCache, PlayQueue.class);
+        final PlayQueue newQueue = PlayQueueHandOff.take(queueCache);
         if (newQueue == null) {
             return;
         }
@@ -325,6 +364,7 @@ public final class Player implements PlaybackListener, Listener {
         initUIsForCurrentPlayerType();
         // We need to setup audioOnly before super(), see "sourceOf"
         isAudioOnly = audioPlayerSelected();
+        updateGaplessAudio();
 
         if (intent.hasExtra(PLAYBACK_QUALITY)) {
             setPlaybackQuality(intent.getStringExtra(PLAYBACK_QUALITY));
@@ -375,7 +415,8 @@ public final class Player implements PlaybackListener, Listener {
                     == com.google.android.exoplayer2.Player.STATE_IDLE) {
                 simpleExoPlayer.prepare();
             }
-            simpleExoPlayer.seekTo(playQueue.getIndex(), newQueue.getItem().getRecoveryPosition());
+            simpleExoPlayer.seekTo(playQueue.getIndex() - getPlaylistStart(),
+                    newQueue.getItem().getRecoveryPosition());
             simpleExoPlayer.setPlayWhenReady(playWhenReady);
 
         } else if (!exoPlayerIsNull()
@@ -437,7 +478,13 @@ public final class Player implements PlaybackListener, Listener {
             // If playerType changes from one to another we should reload the player
             // (to disable/enable video stream or to set quality)
             setRecovery();
-            reloadPlayQueueManager();
+            if (!exoPlayerIsNull() && isHeadless != audioPlayerSelected()) {
+                // the player was built with or without video renderers for the old player type
+                initPlayback(playQueue, getRepeatMode(), getPlaybackSpeed(), getPlaybackPitch(),
+                        getPlaybackSkipSilence(), getPlayWhenReady(), isMuted());
+            } else {
+                reloadPlayQueueManager();
+            }
         }
 
         UIs.call(PlayerUi::setupAfterIntent);
@@ -503,7 +550,12 @@ public final class Player implements PlaybackListener, Listener {
             Log.d(TAG, "initPlayer() called with: playOnReady = [" + playOnReady + "]");
         }
 
-        simpleExoPlayer = new ExoPlayer.Builder(context, renderFactory)
+        // the audio player never shows video, so it does not need the video pipeline
+        isHeadless = audioPlayerSelected();
+        loadController.setHeadless(isHeadless);
+
+        simpleExoPlayer = new ExoPlayer.Builder(context,
+                isHeadless ? audioOnlyRenderFactory : renderFactory)
                 .setTrackSelector(trackSelector)
                 .setLoadControl(loadController)
                 .setUsePlatformDiagnostics(false)
@@ -515,6 +567,8 @@ public final class Player implements PlaybackListener, Listener {
         simpleExoPlayer.setHandleAudioBecomingNoisy(true);
 
         audioReactor = new AudioReactor(context, simpleExoPlayer);
+        audioTransitionFader = new AudioTransitionFader(simpleExoPlayer);
+        updateGaplessAudio();
 
         registerBroadcastReceiver();
 
@@ -562,6 +616,10 @@ public final class Player implements PlaybackListener, Listener {
         if (audioReactor != null) {
             audioReactor.dispose();
         }
+        if (audioTransitionFader != null) {
+            audioTransitionFader.dispose();
+            audioTransitionFader = null;
+        }
         if (playQueueManager != null) {
             playQueueManager.dispose();
         }
@@ -573,6 +631,7 @@ public final class Player implements PlaybackListener, Listener {
         }
 
         saveStreamProgressState();
+        flushStreamProgressState();
         setRecovery();
         stopActivityBinding();
 
@@ -580,8 +639,13 @@ public final class Player implements PlaybackListener, Listener {
         unregisterBroadcastReceiver();
 
         databaseUpdateDisposable.clear();
-        progressUpdateDisposable.set(null);
+        progressUpdateSubscribers.clear();
+        stopProgressLoop();
         cancelLoadingCurrentThumbnail();
+        thumbnailCache.clear();
+
+        dataSource.getCache().pin(Collections.emptyList());
+        dataSource.getCache().saveStats(context);
 
         UIs.destroyAll(Object.class); // destroy every UI: obviously every UI extends Object
     }
@@ -616,8 +680,28 @@ public final class Player implements PlaybackListener, Listener {
         }
 
         if (playQueue != null) {
-            playQueueManager = new MediaSourceManager(this, playQueue);
+            playQueueManager = new MediaSourceManager(this, playQueue, prefetcher);
+        }
+        pinQueueStreams();
+    }
+
+    /**
+     * Protects the cached streams of the queue items around the current one from eviction,
+     * replacing the streams pinned before.
+     */
+    private void pinQueueStreams() {
+        final List<String> urls = new ArrayList<>();
+        if (playQueue != null) {
+            final int index = playQueue.getIndex();
+            final int end = Math.min(playQueue.size(), index + 1 + PINNED_STREAMS_AFTER);
+            for (int i = Math.max(0, index - PINNED_STREAMS_BEFORE); i < end; i++) {
+                final PlayQueueItem item = playQueue.getItem(i);
+                if (item != null) {
+                    urls.add(item.getUrl());
+                }
+            }
         }
+        dataSource.getCache().pin(urls);
     }
 
     @Override // own playback listener
@@ -682,6 +766,9 @@ public final class Player implements PlaybackListener, Listener {
         intentFilter.addAction(Intent.ACTION_SCREEN_ON);
         intentFilter.addAction(Intent.ACTION_SCREEN_OFF);
         intentFilter.addAction(Intent.ACTION_HEADSET_PLUG);
+
+        // the buffer sizes depend on whether the network is metered
+        intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
     }
 
     private void onBroadcastReceived(final Intent intent) {
@@ -727,6 +814,28 @@ public final class Player implements PlaybackListener, Listener {
                     Log.d(TAG, "ACTION_CONFIGURATION_CHANGED received");
                 }
                 break;
+            case ConnectivityManager.CONNECTIVITY_ACTION:
+                loadController.onNetworkChanged();
+                break;
+            case Intent.ACTION_SCREEN_ON:
+                isScreenOn = true;
+                updateProgressLoop();
+                triggerProgressUpdate();
+                break;
+            case Intent.ACTION_SCREEN_OFF:
+                isScreenOn = false;
+                updateProgressLoop();
+                break;
+            case VideoDetailFragment.ACTION_VIDEO_FRAGMENT_RESUMED:
+                if (fragmentListener != null) {
+                    requestProgressUpdates(fragmentListener);
+                }
+                break;
+            case VideoDetailFragment.ACTION_VIDEO_FRAGMENT_STOPPED:
+                if (fragmentListener != null) {
+                    cancelProgressUpdates(fragmentListener);
+                }
+                break;
         }
 
         UIs.call(playerUi -> playerUi.onBroadcastReceived(intent));
@@ -765,15 +874,16 @@ public final class Player implements PlaybackListener, Listener {
                             + " -> " + bitmap.getWidth() + "x" + bitmap.getHeight() + "], from = ["
                             + from + "]");
                 }
+                thumbnailCache.put(loadingThumbnailUrl, bitmap);
                 // there is a new thumbnail, so e.g. the end screen thumbnail needs to change, too.
-                onThumbnailLoaded(bitmap);
+                onThumbnailLoaded(bitmap, loadingThumbnailUrl);
             }
 
             @Override
             public void onBitmapFailed(final Exception e, final Drawable errorDrawable) {
                 Log.e(TAG, "Thumbnail - onBitmapFailed() called", e);
                 // there is a new thumbnail, so e.g. the end screen thumbnail needs to change, too.
-                onThumbnailLoaded(null);
+                onThumbnailLoaded(null, null);
             }
 
             @Override
@@ -794,14 +904,26 @@ public final class Player implements PlaybackListener, Listener {
         // first cancel any previous loading
         cancelLoadingCurrentThumbnail();
 
+        // the thumbnail may have been prefetched while the previous item was playing
+        final Bitmap cachedThumbnail = thumbnailCache.get(url);
+        if (cachedThumbnail != null) {
+            onThumbnailLoaded(cachedThumbnail, url);
+            return;
+        }
+
         // Unset currentThumbnail, since it is now outdated. This ensures it is not used in media
-        // session metadata while the new thumbnail is being loaded by Picasso.
-        onThumbnailLoaded(null);
+        // session metadata while the new thumbnail is being loaded by Picasso. The thumbnail of
+        // the current queue item, set when synchronizing, is still valid and is kept instead.
+        if (currentItem == null || currentThumbnailUrl == null
+                || !currentThumbnailUrl.equals(currentItem.getThumbnailUrl())) {
+            onThumbnailLoaded(null, null);
+        }
         if (isNullOrEmpty(url)) {
             return;
         }
 
         // scale down the notification thumbnail for performance
+        loadingThumbnailUrl = url;
         PicassoHelper.loadScaledDownThumbnail(context, url)
                 .tag(PICASSO_PLAYER_THUMBNAIL_TAG)
                 .into(currentThumbnailTarget);
@@ -812,15 +934,38 @@ public final class Player implements PlaybackListener, Listener {
         PicassoHelper.cancelTag(PICASSO_PLAYER_THUMBNAIL_TAG);
     }
 
-    private void onThumbnailLoaded(@Nullable final Bitmap bitmap) {
-        // Avoid useless thumbnail updates, if the thumbnail has not actually changed. Based on the
-        // thumbnail loading code, this if would be skipped only when both bitmaps are `null`, since
-        // onThumbnailLoaded won't be called twice with the same nonnull bitmap by Picasso's target.
+    private void onThumbnailLoaded(@Nullable final Bitmap bitmap,
+                                   @Nullable final String thumbnailUrl) {
+        currentThumbnailUrl = thumbnailUrl;
+        // Avoid useless thumbnail updates, if the thumbnail has not actually changed. This happens
+        // when both bitmaps are `null`, or when the same prefetched bitmap is passed twice: once
+        // when synchronizing with the new queue item and once on a pool hit in
+        // loadCurrentThumbnail.
         if (currentThumbnail != bitmap) {
             currentThumbnail = bitmap;
             UIs.call(playerUi -> playerUi.onThumbnailLoaded(bitmap));
         }
     }
+
+    /**
+     * Loads the thumbnails of the next items of the queue in background, so that the media
+     * session and the notification can show them as soon as the items are played.
+     */
+    private void prefetchQueueThumbnails() {
+        if (playQueue == null) {
+            return;
+        }
+        final List<String> urls = new ArrayList<>(THUMBNAIL_PREFETCH_COUNT);
+        final int end = Math.min(playQueue.size(), playQueue.getIndex() + 1
+                + THUMBNAIL_PREFETCH_COUNT);
+        for (int i = playQueue.getIndex() + 1; i < end; i++) {
+            final PlayQueueItem item = playQueue.getItem(i);
+            if (item != null) {
+                urls.add(item.getThumbnailUrl());
+            }
+        }
+        thumbnailCache.prefetch(urls);
+    }
     //endregion
 
 
@@ -889,16 +1034,59 @@ public final class Player implements PlaybackListener, Listener {
         }
     }
 
+    /**
+     * Enables the progress updates, which are delivered periodically while some UI or listener
+     * requested them and the screen is on, see {@link #requestProgressUpdates(Object)}.
+     */
     public void startProgressLoop() {
-        progressUpdateDisposable.set(getProgressUpdateDisposable());
+        progressLoopEnabled = true;
+        updateProgressLoop();
     }
 
     private void stopProgressLoop() {
-        progressUpdateDisposable.set(null);
+        progressLoopEnabled = false;
+        updateProgressLoop();
     }
 
     public boolean isProgressLoopRunning() {
-        return progressUpdateDisposable.get() != null;
+        return progressLoopEnabled;
+    }
+
+    /**
+     * Requests periodic progress updates, e.g. because a UI showing the progress became visible.
+     * The updates are delivered to all UIs and listeners every
+     * {@link #PROGRESS_LOOP_INTERVAL_MILLIS}, and not at all while nobody requested them, so that
+     * the player does not wake up to update nothing (e.g. when only the notification is shown).
+     *
+     * @param subscriber the UI or listener showing the progress
+     */
+    public void requestProgressUpdates(@NonNull final Object subscriber) {
+        if (progressUpdateSubscribers.add(subscriber)) {
+            updateProgressLoop();
+        }
+    }
+
+    /**
+     * Cancels a request made with {@link #requestProgressUpdates(Object)}, e.g. because the
+     * UI showing the progress is not visible anymore.
+     *
+     * @param subscriber the UI or listener which does not show the progress anymore
+     */
+    public void cancelProgressUpdates(@NonNull final Object subscriber) {
+        if (progressUpdateSubscribers.remove(subscriber)) {
+            updateProgressLoop();
+        }
+    }
+
+    private void updateProgressLoop() {
+        final boolean shouldSchedule = progressLoopEnabled && isScreenOn
+                && !progressUpdateSubscribers.isEmpty();
+        if (shouldSchedule == progressLoopScheduled) {
+            return;
+        }
+
+        progressLoopScheduled = shouldSchedule;
+        progressUpdateDisposable.set(shouldSchedule ? getProgressUpdateDisposable() : null);
     }
 
     public void triggerProgressUpdate() {
@@ -988,6 +1176,7 @@ public final class Player implements PlaybackListener, Listener {
             case com.google.android.exoplayer2.Player.STATE_ENDED: // 4
                 changeState(STATE_COMPLETED);
                 saveStreamProgressStateCompleted();
+                flushStreamProgressState();
                 isPrepared = false;
                 break;
         }
@@ -1310,7 +1499,15 @@ public final class Player implements PlaybackListener, Listener {
         }
 
         // Refresh the playback if there is a transition to the next video
-        final int newIndex = newPosition.mediaItemIndex;
+        final int newIndex;
+        if (discontinuityReason == DISCONTINUITY_REASON_AUTO_TRANSITION
+                && newPosition.mediaItemIndex < oldPosition.mediaItemIndex) {
+            // the timeline only contains a part of the queue, so when repeating it the player
+            // wraps around to the beginning of the timeline instead of the beginning of the queue
+            newIndex = 0;
+        } else {
+            newIndex = newPosition.mediaItemIndex + getPlaylistStart();
+        }
         switch (discontinuityReason) {
             case DISCONTINUITY_REASON_AUTO_TRANSITION:
             case DISCONTINUITY_REASON_REMOVE:
@@ -1394,6 +1591,7 @@ public final class Player implements PlaybackListener, Listener {
         Log.e(TAG, "ExoPlayer - onPlayerError() called with:", error);
 
         saveStreamProgressState();
+        flushStreamProgressState();
         boolean isCatchableException = false;
 
         switch (error.errorCode) {
@@ -1514,7 +1712,8 @@ public final class Player implements PlaybackListener, Listener {
         }
 
         final int playQueueIndex = playQueue.indexOf(item);
-        final int playlistIndex = simpleExoPlayer.getCurrentMediaItemIndex();
+        final int playlistIndex = playQueueIndex - getPlaylistStart();
+        final int currentPlaylistIndex = simpleExoPlayer.getCurrentMediaItemIndex();
         final int playlistSize = simpleExoPlayer.getCurrentTimeline().getWindowCount();
         final boolean removeThumbnailBeforeSync = currentItem == null
                 || currentItem.getServiceId() != item.getServiceId()
@@ -1528,31 +1727,35 @@ public final class Player implements PlaybackListener, Listener {
             Log.e(TAG, "Playback - Play Queue may be not in sync: item index=["
                     + playQueueIndex + "], " + "queue index=[" + playQueue.getIndex() + "]");
 
-        } else if ((playlistSize > 0 && playQueueIndex >= playlistSize) || playQueueIndex < 0) {
+        } else if ((playlistSize > 0 && playlistIndex >= playlistSize) || playlistIndex < 0) {
             // the queue and the player's timeline are not in sync, since the play queue index
             // points outside of the timeline
-            Log.e(TAG, "Playback - Trying to seek to invalid index=[" + playQueueIndex
+            Log.e(TAG, "Playback - Trying to seek to invalid index=[" + playlistIndex
                     + "] with playlist length=[" + playlistSize + "]");
 
-        } else if (wasBlocked || playlistIndex != playQueueIndex || !isPlaying()) {
+        } else if (wasBlocked || currentPlaylistIndex != playlistIndex || !isPlaying()) {
             // either the player needs to be unblocked, or the play queue index has just been
             // changed and needs to be synchronized, or the player is not playing
             if (DEBUG) {
-                Log.d(TAG, "Playback - Rewinding to correct index=[" + playQueueIndex + "], "
-                        + "from=[" + playlistIndex + "], size=[" + playlistSize + "].");
+                Log.d(TAG, "Playback - Rewinding to correct index=[" + playlistIndex + "], "
+                        + "from=[" + currentPlaylistIndex + "], size=[" + playlistSize + "].");
             }
 
             if (removeThumbnailBeforeSync) {
-                // unset the current (now outdated) thumbnail to ensure it is not used during sync
-                onThumbnailLoaded(null);
+                // replace the current (now outdated) thumbnail to ensure it is not used during
+                // sync, with the prefetched thumbnail of the new item if it is already available
+                final String thumbnailUrl = item.getThumbnailUrl();
+                final Bitmap prefetchedThumbnail = thumbnailCache.get(thumbnailUrl);
+                onThumbnailLoaded(prefetchedThumbnail,
+                        prefetchedThumbnail == null ? null : thumbnailUrl);
             }
 
             // sync the player index with the queue index, and seek to the correct position
             if (item.getRecoveryPosition() != PlayQueueItem.RECOVERY_UNSET) {
-                simpleExoPlayer.seekTo(playQueueIndex, item.getRecoveryPosition());
+                simpleExoPlayer.seekTo(playlistIndex, item.getRecoveryPosition());
                 playQueue.unsetRecovery(playQueueIndex);
             } else {
-                simpleExoPlayer.seekToDefaultPosition(playQueueIndex);
+                simpleExoPlayer.seekToDefaultPosition(playlistIndex);
             }
         }
     }
@@ -1580,6 +1783,21 @@ public final class Player implements PlaybackListener, Listener {
             simpleExoPlayer.seekToDefaultPosition();
         }
     }
+
+    /**
+     * @return the index in the play queue of the first item of the timeline of the player, which
+     * only contains a part of the queue (see {@link MediaSourceManager})
+     */
+    private int getPlaylistStart() {
+        return playQueueManager == null ? 0 : playQueueManager.getPlaylistStart();
+    }
+
+    /**
+     * @return the index in the play queue of the item the player is currently at
+     */
+    private int getCurrentQueueIndex() {
+        return simpleExoPlayer.getCurrentMediaItemIndex() + getPlaylistStart();
+    }
     //endregion
 
 
@@ -1622,6 +1840,7 @@ public final class Player implements PlaybackListener, Listener {
         audioReactor.abandonAudioFocus();
         simpleExoPlayer.pause();
         saveStreamProgressState();
+        flushStreamProgressState();
     }
 
     public void playPause() {
@@ -1727,7 +1946,7 @@ public final class Player implements PlaybackListener, Listener {
 
     public void saveStreamProgressState() {
         if (exoPlayerIsNull() || currentMetadata == null || playQueue == null
-                || playQueue.getIndex() != simpleExoPlayer.getCurrentMediaItemIndex()) {
+                || playQueue.getIndex() != getCurrentQueueIndex()) {
             // Make sure play queue and current window index are equal, to prevent saving state for
             // the wrong stream on discontinuity (e.g. when the stream just changed but the
             // playQueue index and currentMetadata still haven't updated)
@@ -1739,6 +1958,23 @@ public final class Player implements PlaybackListener, Listener {
         saveStreamProgressState(simpleExoPlayer.getCurrentPosition());
     }
 
+    /**
+     * Writes the progress saved so far to the database. The progress is otherwise written at
+     * most a few seconds after being saved, to coalesce the frequent saves during playback.
+     */
+    private void flushStreamProgressState() {
+        // not added to databaseUpdateDisposable, which is cleared when the player is destroyed
+        //noinspection ResultOfMethodCallIgnored
+        recordManager.flushStreamStates()
+                .doOnError(e -> {
+                    if (DEBUG) {
+                        e.printStackTrace();
+                    }
+                })
+                .onErrorComplete()
+                .subscribe();
+    }
+
     public void saveStreamProgressStateCompleted() {
         // current stream has ended, so the progress is its duration (+1 to overcome rounding)
         getCurrentStreamInfo().ifPresent(info ->
@@ -1762,8 +1998,11 @@ public final class Player implements PlaybackListener, Listener {
         }
 
         maybeAutoQueueNextStream(info);
+        loadController.onContentChanged(info, isAudioOnly);
 
         loadCurrentThumbnail(info.getThumbnailUrl());
+        prefetchQueueThumbnails();
+        pinQueueStreams();
         registerStreamViewed();
 
         notifyMetadataUpdateToListeners();
@@ -1840,7 +2079,7 @@ public final class Player implements PlaybackListener, Listener {
             return;
         }
 
-        if (playQueue.getIndex() == index && simpleExoPlayer.getCurrentMediaItemIndex() == index) {
+        if (playQueue.getIndex() == index && getCurrentQueueIndex() == index) {
             seekToDefault();
         } else {
             saveStreamProgressState();
@@ -1850,6 +2089,7 @@ public final class Player implements PlaybackListener, Listener {
 
     @Override
     public void onPlayQueueEdited() {
+        pinQueueStreams();
         notifyPlaybackUpdateToListeners();
         UIs.call(PlayerUi::onPlayQueueEdited);
     }
@@ -1952,7 +2192,11 @@ public final class Player implements PlaybackListener, Listener {
     //region Activity / fragment binding
 
     public void setFragmentListener(final PlayerServiceEventListener listener) {
+        if (fragmentListener != null) {
+            cancelProgressUpdates(fragmentListener);
+        }
         fragmentListener = listener;
+        requestProgressUpdates(listener);
         UIs.call(PlayerUi::onFragmentListenerSet);
         notifyQueueUpdateToListeners();
         notifyMetadataUpdateToListeners();
@@ -1962,12 +2206,17 @@ public final class Player implements PlaybackListener, Listener {
 
     public void removeFragmentListener(final PlayerServiceEventListener listener) {
         if (fragmentListener == listener) {
+            cancelProgressUpdates(listener);
             fragmentListener = null;
         }
     }
 
     void setActivityListener(final PlayerEventListener listener) {
+        if (activityListener != null) {
+            cancelProgressUpdates(activityListener);
+        }
         activityListener = listener;
+        requestProgressUpdates(listener);
         // TODO why not queue update?
         notifyMetadataUpdateToListeners();
         notifyPlaybackUpdateToListeners();
@@ -1976,6 +2225,7 @@ public final class Player implements PlaybackListener, Listener {
 
     void removeActivityListener(final PlayerEventListener listener) {
         if (activityListener == listener) {
+            cancelProgressUpdates(listener);
             activityListener = null;
         }
     }
@@ -1983,10 +2233,12 @@ public final class Player implements PlaybackListener, Listener {
     void stopActivityBinding() {
         if (fragmentListener != null) {
             fragmentListener.onServiceStopped();
+            cancelProgressUpdates(fragmentListener);
             fragmentListener = null;
         }
         if (activityListener != null) {
             activityListener.onServiceStopped();
+            cancelProgressUpdates(activityListener);
             activityListener = null;
         }
     }
@@ -2033,12 +2285,26 @@ public final class Player implements PlaybackListener, Listener {
         }
     }
 
+    /**
+     * Plays the items of the queue without a pause between them, optionally fading between them,
+     * while only audio is played and the user enabled gapless audio playback.
+     */
+    private void updateGaplessAudio() {
+        final boolean gaplessAudio = isAudioOnly && PlayerHelper.isGaplessAudioEnabled(context);
+        prefetcher.setGaplessAudio(gaplessAudio);
+        if (audioTransitionFader != null) {
+            audioTransitionFader.setFadeMillis(
+                    gaplessAudio ? PlayerHelper.getAudioCrossfadeMillis(context) : 0);
+        }
+    }
+
     public void useVideoSource(final boolean videoEnabled) {
         if (playQueue == null || isAudioOnly == !videoEnabled || audioPlayerSelected()) {
             return;
         }
 
         isAudioOnly = !videoEnabled;
+        updateGaplessAudio();
 
         // The current metadata may be null sometimes (for e.g. when using an unstable connection
         // in livestreams) so we will be not able to execute the block below.
@@ -2052,6 +2318,7 @@ public final class Player implements PlaybackListener, Listener {
         }
 
         final StreamInfo info = optCurrentStreamInfo.get();
+        loadController.onContentChanged(info, isAudioOnly);
 
         // In the case we don't know the source type, fallback to the one with video with audio or
         // audio-only source.
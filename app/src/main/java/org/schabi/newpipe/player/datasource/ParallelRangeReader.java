@@ -0,0 +1,320 @@
+package org.schabi.newpipe.player.datasource;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a range of a resource through several concurrent range requests, returning the bytes in
+ * order.
+ * <p>
+ * The range is split into chunks of the same size. The first chunk is read from the connection
+ * which was already opened for the whole range, while the following ones are requested in
+ * parallel, at most one per connection ahead of the chunk being read. The bytes of a chunk are
+ * returned as soon as they are received, so reading is never slower than with a single
+ * connection. A chunk whose connection fails is requested again from the first missing byte, a
+ * few times.
+ * </p>
+ * <p>
+ * The chunks are downloaded by an executor shared by all the readers of a data source factory
+ * (see {@link #newExecutor()}), which bounds the number of connections made by all of them.
+ * </p>
+ * <p>
+ * {@link #read(byte[], int, int)} and {@link #close()} must be called from the same thread.
+ * </p>
+ */
+final class ParallelRangeReader implements Closeable {
+
+    /**
+     * The number of threads of an executor created by {@link #newExecutor()}, i.e. the maximum
+     * number of concurrent chunk requests of all its readers. Enough for the audio and the video
+     * stream to use the maximum number of connections at the same time.
+     */
+    private static final int MAX_WORKER_THREADS = 6;
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * How many times the request of a chunk is repeated after a failure.
+     */
+    private static final int MAX_CHUNK_RETRIES = 2;
+
+    interface RangeOpener {
+        /**
+         * Opens a connection to read the given range of the resource.
+         *
+         * @param position the position of the first byte
+         * @param length   the length of the range
+         * @return a stream of the range, which disconnects when closed
+         * @throws IOException if the connection failed or the server did not honor the range
+         */
+        @NonNull
+        InputStream open(long position, long length) throws IOException;
+    }
+
+    @NonNull
+    private final RangeOpener opener;
+    @NonNull
+    private final Executor executor;
+    private final int connections;
+    private final int chunkSize;
+    private final long end;
+
+    /**
+     * The chunks which are being requested, in order. The first one is the chunk being read.
+     */
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    private long nextChunkPosition;
+
+    /**
+     * The stream of the connection opened for the whole range, until its first chunk is read.
+     */
+    @Nullable
+    private InputStream firstChunkStream;
+    private long firstChunkRemaining;
+
+    private int readOffset;
+
+    /**
+     * @param firstChunkStream the stream of the connection opened for the whole range
+     * @param opener           opens the connections of the following chunks
+     * @param executor         downloads the following chunks, see {@link #newExecutor()}
+     * @param position         the position of the range
+     * @param length           the length of the range, must be known
+     * @param connections      the maximum number of concurrent connections
+     * @param chunkSize        the size of every chunk
+     */
+    ParallelRangeReader(@NonNull final InputStream firstChunkStream,
+                        @NonNull final RangeOpener opener,
+                        @NonNull final Executor executor,
+                        final long position,
+                        final long length,
+                        final int connections,
+                        final int chunkSize) {
+        this.opener = opener;
+        this.connections = connections;
+        this.chunkSize = chunkSize;
+        this.end = position + length;
+        this.executor = executor;
+
+        this.firstChunkStream = firstChunkStream;
+        this.firstChunkRemaining = Math.min(chunkSize, length);
+        this.nextChunkPosition = position + firstChunkRemaining;
+        requestChunks();
+    }
+
+    /**
+     * Creates a bounded executor to be shared by several readers. Its threads are stopped when
+     * they are idle, so it does not need to be shut down.
+     *
+     * @return a new executor for the chunks of the readers
+     */
+    @NonNull
+    static Executor newExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_WORKER_THREADS,
+                MAX_WORKER_THREADS, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    final Thread thread = new Thread(runnable, "ParallelRangeReader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Reads bytes of the range, blocking until at least one is available.
+     *
+     * @return the number of bytes read, or {@code -1} if the end of the range was reached
+     */
+    int read(@NonNull final byte[] buffer, final int offset, final int length)
+            throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        if (firstChunkStream != null) {
+            final int read = firstChunkStream.read(buffer, offset,
+                    (int) Math.min(length, firstChunkRemaining));
+            if (read == -1) {
+                throw new EOFException("Connection closed before the end of the first chunk");
+            }
+            firstChunkRemaining -= read;
+            if (firstChunkRemaining == 0) {
+                // the rest of the range is read from the other connections
+                closeQuietly(firstChunkStream);
+                firstChunkStream = null;
+            }
+            return read;
+        }
+
+        final Chunk chunk = chunks.peekFirst();
+        if (chunk == null) {
+            return -1;
+        }
+
+        final int read = chunk.read(readOffset, buffer, offset, length);
+        readOffset += read;
+        if (readOffset == chunk.data.length) {
+            chunks.removeFirst();
+            readOffset = 0;
+            requestChunks();
+        }
+        return read;
+    }
+
+    @Override
+    public void close() {
+        // the executor is shared, the chunks not started yet are skipped when cancelled
+        for (final Chunk chunk : chunks) {
+            chunk.cancel();
+        }
+        chunks.clear();
+        if (firstChunkStream != null) {
+            closeQuietly(firstChunkStream);
+            firstChunkStream = null;
+        }
+    }
+
+    /**
+     * Requests the following chunks, keeping one chunk per connection in flight, the connection
+     * of the first chunk included.
+     */
+    private void requestChunks() {
+        final int maxChunks = firstChunkStream == null ? connections : connections - 1;
+        while (chunks.size() < maxChunks && nextChunkPosition < end) {
+            final Chunk chunk = new Chunk(nextChunkPosition,
+                    (int) Math.min(chunkSize, end - nextChunkPosition));
+            nextChunkPosition += chunk.data.length;
+            chunks.addLast(chunk);
+            executor.execute(chunk::fetch);
+        }
+    }
+
+    private static void closeQuietly(@NonNull final InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (final IOException e) {
+            // nothing to do
+        }
+    }
+
+    private final class Chunk {
+        private final long position;
+        @NonNull
+        private final byte[] data;
+
+        // guarded by this
+        private int filled;
+        @Nullable
+        private IOException error;
+        @Nullable
+        private InputStream stream;
+        private boolean cancelled;
+
+        Chunk(final long position, final int length) {
+            this.position = position;
+            this.data = new byte[length];
+        }
+
+        /**
+         * Downloads the chunk, called on a worker thread.
+         */
+        void fetch() {
+            int retries = 0;
+            while (true) {
+                try {
+                    fetchRemaining();
+                    return;
+                } catch (final IOException e) {
+                    synchronized (this) {
+                        if (cancelled || retries++ >= MAX_CHUNK_RETRIES) {
+                            error = e;
+                            notifyAll();
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Downloads the bytes of the chunk not received yet.
+         */
+        private void fetchRemaining() throws IOException {
+            int received;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                received = filled;
+            }
+
+            final InputStream inputStream = opener.open(position + received,
+                    data.length - received);
+            synchronized (this) {
+                if (cancelled) {
+                    closeQuietly(inputStream);
+                    return;
+                }
+                stream = inputStream;
+            }
+
+            try {
+                while (received < data.length) {
+                    final int read = inputStream.read(data, received, data.length - received);
+                    if (read == -1) {
+                        throw new EOFException("Connection closed at " + (position + received));
+                    }
+                    received += read;
+                    synchronized (this) {
+                        filled = received;
+                        notifyAll();
+                    }
+                }
+            } finally {
+                closeQuietly(inputStream);
+            }
+        }
+
+        /**
+         * Copies the bytes already received after the given offset, waiting until there is at
+         * least one.
+         */
+        synchronized int read(final int chunkOffset, @NonNull final byte[] buffer,
+                              final int offset, final int length) throws IOException {
+            while (filled <= chunkOffset) {
+                if (error != null) {
+                    throw error;
+                }
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+
+            final int read = Math.min(length, filled - chunkOffset);
+            System.arraycopy(data, chunkOffset, buffer, offset, read);
+            return read;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (stream != null) {
+                // unblocks the worker thread
+                closeQuietly(stream);
+            }
+        }
+    }
+}
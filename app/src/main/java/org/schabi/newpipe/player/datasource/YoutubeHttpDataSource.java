@@ -9,15 +9,8 @@ package org.schabi.newpipe.player.datasource;
 
 import static com.google.android.exoplayer2.upstream.DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS;
 import static com.google.android.exoplayer2.upstream.DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS;
-import static com.google.android.exoplayer2.upstream.HttpUtil.buildRangeRequestHeader;
 import static com.google.android.exoplayer2.util.Assertions.checkNotNull;
 import static com.google.android.exoplayer2.util.Util.castNonNull;
-import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.getAndroidUserAgent;
-import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.getIosUserAgent;
-import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.isAndroidStreamingUrl;
-import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.isIosStreamingUrl;
-import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.isWebStreamingUrl;
-import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.isTvHtml5SimplyEmbeddedPlayerStreamingUrl;
 import static java.lang.Math.min;
 
 import android.net.Uri;
@@ -44,8 +37,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
 import com.google.common.net.HttpHeaders;
 
-import org.schabi.newpipe.DownloaderImpl;
-
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
@@ -60,6 +52,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.IntSupplier;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -97,6 +91,10 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
 
         private boolean rangeParameterEnabled;
         private boolean rnParameterEnabled;
+        @Nullable
+        private IntSupplier parallelConnections;
+        @Nullable
+        private Executor parallelExecutor;
 
         /**
          * Creates an instance.
@@ -195,6 +193,35 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
             return this;
         }
 
+        /**
+         * Sets the number of concurrent connections used to read large ranges of
+         * {@code videoplayback} URLs.
+         *
+         * <p>
+         * Throttled servers limit the throughput of every connection, so splitting a large read
+         * into concurrent range requests allows to use the full bandwidth of the network. Each
+         * request gets its own {@code rn} parameter, if enabled. By default a single connection
+         * is used.
+         * </p>
+         * <p>
+         * The supplier is called every time a large range is opened, so that the number can
+         * depend on the current network. The additional connections are made by threads shared
+         * by all the data sources created by this factory.
+         * </p>
+         *
+         * @param parallelConnectionsSupplier supplies the maximum number of concurrent
+         *                                    connections per opened range
+         * @return This factory.
+         */
+        public Factory setParallelConnections(
+                @NonNull final IntSupplier parallelConnectionsSupplier) {
+            parallelConnections = parallelConnectionsSupplier;
+            if (parallelExecutor == null) {
+                parallelExecutor = ParallelRangeReader.newExecutor();
+            }
+            return this;
+        }
+
         /**
          * Sets a content type {@link Predicate}. If a content type is rejected by the predicate
          * then a {@link HttpDataSource.InvalidContentTypeException} is thrown from
@@ -252,6 +279,8 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
                     allowCrossProtocolRedirects,
                     rangeParameterEnabled,
                     rnParameterEnabled,
+                    parallelConnections,
+                    parallelExecutor,
                     defaultRequestProperties,
                     contentTypePredicate,
                     keepPostFor302Redirects);
@@ -268,12 +297,19 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
     private static final int HTTP_STATUS_PERMANENT_REDIRECT = 308;
     private static final long MAX_BYTES_TO_DRAIN = 2048;
 
-    private static final String RN_PARAMETER = "&rn=";
-    private static final String YOUTUBE_BASE_URL = "https://www.youtube.com";
+    /**
+     * Size of the chunks requested concurrently when multiple connections are used. Ranges
+     * shorter than two chunks are always read with a single connection.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 1024 * 1024;
 
     private final boolean allowCrossProtocolRedirects;
     private final boolean rangeParameterEnabled;
-    private final boolean rnParameterEnabled;
+    private final YoutubeRequestBuilder requestBuilder;
+    @Nullable
+    private final IntSupplier parallelConnections;
+    @Nullable
+    private final Executor parallelExecutor;
 
     private final int connectTimeoutMillis;
     private final int readTimeoutMillis;
@@ -290,19 +326,21 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
     private HttpURLConnection connection;
     @Nullable
     private InputStream inputStream;
+    @Nullable
+    private ParallelRangeReader parallelRangeReader;
     private boolean opened;
     private int responseCode;
     private long bytesToRead;
     private long bytesRead;
 
-    private long requestNumber;
-
     @SuppressWarnings("checkstyle:ParameterNumber")
     private YoutubeHttpDataSource(final int connectTimeoutMillis,
                                   final int readTimeoutMillis,
                                   final boolean allowCrossProtocolRedirects,
                                   final boolean rangeParameterEnabled,
                                   final boolean rnParameterEnabled,
+                                  @Nullable final IntSupplier parallelConnections,
+                                  @Nullable final Executor parallelExecutor,
                                   @Nullable final RequestProperties defaultRequestProperties,
                                   @Nullable final Predicate<String> contentTypePredicate,
                                   final boolean keepPostFor302Redirects) {
@@ -311,12 +349,14 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
         this.readTimeoutMillis = readTimeoutMillis;
         this.allowCrossProtocolRedirects = allowCrossProtocolRedirects;
         this.rangeParameterEnabled = rangeParameterEnabled;
-        this.rnParameterEnabled = rnParameterEnabled;
+        this.requestBuilder = new YoutubeRequestBuilder(rangeParameterEnabled,
+                rnParameterEnabled);
+        this.parallelConnections = parallelConnections;
+        this.parallelExecutor = parallelExecutor;
         this.defaultRequestProperties = defaultRequestProperties;
         this.contentTypePredicate = contentTypePredicate;
         this.requestProperties = new RequestProperties();
         this.keepPostFor302Redirects = keepPostFor302Redirects;
-        this.requestNumber = 0;
     }
 
     @Override
@@ -490,6 +530,18 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
                     HttpDataSourceException.TYPE_OPEN);
         }
 
+        // the number of connections is checked on every open, the network may have changed
+        final int connections = canReadInParallel(dataSpecParameter, httpURLConnection,
+                isCompressed, bytesToSkip) ? castNonNull(parallelConnections).getAsInt() : 1;
+        if (connections > 1) {
+            final URL url = httpURLConnection.getURL();
+            final Map<String, String> headers = dataSpecParameter.httpRequestHeaders;
+            parallelRangeReader = new ParallelRangeReader(castNonNull(inputStream),
+                    (position, length) -> openRange(url, headers, position, length),
+                    castNonNull(parallelExecutor), dataSpecParameter.position, bytesToRead,
+                    connections, PARALLEL_CHUNK_SIZE);
+        }
+
         return bytesToRead;
     }
 
@@ -523,6 +575,10 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
                 }
             }
         } finally {
+            if (parallelRangeReader != null) {
+                parallelRangeReader.close();
+                parallelRangeReader = null;
+            }
             inputStream = null;
             closeConnectionQuietly();
             if (opened) {
@@ -619,22 +675,8 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
             final Map<String, String> requestParameters) throws IOException {
         // This is the method that contains breaking changes with respect to DefaultHttpDataSource!
 
-        String requestUrl = url.toString();
-
-        // Don't add the request number parameter if it has been already added (for instance in
-        // DASH manifests) or if that's not a videoplayback URL
-        final boolean isVideoPlaybackUrl = url.getPath().startsWith("/videoplayback");
-        if (isVideoPlaybackUrl && rnParameterEnabled && !requestUrl.contains(RN_PARAMETER)) {
-            requestUrl += RN_PARAMETER + requestNumber;
-            ++requestNumber;
-        }
-
-        if (rangeParameterEnabled && isVideoPlaybackUrl) {
-            final String rangeParameterBuilt = buildRangeParameter(position, length);
-            if (rangeParameterBuilt != null) {
-                requestUrl += rangeParameterBuilt;
-            }
-        }
+        final String requestUrl = requestBuilder.buildUrl(url.toString(), url.getPath(),
+                position, length);
 
         final HttpURLConnection httpURLConnection = openConnection(new URL(requestUrl));
         httpURLConnection.setConnectTimeout(connectTimeoutMillis);
@@ -647,50 +689,20 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
         requestHeaders.putAll(requestProperties.getSnapshot());
         requestHeaders.putAll(requestParameters);
 
-        for (final Map.Entry<String, String> property : requestHeaders.entrySet()) {
+        for (final Map.Entry<String, String> property : requestBuilder.buildHeaders(requestUrl,
+                position, length, requestHeaders).entrySet()) {
             httpURLConnection.setRequestProperty(property.getKey(), property.getValue());
         }
 
-        if (!rangeParameterEnabled) {
-            final String rangeHeader = buildRangeRequestHeader(position, length);
-            if (rangeHeader != null) {
-                httpURLConnection.setRequestProperty(HttpHeaders.RANGE, rangeHeader);
-            }
-        }
-
-        if (isWebStreamingUrl(requestUrl)
-                || isTvHtml5SimplyEmbeddedPlayerStreamingUrl(requestUrl)) {
-            httpURLConnection.setRequestProperty(HttpHeaders.ORIGIN, YOUTUBE_BASE_URL);
-            httpURLConnection.setRequestProperty(HttpHeaders.REFERER, YOUTUBE_BASE_URL);
-            httpURLConnection.setRequestProperty(HttpHeaders.SEC_FETCH_DEST, "empty");
-            httpURLConnection.setRequestProperty(HttpHeaders.SEC_FETCH_MODE, "cors");
-            httpURLConnection.setRequestProperty(HttpHeaders.SEC_FETCH_SITE, "cross-site");
-        }
-
         httpURLConnection.setRequestProperty(HttpHeaders.TE, "trailers");
 
-        final boolean isAndroidStreamingUrl = isAndroidStreamingUrl(requestUrl);
-        final boolean isIosStreamingUrl = isIosStreamingUrl(requestUrl);
-        if (isAndroidStreamingUrl) {
-            // Improvement which may be done: find the content country used to request YouTube
-            // contents to add it in the user agent instead of using the default
-            httpURLConnection.setRequestProperty(HttpHeaders.USER_AGENT,
-                    getAndroidUserAgent(null));
-        } else if (isIosStreamingUrl) {
-            httpURLConnection.setRequestProperty(HttpHeaders.USER_AGENT,
-                    getIosUserAgent(null));
-        } else {
-            // non-mobile user agent
-            httpURLConnection.setRequestProperty(HttpHeaders.USER_AGENT, DownloaderImpl.USER_AGENT);
-        }
-
         httpURLConnection.setRequestProperty(HttpHeaders.ACCEPT_ENCODING,
                 allowGzip ? "gzip" : "identity");
         httpURLConnection.setInstanceFollowRedirects(followRedirects);
         httpURLConnection.setDoOutput(httpBody != null);
 
         // Mobile clients uses POST requests to fetch contents
-        httpURLConnection.setRequestMethod(isAndroidStreamingUrl || isIosStreamingUrl
+        httpURLConnection.setRequestMethod(YoutubeRequestBuilder.isPostRequired(requestUrl)
                 ? "POST"
                 : DataSpec.getStringForHttpMethod(httpMethod));
 
@@ -706,6 +718,65 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
         return httpURLConnection;
     }
 
+    /**
+     * Checks whether the range opened by a connection can be read with concurrent
+     * connections, if enabled: the connection must be a plain GET
+     * request to a {@code videoplayback} URL whose server supports range requests, and the range
+     * must be long enough to be split into several chunks.
+     */
+    private boolean canReadInParallel(@NonNull final DataSpec dataSpecToRead,
+                                      @NonNull final HttpURLConnection httpURLConnection,
+                                      final boolean isCompressed,
+                                      final long bytesToSkip) {
+        if (parallelConnections == null || isCompressed || bytesToSkip != 0
+                || bytesToRead == C.LENGTH_UNSET || bytesToRead < 2L * PARALLEL_CHUNK_SIZE
+                || dataSpecToRead.httpMethod != DataSpec.HTTP_METHOD_GET
+                || !YoutubeRequestBuilder.isVideoPlaybackPath(
+                        httpURLConnection.getURL().getPath())) {
+            return false;
+        }
+
+        return responseCode == HttpURLConnection.HTTP_PARTIAL || rangeParameterEnabled
+                || "bytes".equalsIgnoreCase(httpURLConnection.getHeaderField("Accept-Ranges"));
+    }
+
+    /**
+     * Opens a range of a resource for {@link ParallelRangeReader}, on one of its threads.
+     *
+     * @param url      the URL of the resource, after redirects
+     * @param headers  the request headers of the {@link DataSpec}
+     * @param position the position of the range
+     * @param length   the length of the range
+     * @return the stream of the range, which disconnects when closed
+     */
+    @NonNull
+    private InputStream openRange(@NonNull final URL url,
+                                  @NonNull final Map<String, String> headers,
+                                  final long position,
+                                  final long length) throws IOException {
+        final HttpURLConnection rangeConnection = makeConnection(url, DataSpec.HTTP_METHOD_GET,
+                null, position, length, false, true, headers);
+        final int rangeResponseCode = rangeConnection.getResponseCode();
+        // YouTube replies with 200 to requests using the range parameter
+        if (rangeResponseCode != HttpURLConnection.HTTP_PARTIAL
+                && !(rangeParameterEnabled && rangeResponseCode == HttpURLConnection.HTTP_OK)) {
+            rangeConnection.disconnect();
+            throw new IOException("Unexpected response code " + rangeResponseCode
+                    + " when requesting range " + position + "-" + (position + length - 1));
+        }
+
+        return new FilterInputStream(rangeConnection.getInputStream()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    rangeConnection.disconnect();
+                }
+            }
+        };
+    }
+
     /**
      * Creates an {@link HttpURLConnection} that is connected with the {@code url}.
      *
@@ -838,7 +909,9 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
             readLength = (int) min(readLength, bytesRemaining);
         }
 
-        final int read = castNonNull(inputStream).read(buffer, offset, readLength);
+        final int read = parallelRangeReader != null
+                ? parallelRangeReader.read(buffer, offset, readLength)
+                : castNonNull(inputStream).read(buffer, offset, readLength);
         if (read == -1) {
             return C.RESULT_END_OF_INPUT;
         }
@@ -914,40 +987,6 @@ public final class YoutubeHttpDataSource extends BaseDataSource implements HttpD
         return "gzip".equalsIgnoreCase(contentEncoding);
     }
 
-    /**
-     * Builds a {@code range} parameter for the given position and length.
-     *
-     * <p>
-     * To fetch its contents, YouTube use range requests which append a {@code range} parameter
-     * to videoplayback URLs instead of the {@code Range} header (even if the server respond
-     * correctly when requesting a range of a ressouce with it).
-     * </p>
-     *
-     * <p>
-     * The parameter works in the same way as the header.
-     * </p>
-     *
-     * @param position The request position.
-     * @param length The request length, or {@link C#LENGTH_UNSET} if the request is unbounded.
-     * @return The corresponding {@code range} parameter, or {@code null} if this parameter is
-     * unnecessary because the whole resource is being requested.
-     */
-    @Nullable
-    private static String buildRangeParameter(final long position, final long length) {
-        if (position == 0 && length == C.LENGTH_UNSET) {
-            return null;
-        }
-
-        final StringBuilder rangeParameter = new StringBuilder();
-        rangeParameter.append("&range=");
-        rangeParameter.append(position);
-        rangeParameter.append("-");
-        if (length != C.LENGTH_UNSET) {
-            rangeParameter.append(position + length - 1);
-        }
-        return rangeParameter.toString();
-    }
-
     private static final class NullFilteringHeadersMap
             extends ForwardingMap<String, List<String>> {
         private final Map<String, List<String>> headers;
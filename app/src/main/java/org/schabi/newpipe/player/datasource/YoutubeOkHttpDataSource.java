@@ -0,0 +1,838 @@
+/*
+ * Based on ExoPlayer's OkHttpDataSource, version 2.18.1.
+ *
+ * Original source code copyright (C) 2016 The Android Open Source Project, licensed under the
+ * Apache License, Version 2.0.
+ */
+
+package org.schabi.newpipe.player.datasource;
+
+import static com.google.android.exoplayer2.upstream.DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+import static com.google.android.exoplayer2.upstream.DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS;
+import static com.google.android.exoplayer2.util.Util.castNonNull;
+import static java.lang.Math.min;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.upstream.BaseDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceException;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.HttpUtil;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Util;
+import com.google.common.base.Predicate;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.schabi.newpipe.DownloaderImpl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.NoRouteToHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * An {@link HttpDataSource} for YouTube streams that uses the {@link OkHttpClient} of the app,
+ * based on ExoPlayer's {@code OkHttpDataSource}.
+ *
+ * <p>
+ * It sends the same requests as {@link YoutubeHttpDataSource}, built with the same
+ * {@link YoutubeRequestBuilder}, and follows redirects and reads ranges in parallel like it
+ * does, but it shares its connection pool with {@link DownloaderImpl} and supports HTTP/2:
+ * seeking and loading the segments of a stream reuse the same connection instead of opening a
+ * new one (and performing a new TLS handshake) every time.
+ * </p>
+ *
+ * <p>
+ * Every request is reported to the {@link TransferListener}s (e.g. the bandwidth meter of the
+ * player) when its response headers are received, so that their time is not accounted as
+ * transfer time.
+ * </p>
+ */
+public final class YoutubeOkHttpDataSource extends BaseDataSource implements HttpDataSource {
+
+    /**
+     * {@link DataSource.Factory} for {@link YoutubeOkHttpDataSource} instances.
+     */
+    public static final class Factory implements HttpDataSource.Factory {
+
+        @NonNull
+        private final OkHttpClient baseClient;
+        private final RequestProperties defaultRequestProperties;
+
+        @Nullable
+        private OkHttpClient client;
+        @Nullable
+        private TransferListener transferListener;
+        @Nullable
+        private Predicate<String> contentTypePredicate;
+        private int connectTimeoutMs;
+        private int readTimeoutMs;
+        private boolean allowCrossProtocolRedirects;
+        private boolean keepPostFor302Redirects;
+
+        private boolean rangeParameterEnabled;
+        private boolean rnParameterEnabled;
+        @Nullable
+        private IntSupplier parallelConnections;
+        @Nullable
+        private Executor parallelExecutor;
+
+        /**
+         * Creates an instance.
+         *
+         * @param baseClient the client whose connection pool is used, usually the one of
+         *                   {@link DownloaderImpl#getClient()}
+         */
+        public Factory(@NonNull final OkHttpClient baseClient) {
+            this.baseClient = baseClient;
+            defaultRequestProperties = new RequestProperties();
+            connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+            readTimeoutMs = DEFAULT_READ_TIMEOUT_MILLIS;
+        }
+
+        @NonNull
+        @Override
+        public Factory setDefaultRequestProperties(
+                @NonNull final Map<String, String> defaultRequestPropertiesMap) {
+            defaultRequestProperties.clearAndSet(defaultRequestPropertiesMap);
+            return this;
+        }
+
+        /**
+         * Sets the connect timeout, in milliseconds.
+         *
+         * @param connectTimeoutMsValue The connect timeout, in milliseconds, that will be used.
+         * @return This factory.
+         */
+        public Factory setConnectTimeoutMs(final int connectTimeoutMsValue) {
+            connectTimeoutMs = connectTimeoutMsValue;
+            client = null;
+            return this;
+        }
+
+        /**
+         * Sets the read timeout, in milliseconds.
+         *
+         * @param readTimeoutMsValue The connect timeout, in milliseconds, that will be used.
+         * @return This factory.
+         */
+        public Factory setReadTimeoutMs(final int readTimeoutMsValue) {
+            readTimeoutMs = readTimeoutMsValue;
+            client = null;
+            return this;
+        }
+
+        /**
+         * Sets whether to allow cross protocol redirects.
+         *
+         * @param allowCrossProtocolRedirectsValue Whether to allow cross protocol redirects.
+         * @return This factory.
+         */
+        public Factory setAllowCrossProtocolRedirects(
+                final boolean allowCrossProtocolRedirectsValue) {
+            allowCrossProtocolRedirects = allowCrossProtocolRedirectsValue;
+            return this;
+        }
+
+        /**
+         * Sets whether the use of the {@code range} parameter instead of the {@code Range} header
+         * to request ranges of streams is enabled.
+         *
+         * @param rangeParameterEnabledValue whether the use of the {@code range} parameter instead
+         *                                   of the {@code Range} header (must be only enabled when
+         *                                   non-{@code ProgressiveMediaSource}s)
+         * @return This factory.
+         * @see YoutubeHttpDataSource.Factory#setRangeParameterEnabled(boolean)
+         */
+        public Factory setRangeParameterEnabled(final boolean rangeParameterEnabledValue) {
+            rangeParameterEnabled = rangeParameterEnabledValue;
+            return this;
+        }
+
+        /**
+         * Sets whether the use of the {@code rn}, which stands for request number, parameter is
+         * enabled.
+         *
+         * @param rnParameterEnabledValue whether the appending the {@code rn} parameter to
+         *                                {@code videoplayback} URLs
+         * @return This factory.
+         * @see YoutubeHttpDataSource.Factory#setRnParameterEnabled(boolean)
+         */
+        public Factory setRnParameterEnabled(final boolean rnParameterEnabledValue) {
+            rnParameterEnabled = rnParameterEnabledValue;
+            return this;
+        }
+
+        /**
+         * Sets the number of concurrent requests used to read large ranges of
+         * {@code videoplayback} URLs. With HTTP/2 they are multiplexed on the same connection.
+         *
+         * @param parallelConnectionsSupplier supplies the maximum number of concurrent requests
+         *                                    per opened range
+         * @return This factory.
+         * @see YoutubeHttpDataSource.Factory#setParallelConnections(IntSupplier)
+         */
+        public Factory setParallelConnections(
+                @NonNull final IntSupplier parallelConnectionsSupplier) {
+            parallelConnections = parallelConnectionsSupplier;
+            if (parallelExecutor == null) {
+                parallelExecutor = ParallelRangeReader.newExecutor();
+            }
+            return this;
+        }
+
+        /**
+         * Sets a content type {@link Predicate}. If a content type is rejected by the predicate
+         * then a {@link HttpDataSource.InvalidContentTypeException} is thrown from
+         * {@link YoutubeOkHttpDataSource#open(DataSpec)}.
+         *
+         * @param contentTypePredicateToSet The content type {@link Predicate}, or {@code null} to
+         *                                  clear a predicate that was previously set.
+         * @return This factory.
+         */
+        public Factory setContentTypePredicate(
+                @Nullable final Predicate<String> contentTypePredicateToSet) {
+            this.contentTypePredicate = contentTypePredicateToSet;
+            return this;
+        }
+
+        /**
+         * Sets the {@link TransferListener} that will be used.
+         *
+         * @param transferListenerToUse The listener that will be used.
+         * @return This factory.
+         */
+        public Factory setTransferListener(
+                @Nullable final TransferListener transferListenerToUse) {
+            this.transferListener = transferListenerToUse;
+            return this;
+        }
+
+        /**
+         * Sets whether we should keep the POST method and body when we have HTTP 302 redirects for
+         * a POST request.
+         *
+         * @param keepPostFor302RedirectsValue Whether we should keep the POST method and body when
+         *                                     we have HTTP 302 redirects for a POST request.
+         * @return This factory.
+         */
+        public Factory setKeepPostFor302Redirects(final boolean keepPostFor302RedirectsValue) {
+            this.keepPostFor302Redirects = keepPostFor302RedirectsValue;
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public YoutubeOkHttpDataSource createDataSource() {
+            if (client == null) {
+                // derived clients share the connection pool of the base one, but the player gets
+                // its own dispatcher: its requests must not wait for the ones of the app, which
+                // are limited per host too
+                // redirects are followed by the data source, like YoutubeHttpDataSource does
+                final Dispatcher dispatcher = new Dispatcher();
+                dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+                client = baseClient.newBuilder()
+                        .dispatcher(dispatcher)
+                        .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                        .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                        .followRedirects(false)
+                        .followSslRedirects(false)
+                        .build();
+            }
+
+            final YoutubeOkHttpDataSource dataSource = new YoutubeOkHttpDataSource(
+                    client,
+                    allowCrossProtocolRedirects,
+                    rangeParameterEnabled,
+                    rnParameterEnabled,
+                    parallelConnections,
+                    parallelExecutor,
+                    defaultRequestProperties,
+                    contentTypePredicate,
+                    keepPostFor302Redirects);
+            if (transferListener != null) {
+                dataSource.addTransferListener(transferListener);
+            }
+            return dataSource;
+        }
+    }
+
+    private static final int MAX_REDIRECTS = 20; // Same limit as okhttp.
+
+    /**
+     * The maximum number of concurrent requests to the same host, enough for the parallel range
+     * requests of the audio and the video stream.
+     */
+    private static final int MAX_REQUESTS_PER_HOST = 16;
+    private static final int HTTP_STATUS_TEMPORARY_REDIRECT = 307;
+    private static final int HTTP_STATUS_PERMANENT_REDIRECT = 308;
+
+    /**
+     * @see YoutubeHttpDataSource
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 1024 * 1024;
+
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    @NonNull
+    private final OkHttpClient client;
+    private final boolean allowCrossProtocolRedirects;
+    private final boolean rangeParameterEnabled;
+    private final YoutubeRequestBuilder requestBuilder;
+    @Nullable
+    private final IntSupplier parallelConnections;
+    @Nullable
+    private final Executor parallelExecutor;
+
+    @Nullable
+    private final RequestProperties defaultRequestProperties;
+    private final RequestProperties requestProperties;
+    private final boolean keepPostFor302Redirects;
+
+    @Nullable
+    private final Predicate<String> contentTypePredicate;
+    @Nullable
+    private DataSpec dataSpec;
+    @Nullable
+    private Response response;
+    @Nullable
+    private InputStream responseByteStream;
+    @Nullable
+    private ParallelRangeReader parallelRangeReader;
+    private boolean opened;
+    private long bytesToRead;
+    private long bytesRead;
+
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    private YoutubeOkHttpDataSource(@NonNull final OkHttpClient client,
+                                    final boolean allowCrossProtocolRedirects,
+                                    final boolean rangeParameterEnabled,
+                                    final boolean rnParameterEnabled,
+                                    @Nullable final IntSupplier parallelConnections,
+                                    @Nullable final Executor parallelExecutor,
+                                    @Nullable final RequestProperties defaultRequestProperties,
+                                    @Nullable final Predicate<String> contentTypePredicate,
+                                    final boolean keepPostFor302Redirects) {
+        super(true);
+        this.client = client;
+        this.allowCrossProtocolRedirects = allowCrossProtocolRedirects;
+        this.rangeParameterEnabled = rangeParameterEnabled;
+        this.requestBuilder = new YoutubeRequestBuilder(rangeParameterEnabled,
+                rnParameterEnabled);
+        this.parallelConnections = parallelConnections;
+        this.parallelExecutor = parallelExecutor;
+        this.defaultRequestProperties = defaultRequestProperties;
+        this.contentTypePredicate = contentTypePredicate;
+        this.requestProperties = new RequestProperties();
+        this.keepPostFor302Redirects = keepPostFor302Redirects;
+    }
+
+    @Override
+    @Nullable
+    public Uri getUri() {
+        return response == null ? null : Uri.parse(response.request().url().toString());
+    }
+
+    @Override
+    public int getResponseCode() {
+        return response == null ? -1 : response.code();
+    }
+
+    @NonNull
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return response == null ? Collections.emptyMap() : response.headers().toMultimap();
+    }
+
+    @Override
+    public void setRequestProperty(@NonNull final String name, @NonNull final String value) {
+        requestProperties.set(name, value);
+    }
+
+    @Override
+    public void clearRequestProperty(@NonNull final String name) {
+        requestProperties.remove(name);
+    }
+
+    @Override
+    public void clearAllRequestProperties() {
+        requestProperties.clear();
+    }
+
+    @Override
+    public long open(@NonNull final DataSpec dataSpecParameter) throws HttpDataSourceException {
+        this.dataSpec = dataSpecParameter;
+        bytesRead = 0;
+        bytesToRead = 0;
+        transferInitializing(dataSpecParameter);
+
+        final Response openedResponse;
+        final ResponseBody responseBody;
+        try {
+            this.response = executeFollowingRedirects(dataSpecParameter);
+            openedResponse = this.response;
+            responseBody = castNonNull(openedResponse.body());
+            responseByteStream = responseBody.byteStream();
+        } catch (final IOException e) {
+            closeConnectionQuietly();
+            throw HttpDataSourceException.createForIOException(e, dataSpecParameter,
+                    HttpDataSourceException.TYPE_OPEN);
+        }
+
+        final int responseCode = openedResponse.code();
+
+        // Check for a valid response code.
+        if (!openedResponse.isSuccessful()) {
+            if (responseCode == 416) {
+                final long documentSize = HttpUtil.getDocumentSize(
+                        openedResponse.header(HttpHeaders.CONTENT_RANGE));
+                if (dataSpecParameter.position == documentSize) {
+                    opened = true;
+                    transferStarted(dataSpecParameter);
+                    return dataSpecParameter.length != C.LENGTH_UNSET
+                            ? dataSpecParameter.length
+                            : 0;
+                }
+            }
+
+            byte[] errorResponseBody;
+            try {
+                errorResponseBody = Util.toByteArray(castNonNull(responseByteStream));
+            } catch (final IOException e) {
+                errorResponseBody = Util.EMPTY_BYTE_ARRAY;
+            }
+            final Map<String, List<String>> headers = openedResponse.headers().toMultimap();
+            closeConnectionQuietly();
+            final IOException cause = responseCode == 416 ? new DataSourceException(
+                    PlaybackException.ERROR_CODE_IO_READ_POSITION_OUT_OF_RANGE)
+                    : null;
+            throw new InvalidResponseCodeException(responseCode, openedResponse.message(), cause,
+                    headers, dataSpecParameter, errorResponseBody);
+        }
+
+        // Check for a valid content type.
+        final MediaType mediaType = responseBody.contentType();
+        final String contentType = mediaType != null ? mediaType.toString() : "";
+        if (contentTypePredicate != null && !contentTypePredicate.apply(contentType)) {
+            closeConnectionQuietly();
+            throw new InvalidContentTypeException(contentType, dataSpecParameter);
+        }
+
+        final long bytesToSkip;
+        if (!rangeParameterEnabled) {
+            // If we requested a range starting from a non-zero position and received a 200 rather
+            // than a 206, then the server does not support partial requests. We'll need to
+            // manually skip to the requested position.
+            bytesToSkip = responseCode == 200 && dataSpecParameter.position != 0
+                    ? dataSpecParameter.position
+                    : 0;
+        } else {
+            bytesToSkip = 0;
+        }
+
+        // Determine the length of the data to be read, after skipping. OkHttp decompresses gzip
+        // transparently, in which case the content length is unknown.
+        if (dataSpecParameter.length != C.LENGTH_UNSET) {
+            bytesToRead = dataSpecParameter.length;
+        } else {
+            final long contentLength = responseBody.contentLength();
+            bytesToRead = contentLength != -1 ? (contentLength - bytesToSkip) : C.LENGTH_UNSET;
+        }
+
+        opened = true;
+        transferStarted(dataSpecParameter);
+
+        try {
+            skipFully(bytesToSkip, dataSpecParameter);
+        } catch (final HttpDataSourceException e) {
+            closeConnectionQuietly();
+            throw e;
+        }
+
+        // the number of requests is checked on every open, the network may have changed
+        final int connections = canReadInParallel(dataSpecParameter, openedResponse,
+                bytesToSkip) ? castNonNull(parallelConnections).getAsInt() : 1;
+        if (connections > 1) {
+            final HttpUrl url = openedResponse.request().url();
+            final Map<String, String> headers = dataSpecParameter.httpRequestHeaders;
+            parallelRangeReader = new ParallelRangeReader(castNonNull(responseByteStream),
+                    (position, length) -> openRange(url, headers, position, length),
+                    castNonNull(parallelExecutor), dataSpecParameter.position, bytesToRead,
+                    connections, PARALLEL_CHUNK_SIZE);
+        }
+
+        return bytesToRead;
+    }
+
+    @Override
+    public int read(@NonNull final byte[] buffer, final int offset, final int length)
+            throws HttpDataSourceException {
+        try {
+            return readInternal(buffer, offset, length);
+        } catch (final IOException e) {
+            throw HttpDataSourceException.createForIOException(e, castNonNull(dataSpec),
+                    HttpDataSourceException.TYPE_READ);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (opened) {
+            opened = false;
+            transferEnded();
+            closeConnectionQuietly();
+        }
+    }
+
+    /**
+     * Executes the request of the given {@link DataSpec}, following redirects like
+     * {@link YoutubeHttpDataSource} does: cross-protocol redirects only if allowed, and POST
+     * requests kept on 302 redirects only if enabled.
+     */
+    @NonNull
+    private Response executeFollowingRedirects(@NonNull final DataSpec dataSpecToUse)
+            throws IOException {
+        HttpUrl url = parseUrl(dataSpecToUse.uri.toString(), dataSpecToUse);
+        @DataSpec.HttpMethod int httpMethod = dataSpecToUse.httpMethod;
+        @Nullable byte[] httpBody = dataSpecToUse.httpBody;
+
+        int redirectCount = 0;
+        while (redirectCount++ <= MAX_REDIRECTS) {
+            final Response redirectResponse = executeCall(client.newCall(makeRequest(url,
+                    httpMethod, httpBody, dataSpecToUse.position, dataSpecToUse.length,
+                    dataSpecToUse.isFlagSet(DataSpec.FLAG_ALLOW_GZIP),
+                    dataSpecToUse.httpRequestHeaders)));
+            final int code = redirectResponse.code();
+            final String location = redirectResponse.header("Location");
+            if ((httpMethod == DataSpec.HTTP_METHOD_GET || httpMethod == DataSpec.HTTP_METHOD_HEAD)
+                    && (code == 300 || code == 301 || code == 302 || code == 303
+                    || code == HTTP_STATUS_TEMPORARY_REDIRECT
+                    || code == HTTP_STATUS_PERMANENT_REDIRECT)) {
+                redirectResponse.close();
+                url = handleRedirect(url, location, dataSpecToUse);
+            } else if (httpMethod == DataSpec.HTTP_METHOD_POST
+                    && (code == 300 || code == 301 || code == 302 || code == 303)) {
+                redirectResponse.close();
+                final boolean shouldKeepPost = keepPostFor302Redirects && code == 302;
+                if (!shouldKeepPost) {
+                    // POST request follows the redirect and is transformed into a GET request.
+                    httpMethod = DataSpec.HTTP_METHOD_GET;
+                    httpBody = null;
+                }
+                url = handleRedirect(url, location, dataSpecToUse);
+            } else {
+                return redirectResponse;
+            }
+        }
+
+        // If we get here we've been redirected more times than are permitted.
+        throw new HttpDataSourceException(
+                new NoRouteToHostException("Too many redirects: " + redirectCount),
+                dataSpecToUse,
+                PlaybackException.ERROR_CODE_IO_NETWORK_CONNECTION_FAILED,
+                HttpDataSourceException.TYPE_OPEN);
+    }
+
+    /**
+     * Builds a request with the URL parameters and headers of {@link YoutubeRequestBuilder}.
+     */
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    @NonNull
+    private Request makeRequest(@NonNull final HttpUrl url,
+                                @DataSpec.HttpMethod final int httpMethod,
+                                @Nullable final byte[] httpBody,
+                                final long position,
+                                final long length,
+                                final boolean allowGzip,
+                                @NonNull final Map<String, String> requestParameters) {
+        final String requestUrl = requestBuilder.buildUrl(url.toString(), url.encodedPath(),
+                position, length);
+        final Request.Builder builder = new Request.Builder().url(requestUrl);
+
+        final Map<String, String> requestHeaders = new HashMap<>();
+        if (defaultRequestProperties != null) {
+            requestHeaders.putAll(defaultRequestProperties.getSnapshot());
+        }
+        requestHeaders.putAll(requestProperties.getSnapshot());
+        requestHeaders.putAll(requestParameters);
+
+        for (final Map.Entry<String, String> property : requestBuilder.buildHeaders(requestUrl,
+                position, length, requestHeaders).entrySet()) {
+            builder.header(property.getKey(), property.getValue());
+        }
+
+        if (!allowGzip) {
+            // otherwise OkHttp requests gzip and decompresses the response transparently
+            builder.header(HttpHeaders.ACCEPT_ENCODING, "identity");
+        }
+
+        // Mobile clients uses POST requests to fetch contents
+        if (YoutubeRequestBuilder.isPostRequired(requestUrl)) {
+            builder.post(RequestBody.create(httpBody != null ? httpBody : EMPTY_BODY));
+        } else if (httpBody != null) {
+            builder.method(DataSpec.getStringForHttpMethod(httpMethod),
+                    RequestBody.create(httpBody));
+        } else if (httpMethod == DataSpec.HTTP_METHOD_POST) {
+            // OkHttp does not allow POST requests without a body
+            builder.post(RequestBody.create(EMPTY_BODY));
+        } else {
+            builder.method(DataSpec.getStringForHttpMethod(httpMethod), null);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Executes a call asynchronously and waits for its response, so that the loading thread can
+     * be interrupted (which cancels the call).
+     */
+    @NonNull
+    private static Response executeCall(@NonNull final Call call) throws IOException {
+        final SettableFuture<Response> future = SettableFuture.create();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull final Call failedCall, @NonNull final IOException e) {
+                future.setException(e);
+            }
+
+            @Override
+            public void onResponse(@NonNull final Call successfulCall,
+                                   @NonNull final Response callResponse) {
+                future.set(callResponse);
+            }
+        });
+
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            call.cancel();
+            throw new InterruptedIOException();
+        } catch (final ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @NonNull
+    private HttpUrl parseUrl(@NonNull final String url, @NonNull final DataSpec dataSpecToUse)
+            throws HttpDataSourceException {
+        final HttpUrl httpUrl = HttpUrl.parse(url);
+        if (httpUrl == null) {
+            throw new HttpDataSourceException("Malformed URL", dataSpecToUse,
+                    PlaybackException.ERROR_CODE_FAILED_RUNTIME_CHECK,
+                    HttpDataSourceException.TYPE_OPEN);
+        }
+        return httpUrl;
+    }
+
+    /**
+     * Handles a redirect.
+     *
+     * @param originalUrl              The original URL.
+     * @param location                 The Location header in the response. May be {@code null}.
+     * @param dataSpecToHandleRedirect The {@link DataSpec}.
+     * @return The next URL.
+     * @throws HttpDataSourceException If redirection isn't possible.
+     */
+    @NonNull
+    private HttpUrl handleRedirect(@NonNull final HttpUrl originalUrl,
+                                   @Nullable final String location,
+                                   @NonNull final DataSpec dataSpecToHandleRedirect)
+            throws HttpDataSourceException {
+        if (location == null) {
+            throw new HttpDataSourceException("Null location redirect", dataSpecToHandleRedirect,
+                    PlaybackException.ERROR_CODE_IO_NETWORK_CONNECTION_FAILED,
+                    HttpDataSourceException.TYPE_OPEN);
+        }
+
+        // Form the new url, only http and https URLs can be resolved.
+        final HttpUrl url = originalUrl.resolve(location);
+        if (url == null) {
+            throw new HttpDataSourceException("Unsupported redirect: " + location,
+                    dataSpecToHandleRedirect,
+                    PlaybackException.ERROR_CODE_IO_NETWORK_CONNECTION_FAILED,
+                    HttpDataSourceException.TYPE_OPEN);
+        }
+
+        if (!allowCrossProtocolRedirects && !url.scheme().equals(originalUrl.scheme())) {
+            throw new HttpDataSourceException(
+                    "Disallowed cross-protocol redirect ("
+                            + originalUrl.scheme()
+                            + " to "
+                            + url.scheme()
+                            + ")",
+                    dataSpecToHandleRedirect,
+                    PlaybackException.ERROR_CODE_IO_NETWORK_CONNECTION_FAILED,
+                    HttpDataSourceException.TYPE_OPEN);
+        }
+
+        return url;
+    }
+
+    /**
+     * Checks whether the opened range can be read with concurrent requests, if enabled, see
+     * {@link YoutubeHttpDataSource}.
+     */
+    private boolean canReadInParallel(@NonNull final DataSpec dataSpecToRead,
+                                      @NonNull final Response openedResponse,
+                                      final long bytesToSkip) {
+        if (parallelConnections == null || bytesToSkip != 0
+                || bytesToRead == C.LENGTH_UNSET || bytesToRead < 2L * PARALLEL_CHUNK_SIZE
+                || dataSpecToRead.httpMethod != DataSpec.HTTP_METHOD_GET
+                || openedResponse.header(HttpHeaders.CONTENT_ENCODING) != null
+                || !YoutubeRequestBuilder.isVideoPlaybackPath(
+                        openedResponse.request().url().encodedPath())) {
+            return false;
+        }
+
+        return openedResponse.code() == 206 || rangeParameterEnabled
+                || "bytes".equalsIgnoreCase(openedResponse.header(HttpHeaders.ACCEPT_RANGES));
+    }
+
+    /**
+     * Opens a range of a resource for {@link ParallelRangeReader}, on one of its threads.
+     */
+    @NonNull
+    private InputStream openRange(@NonNull final HttpUrl url,
+                                  @NonNull final Map<String, String> headers,
+                                  final long position,
+                                  final long length) throws IOException {
+        final Response rangeResponse = client.newCall(makeRequest(url, DataSpec.HTTP_METHOD_GET,
+                null, position, length, false, headers)).execute();
+        final int code = rangeResponse.code();
+        // YouTube replies with 200 to requests using the range parameter
+        if (code != 206 && !(rangeParameterEnabled && code == 200)) {
+            rangeResponse.close();
+            throw new IOException("Unexpected response code " + code
+                    + " when requesting range " + position + "-" + (position + length - 1));
+        }
+
+        return new FilterInputStream(castNonNull(rangeResponse.body()).byteStream()) {
+            @Override
+            public void close() {
+                rangeResponse.close();
+            }
+        };
+    }
+
+    /**
+     * Attempts to skip the specified number of bytes in full.
+     *
+     * @param bytesToSkip   The number of bytes to skip.
+     * @param dataSpecToUse The {@link DataSpec}.
+     * @throws HttpDataSourceException If the thread is interrupted during the operation, or an
+     * error occurs while reading from the source, or if the data ended before skipping the
+     * specified number of bytes.
+     */
+    @SuppressWarnings("checkstyle:FinalParameters")
+    private void skipFully(long bytesToSkip, final DataSpec dataSpecToUse)
+            throws HttpDataSourceException {
+        if (bytesToSkip == 0) {
+            return;
+        }
+
+        final byte[] skipBuffer = new byte[4096];
+        try {
+            while (bytesToSkip > 0) {
+                final int readLength = (int) min(bytesToSkip, skipBuffer.length);
+                final int read = castNonNull(responseByteStream).read(skipBuffer, 0, readLength);
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException();
+                }
+                if (read == -1) {
+                    throw new HttpDataSourceException(
+                            dataSpecToUse,
+                            PlaybackException.ERROR_CODE_IO_READ_POSITION_OUT_OF_RANGE,
+                            HttpDataSourceException.TYPE_OPEN);
+                }
+                bytesToSkip -= read;
+                bytesTransferred(read);
+            }
+        } catch (final IOException e) {
+            if (e instanceof HttpDataSourceException) {
+                throw (HttpDataSourceException) e;
+            }
+            throw new HttpDataSourceException(e, dataSpecToUse,
+                    PlaybackException.ERROR_CODE_IO_UNSPECIFIED,
+                    HttpDataSourceException.TYPE_OPEN);
+        }
+    }
+
+    /**
+     * Reads up to {@code length} bytes of data and stores them into {@code buffer}, starting at
+     * index {@code offset}.
+     *
+     * @param buffer     The buffer into which the read data should be stored.
+     * @param offset     The start offset into {@code buffer} at which data should be written.
+     * @param readLength The maximum number of bytes to read.
+     * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT} if the end of the opened
+     * range is reached.
+     * @throws IOException If an error occurs reading from the source.
+     */
+    @SuppressWarnings("checkstyle:FinalParameters")
+    private int readInternal(final byte[] buffer, final int offset, int readLength)
+            throws IOException {
+        if (readLength == 0) {
+            return 0;
+        }
+        if (bytesToRead != C.LENGTH_UNSET) {
+            final long bytesRemaining = bytesToRead - bytesRead;
+            if (bytesRemaining == 0) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            readLength = (int) min(readLength, bytesRemaining);
+        }
+
+        final int read = parallelRangeReader != null
+                ? parallelRangeReader.read(buffer, offset, readLength)
+                : castNonNull(responseByteStream).read(buffer, offset, readLength);
+        if (read == -1) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        bytesRead += read;
+        bytesTransferred(read);
+        return read;
+    }
+
+    /**
+     * Closes the current connection quietly, if there is one.
+     */
+    private void closeConnectionQuietly() {
+        if (parallelRangeReader != null) {
+            parallelRangeReader.close();
+            parallelRangeReader = null;
+        }
+        if (response != null) {
+            castNonNull(response.body()).close();
+            response = null;
+        }
+        responseByteStream = null;
+    }
+}
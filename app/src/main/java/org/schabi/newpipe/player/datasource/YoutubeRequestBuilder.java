@@ -0,0 +1,192 @@
+package org.schabi.newpipe.player.datasource;
+
+import static com.google.android.exoplayer2.upstream.HttpUtil.buildRangeRequestHeader;
+import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.getAndroidUserAgent;
+import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.getIosUserAgent;
+import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.isAndroidStreamingUrl;
+import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.isIosStreamingUrl;
+import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.isTvHtml5SimplyEmbeddedPlayerStreamingUrl;
+import static org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper.isWebStreamingUrl;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.common.net.HttpHeaders;
+
+import org.schabi.newpipe.DownloaderImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds the parts of the requests of YouTube streams which are specific to YouTube, the same way
+ * for {@link YoutubeHttpDataSource} and {@link YoutubeOkHttpDataSource}: the {@code rn} and
+ * {@code range} parameters of {@code videoplayback} URLs, the headers sent by the official
+ * clients and the request method of the mobile ones.
+ */
+final class YoutubeRequestBuilder {
+    private static final String RN_PARAMETER = "&rn=";
+    private static final String YOUTUBE_BASE_URL = "https://www.youtube.com";
+
+    private final boolean rangeParameterEnabled;
+    private final boolean rnParameterEnabled;
+    private long requestNumber;
+
+    /**
+     * Creates a builder, whose request numbers start at 0.
+     *
+     * @param rangeParameterEnabled whether the {@code range} parameter is used instead of the
+     *                              {@code Range} header for {@code videoplayback} URLs
+     * @param rnParameterEnabled    whether the {@code rn} parameter is appended to
+     *                              {@code videoplayback} URLs
+     */
+    YoutubeRequestBuilder(final boolean rangeParameterEnabled,
+                          final boolean rnParameterEnabled) {
+        this.rangeParameterEnabled = rangeParameterEnabled;
+        this.rnParameterEnabled = rnParameterEnabled;
+        this.requestNumber = 0;
+    }
+
+    /**
+     * @param path the path of a URL
+     * @return whether the URL is the one of a stream, to which parameters are added
+     */
+    static boolean isVideoPlaybackPath(@NonNull final String path) {
+        return path.startsWith("/videoplayback");
+    }
+
+    /**
+     * @param requestUrl the URL of the request
+     * @return whether the request must be sent with the POST method, like mobile clients do to
+     * fetch contents
+     */
+    static boolean isPostRequired(@NonNull final String requestUrl) {
+        return isAndroidStreamingUrl(requestUrl) || isIosStreamingUrl(requestUrl);
+    }
+
+    /**
+     * Appends the {@code rn} and {@code range} parameters to a {@code videoplayback} URL, if
+     * enabled.
+     *
+     * @param url      the URL to request
+     * @param path     the path of the URL
+     * @param position the byte offset of the requested data
+     * @param length   the length of the requested data, or {@link C#LENGTH_UNSET}
+     * @return the URL of the request
+     */
+    @NonNull
+    String buildUrl(@NonNull final String url,
+                    @NonNull final String path,
+                    final long position,
+                    final long length) {
+        String requestUrl = url;
+
+        // Don't add the request number parameter if it has been already added (for instance in
+        // DASH manifests) or if that's not a videoplayback URL
+        final boolean isVideoPlaybackUrl = isVideoPlaybackPath(path);
+        if (isVideoPlaybackUrl && rnParameterEnabled && !requestUrl.contains(RN_PARAMETER)) {
+            requestUrl += RN_PARAMETER + nextRequestNumber();
+        }
+
+        if (rangeParameterEnabled && isVideoPlaybackUrl) {
+            final String rangeParameterBuilt = buildRangeParameter(position, length);
+            if (rangeParameterBuilt != null) {
+                requestUrl += rangeParameterBuilt;
+            }
+        }
+        return requestUrl;
+    }
+
+    /**
+     * Adds the headers sent by the YouTube clients to the ones of a request: the {@code Range}
+     * header, if the {@code range} parameter is not used, the {@code Origin}, {@code Referer}
+     * and {@code Sec-Fetch} ones of web clients and the user agent of the client.
+     *
+     * @param requestUrl     the URL of the request, as returned by
+     *                       {@link #buildUrl(String, String, long, long)}
+     * @param position       the byte offset of the requested data
+     * @param length         the length of the requested data, or {@link C#LENGTH_UNSET}
+     * @param requestHeaders the headers set on the data source and its {@code DataSpec}
+     * @return the headers to send
+     */
+    @NonNull
+    Map<String, String> buildHeaders(@NonNull final String requestUrl,
+                                     final long position,
+                                     final long length,
+                                     @NonNull final Map<String, String> requestHeaders) {
+        final Map<String, String> headers = new HashMap<>(requestHeaders);
+
+        if (!rangeParameterEnabled) {
+            final String rangeHeader = buildRangeRequestHeader(position, length);
+            if (rangeHeader != null) {
+                headers.put(HttpHeaders.RANGE, rangeHeader);
+            }
+        }
+
+        if (isWebStreamingUrl(requestUrl)
+                || isTvHtml5SimplyEmbeddedPlayerStreamingUrl(requestUrl)) {
+            headers.put(HttpHeaders.ORIGIN, YOUTUBE_BASE_URL);
+            headers.put(HttpHeaders.REFERER, YOUTUBE_BASE_URL);
+            headers.put(HttpHeaders.SEC_FETCH_DEST, "empty");
+            headers.put(HttpHeaders.SEC_FETCH_MODE, "cors");
+            headers.put(HttpHeaders.SEC_FETCH_SITE, "cross-site");
+        }
+
+        if (isAndroidStreamingUrl(requestUrl)) {
+            // Improvement which may be done: find the content country used to request YouTube
+            // contents to add it in the user agent instead of using the default
+            headers.put(HttpHeaders.USER_AGENT, getAndroidUserAgent(null));
+        } else if (isIosStreamingUrl(requestUrl)) {
+            headers.put(HttpHeaders.USER_AGENT, getIosUserAgent(null));
+        } else {
+            // non-mobile user agent
+            headers.put(HttpHeaders.USER_AGENT, DownloaderImpl.USER_AGENT);
+        }
+        return headers;
+    }
+
+    /**
+     * Gets the request number to use in the next request. Requests of chunks are made by
+     * {@link ParallelRangeReader} threads, so the counter is shared with them.
+     *
+     * @return the value of the {@code rn} parameter of the next request
+     */
+    private synchronized long nextRequestNumber() {
+        return requestNumber++;
+    }
+
+    /**
+     * Builds a {@code range} parameter for the given position and length.
+     *
+     * <p>
+     * To fetch its contents, YouTube use range requests which append a {@code range} parameter
+     * to videoplayback URLs instead of the {@code Range} header (even if the server respond
+     * correctly when requesting a range of a ressouce with it).
+     * </p>
+     *
+     * <p>
+     * The parameter works in the same way as the header.
+     * </p>
+     *
+     * @param position The request position.
+     * @param length The request length, or {@link C#LENGTH_UNSET} if the request is unbounded.
+     * @return The corresponding {@code range} parameter, or {@code null} if this parameter is
+     * unnecessary because the whole resource is being requested.
+     */
+    @Nullable
+    private static String buildRangeParameter(final long position, final long length) {
+        if (position == 0 && length == C.LENGTH_UNSET) {
+            return null;
+        }
+
+        final StringBuilder rangeParameter = new StringBuilder();
+        rangeParameter.append("&range=");
+        rangeParameter.append(position);
+        rangeParameter.append("-");
+        if (length != C.LENGTH_UNSET) {
+            rangeParameter.append(position + length - 1);
+        }
+        return rangeParameter.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package org.schabi.newpipe.player.helper;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
+import com.google.android.exoplayer2.text.TextOutput;
+import com.google.android.exoplayer2.video.VideoRendererEventListener;
+
+import java.util.ArrayList;
+
+/**
+ * A {@link DefaultRenderersFactory} which does not build any video, text or camera motion
+ * renderer, used by the audio player. Without them no video decoder is ever initialized and
+ * the playback loop only has the audio to render, which saves memory and wakeups while
+ * listening in background.
+ * <p>
+ * A player built with this factory cannot show video, it has to be rebuilt to switch to a video
+ * player.
+ * </p>
+ */
+public class AudioOnlyRenderersFactory extends DefaultRenderersFactory {
+
+    public AudioOnlyRenderersFactory(@NonNull final Context context) {
+        super(context);
+    }
+
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    @Override
+    protected void buildVideoRenderers(@NonNull final Context context,
+                                       final int extensionRendererMode,
+                                       @NonNull final MediaCodecSelector mediaCodecSelector,
+                                       final boolean enableDecoderFallback,
+                                       @NonNull final Handler eventHandler,
+                                       @NonNull final VideoRendererEventListener eventListener,
+                                       final long allowedVideoJoiningTimeMs,
+                                       @NonNull final ArrayList<Renderer> out) {
+        // no video
+    }
+
+    @Override
+    protected void buildTextRenderers(@NonNull final Context context,
+                                      @NonNull final TextOutput output,
+                                      @NonNull final Looper outputLooper,
+                                      final int extensionRendererMode,
+                                      @NonNull final ArrayList<Renderer> out) {
+        // no subtitles, they are only shown by video players
+    }
+
+    @Override
+    protected void buildCameraMotionRenderers(@NonNull final Context context,
+                                              final int extensionRendererMode,
+                                              @NonNull final ArrayList<Renderer> out) {
+        // no 360° video
+    }
+}
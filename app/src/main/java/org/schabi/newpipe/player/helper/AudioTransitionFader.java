@@ -0,0 +1,164 @@
+package org.schabi.newpipe.player.helper;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.Timeline;
+
+/**
+ * Fades the audio out at the end of an item and in at the start of the next one, when the items
+ * of the queue are played one after another.
+ * <p>
+ * The items are played as consecutive periods by a single {@link ExoPlayer}, so they cannot
+ * overlap: the crossfade is approximated by fading out the last seconds of an item and fading in
+ * the first seconds of the next one. The volume is only changed while it still has the value
+ * set by the fader, so that muting and ducking (see {@link AudioReactor}) take precedence.
+ * </p>
+ */
+public class AudioTransitionFader implements Player.Listener {
+    private static final long FADE_STEP_MILLIS = 50;
+
+    /**
+     * The lowest volume set by the fader, which is not 0 so that the player is not considered
+     * muted.
+     */
+    private static final float MIN_FADE_VOLUME = .01f;
+    private static final float FULL_VOLUME = 1f;
+
+    @NonNull
+    private final ExoPlayer player;
+    @NonNull
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    @NonNull
+    private final Runnable updateVolume = this::updateVolume;
+
+    private long fadeMillis = 0;
+    private boolean fadingIn = false;
+    /**
+     * The volume last set by the fader, {@link Float#NaN} if the volume is not faded.
+     */
+    private float fadedVolume = Float.NaN;
+
+    public AudioTransitionFader(@NonNull final ExoPlayer player) {
+        this.player = player;
+        player.addListener(this);
+    }
+
+    public void dispose() {
+        handler.removeCallbacks(updateVolume);
+        player.removeListener(this);
+    }
+
+    /**
+     * @param millis the duration of the fade out and of the fade in, 0 to disable fading
+     */
+    public void setFadeMillis(final long millis) {
+        fadeMillis = millis;
+        if (fadeMillis <= 0) {
+            fadingIn = false;
+        }
+        updateVolume();
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Player listener
+    //////////////////////////////////////////////////////////////////////////*/
+
+    @Override
+    public void onIsPlayingChanged(final boolean isPlaying) {
+        updateVolume();
+    }
+
+    @Override
+    public void onPositionDiscontinuity(@NonNull final Player.PositionInfo oldPosition,
+                                        @NonNull final Player.PositionInfo newPosition,
+                                        final int reason) {
+        // only fade in when the previous item ended and was faded out
+        fadingIn = fadeMillis > 0 && reason == Player.DISCONTINUITY_REASON_AUTO_TRANSITION
+                && oldPosition.mediaItemIndex != newPosition.mediaItemIndex;
+        updateVolume();
+    }
+
+    @Override
+    public void onPlaybackParametersChanged(@NonNull final PlaybackParameters parameters) {
+        updateVolume();
+    }
+
+    @Override
+    public void onTimelineChanged(@NonNull final Timeline timeline, final int reason) {
+        updateVolume();
+    }
+
+    @Override
+    public void onRepeatModeChanged(final int repeatMode) {
+        updateVolume();
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Fading
+    //////////////////////////////////////////////////////////////////////////*/
+
+    private void updateVolume() {
+        handler.removeCallbacks(updateVolume);
+        if (fadeMillis <= 0 || player.isCurrentMediaItemLive()) {
+            setVolume(FULL_VOLUME);
+            return;
+        }
+
+        final long position = player.getCurrentPosition();
+        float volume = FULL_VOLUME;
+        long nextUpdateMillis = C.TIME_UNSET;
+
+        if (fadingIn && position < fadeMillis) {
+            volume = (float) position / fadeMillis;
+            nextUpdateMillis = FADE_STEP_MILLIS;
+        } else {
+            fadingIn = false;
+        }
+
+        final long duration = player.getDuration();
+        if (duration != C.TIME_UNSET && player.hasNextMediaItem()
+                && player.getRepeatMode() != Player.REPEAT_MODE_ONE) {
+            final long remaining = duration - position;
+            if (remaining <= fadeMillis) {
+                volume = Math.min(volume, (float) Math.max(0, remaining) / fadeMillis);
+                nextUpdateMillis = FADE_STEP_MILLIS;
+            } else if (nextUpdateMillis == C.TIME_UNSET) {
+                // wake up when the fade out starts, in real time
+                nextUpdateMillis = (long) ((remaining - fadeMillis)
+                        / player.getPlaybackParameters().speed);
+            }
+        }
+
+        setVolume(Math.max(MIN_FADE_VOLUME, volume));
+        if (player.isPlaying() && nextUpdateMillis != C.TIME_UNSET) {
+            handler.postDelayed(updateVolume, Math.max(FADE_STEP_MILLIS, nextUpdateMillis));
+        }
+    }
+
+    private void setVolume(final float volume) {
+        final float currentVolume = player.getVolume();
+        // the player is muted or ducked, or the volume was changed by someone else meanwhile
+        final boolean ownedVolume = Float.isNaN(fadedVolume)
+                ? currentVolume == FULL_VOLUME : currentVolume == fadedVolume;
+        if (!ownedVolume) {
+            fadedVolume = Float.NaN;
+            return;
+        }
+
+        if (volume == FULL_VOLUME) {
+            fadedVolume = Float.NaN;
+        } else {
+            fadedVolume = volume;
+        }
+        if (currentVolume != volume) {
+            player.setVolume(volume);
+        }
+    }
+}
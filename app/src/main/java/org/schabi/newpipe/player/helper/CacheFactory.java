@@ -10,7 +10,6 @@ import com.google.android.exoplayer2.upstream.FileDataSource;
 import com.google.android.exoplayer2.upstream.TransferListener;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
-import com.google.android.exoplayer2.upstream.cache.SimpleCache;
 
 final class CacheFactory implements DataSource.Factory {
     private static final int CACHE_FLAGS = CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR;
@@ -18,29 +17,33 @@ final class CacheFactory implements DataSource.Factory {
     private final Context context;
     private final TransferListener transferListener;
     private final DataSource.Factory upstreamDataSourceFactory;
-    private final SimpleCache cache;
+    private final PlayerCache playerCache;
 
     CacheFactory(final Context context,
                  final TransferListener transferListener,
-                 final SimpleCache cache,
+                 final PlayerCache playerCache,
                  final DataSource.Factory upstreamDataSourceFactory) {
         this.context = context;
         this.transferListener = transferListener;
-        this.cache = cache;
+        this.playerCache = playerCache;
         this.upstreamDataSourceFactory = upstreamDataSourceFactory;
     }
 
     @NonNull
     @Override
-    public DataSource createDataSource() {
+    public CacheDataSource createDataSource() {
         final DefaultDataSource dataSource = new DefaultDataSource.Factory(context,
                 upstreamDataSourceFactory)
                 .setTransferListener(transferListener)
                 .createDataSource();
+        // count the bytes downloaded, to compute the cache hit ratio
+        dataSource.addTransferListener(playerCache.getNetworkTransferListener());
 
         final FileDataSource fileSource = new FileDataSource();
         final CacheDataSink dataSink =
-                new CacheDataSink(cache, PlayerHelper.getPreferredFileSize());
-        return new CacheDataSource(cache, dataSource, fileSource, dataSink, CACHE_FLAGS, null);
+                new CacheDataSink(playerCache.getCache(), PlayerHelper.getPreferredFileSize());
+        // the player cache builds the cache keys, so that they do not depend on stream URLs
+        return new CacheDataSource(playerCache.getCache(), dataSource, fileSource, dataSink,
+                CACHE_FLAGS, playerCache.getCacheEventListener(), playerCache);
     }
 }
@@ -0,0 +1,283 @@
+package org.schabi.newpipe.player.helper;
+
+import static org.schabi.newpipe.MainActivity.DEBUG;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
+
+import org.schabi.newpipe.extractor.services.youtube.dashmanifestcreators.CreationException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Keeps the DASH manifests generated for YouTube streams, in memory and on disk, so that
+ * quality switches and re-opens of the same stream do not have to generate them again (which
+ * may require network requests, e.g. for OTF streams).
+ * <p>
+ * Manifests are stored with the cache key of their stream (see
+ * {@link org.schabi.newpipe.player.resolver.PlaybackResolver#cacheKeyOf}), which does not depend
+ * on its URL. A manifest describes the segments of the stream, which do not change when the
+ * stream is resolved again, but it references the URL it was generated from, which expires: the
+ * URL of a cached manifest is replaced with the current URL of the stream when it is used. The
+ * extractor keeps its own caches of the generated manifests, but by URL, so they miss once the
+ * stream is resolved again.
+ * </p>
+ * <p>
+ * The disk is accessed only in background: the entries stored on disk are loaded into memory
+ * when the cache is created.
+ * </p>
+ */
+public final class DashManifestCache {
+    private static final String TAG = DashManifestCache.class.getSimpleName();
+
+    /**
+     * The folder name in which the manifests will be written.
+     */
+    private static final String CACHE_FOLDER_NAME = "dash_manifests";
+    private static final String FILE_EXTENSION = ".mpd";
+
+    /**
+     * Total length of the manifests kept in memory, in characters.
+     */
+    private static final int MAX_MEMORY_CHARS = 2 * 1024 * 1024;
+
+    /**
+     * Number of manifests kept on disk, the least recently written ones are deleted first.
+     */
+    private static final int MAX_DISK_ENTRIES = 50;
+
+    /**
+     * Lifetime of the manifests, after which they are generated again in case the service
+     * changed the way the streams are delivered.
+     */
+    private static final long EXPIRATION_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * The element of the manifests containing the URL of the stream, see
+     * {@code YoutubeDashManifestCreatorsUtils#generateBaseUrlElement}.
+     */
+    private static final Pattern BASE_URL = Pattern.compile("<BaseURL>[^<]*</BaseURL>");
+
+    @Nullable
+    private static DashManifestCache instance;
+
+    @NonNull
+    private final File cacheDir;
+    private final LruCache<String, CacheData> lruCache =
+            new LruCache<String, CacheData>(MAX_MEMORY_CHARS) {
+                @Override
+                protected int sizeOf(@NonNull final String key, @NonNull final CacheData value) {
+                    return value.manifest.length();
+                }
+            };
+
+    public interface ManifestCreator {
+        @NonNull
+        String create() throws CreationException;
+    }
+
+    private DashManifestCache(@NonNull final Context context) {
+        cacheDir = new File(context.getCacheDir(), CACHE_FOLDER_NAME);
+        Completable.fromAction(this::loadFromDisk)
+                .subscribeOn(Schedulers.io())
+                .subscribe(() -> { }, error -> Log.w(TAG, "Could not load manifests", error));
+    }
+
+    @NonNull
+    public static synchronized DashManifestCache getInstance(@NonNull final Context context) {
+        if (instance == null) {
+            instance = new DashManifestCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the manifest generated for the stream with the given cache key, with its URL
+     * replaced with the given one, if it has not expired yet, otherwise generates it with the
+     * given creator and stores it.
+     *
+     * @param cacheKey the cache key of the stream
+     * @param url      the current URL of the stream, the manifest is generated from
+     * @param creator  generates the manifest, called on the current thread
+     * @return the cached or generated manifest
+     * @throws CreationException if the manifest could not be generated
+     */
+    @NonNull
+    public String getOrCreate(@NonNull final String cacheKey,
+                              @NonNull final String url,
+                              @NonNull final ManifestCreator creator)
+            throws CreationException {
+        final CacheData cached = lruCache.get(cacheKey);
+        if (cached != null && !cached.isExpired()) {
+            if (DEBUG) {
+                Log.d(TAG, "Using cached manifest of " + cacheKey);
+            }
+            if (cached.url.equals(url)) {
+                return cached.manifest;
+            }
+
+            // the stream was resolved again, its previous URL may have expired
+            final CacheData data = new CacheData(cacheKey, url, cached.expireTimestamp,
+                    withBaseUrl(cached.manifest, url));
+            lruCache.put(cacheKey, data);
+            return data.manifest;
+        } else if (cached != null) {
+            lruCache.remove(cacheKey);
+        }
+
+        final CacheData data = new CacheData(cacheKey, url,
+                System.currentTimeMillis() + EXPIRATION_MILLIS, creator.create());
+        lruCache.put(cacheKey, data);
+        Completable.fromAction(() -> writeToDisk(data))
+                .subscribeOn(Schedulers.io())
+                .subscribe(() -> { }, error -> Log.w(TAG, "Could not write manifest", error));
+        return data.manifest;
+    }
+
+    /**
+     * @param manifest a manifest generated for a stream
+     * @param url      the URL to use for the stream
+     * @return the manifest with its base URL replaced with the given URL
+     */
+    @NonNull
+    private static String withBaseUrl(@NonNull final String manifest, @NonNull final String url) {
+        final String escapedUrl = url.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;");
+        return BASE_URL.matcher(manifest)
+                .replaceAll(Matcher.quoteReplacement("<BaseURL>" + escapedUrl + "</BaseURL>"));
+    }
+
+
+    //region Disk
+    private File getFile(@NonNull final String cacheKey) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256")
+                    .digest(cacheKey.getBytes(StandardCharsets.UTF_8));
+        } catch (final NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        final StringBuilder name = new StringBuilder(digest.length * 2 + FILE_EXTENSION.length());
+        for (final byte b : digest) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return new File(cacheDir, name.append(FILE_EXTENSION).toString());
+    }
+
+    private void loadFromDisk() {
+        final File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        // oldest first, so that the most recent entries are the most recently used in memory
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (final File file : files) {
+            final CacheData data = read(file);
+            // files not named after their key were written by older versions
+            if (data == null || data.isExpired()
+                    || !file.getName().equals(getFile(data.key).getName())) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            } else if (lruCache.get(data.key) == null) {
+                lruCache.put(data.key, data);
+            }
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "Loaded " + lruCache.size() + " manifests from disk");
+        }
+    }
+
+    @Nullable
+    private static CacheData read(@NonNull final File file) {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            final String key = input.readUTF();
+            final String url = input.readUTF();
+            final long expireTimestamp = input.readLong();
+            final byte[] manifest = new byte[input.readInt()];
+            input.readFully(manifest);
+            return new CacheData(key, url, expireTimestamp,
+                    new String(manifest, StandardCharsets.UTF_8));
+        } catch (final IOException e) {
+            Log.w(TAG, "Could not read manifest " + file.getName(), e);
+            return null;
+        }
+    }
+
+    private synchronized void writeToDisk(@NonNull final CacheData data) throws IOException {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            throw new IOException("Could not create " + cacheDir.getAbsolutePath());
+        }
+
+        final byte[] manifest = data.manifest.getBytes(StandardCharsets.UTF_8);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(getFile(data.key))))) {
+            output.writeUTF(data.key);
+            output.writeUTF(data.url);
+            output.writeLong(data.expireTimestamp);
+            output.writeInt(manifest.length);
+            output.write(manifest);
+        }
+
+        final File[] files = cacheDir.listFiles();
+        if (files != null && files.length > MAX_DISK_ENTRIES) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (int i = 0; i < files.length - MAX_DISK_ENTRIES; i++) {
+                //noinspection ResultOfMethodCallIgnored
+                files[i].delete();
+            }
+        }
+    }
+    //endregion
+
+
+    private static final class CacheData {
+        @NonNull
+        private final String key;
+        @NonNull
+        private final String url;
+        private final long expireTimestamp;
+        @NonNull
+        private final String manifest;
+
+        private CacheData(@NonNull final String key, @NonNull final String url,
+                          final long expireTimestamp, @NonNull final String manifest) {
+            this.key = key;
+            this.url = url;
+            this.expireTimestamp = expireTimestamp;
+            this.manifest = manifest;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > expireTimestamp;
+        }
+    }
+}
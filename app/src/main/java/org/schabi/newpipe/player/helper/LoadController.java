@@ -1,42 +1,412 @@
 package org.schabi.newpipe.player.helper;
 
+import static org.schabi.newpipe.MainActivity.DEBUG;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.content.ContextCompat;
+
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.ExoTrackSelection;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
 
-public class LoadController extends DefaultLoadControl {
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+import org.schabi.newpipe.util.ListHelper;
+import org.schabi.newpipe.util.StreamTypeUtil;
+
+/**
+ * A {@link LoadControl} whose buffer sizes depend on the device, the network and the content
+ * being played, see {@link BufferPolicy#choose(boolean, boolean, ContentType)}.
+ * <p>
+ * The buffering itself is delegated to a {@link DefaultLoadControl} built for the current
+ * policy. When the conditions change (e.g. the device switched to a metered network, or the
+ * next stream is a livestream) a new one is built and takes over immediately, sharing the same
+ * {@link Allocator} so that the already buffered media is kept.
+ * </p>
+ */
+public class LoadController implements LoadControl {
 
     public static final String TAG = "LoadController";
+
+    /**
+     * Streams shorter than this are buffered as a whole when possible, since they are usually
+     * watched completely (e.g. YouTube shorts).
+     */
+    private static final long SHORT_VIDEO_MAX_DURATION_SECONDS = 60;
+
+    enum ContentType {
+        VIDEO,
+        SHORT_VIDEO,
+        AUDIO,
+        /**
+         * Audio played by a player without any video pipeline, see {@link #setHeadless(boolean)}.
+         */
+        HEADLESS_AUDIO,
+        LIVE
+    }
+
+    @NonNull
+    private final Context context;
+    private final boolean lowMemoryDevice;
+    @NonNull
+    private final DefaultAllocator allocator =
+            new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+
     private boolean preloadingEnabled = true;
 
+    private boolean meteredNetwork;
+    private boolean headless = false;
+    @NonNull
+    private ContentType contentType = ContentType.VIDEO;
+    @NonNull
+    private BufferPolicy policy;
+    @NonNull
+    private DefaultLoadControl delegate;
+
+    // the last selected tracks, replayed when the delegate changes to compute the target size
+    @Nullable
+    private Renderer[] renderers;
+    @Nullable
+    private TrackGroupArray trackGroups;
+    @Nullable
+    private ExoTrackSelection[] trackSelections;
+
+    public LoadController(@NonNull final Context context) {
+        this.context = context;
+        lowMemoryDevice = isLowMemoryDevice(context);
+        meteredNetwork = ListHelper.isMeteredNetwork(context);
+        policy = BufferPolicy.choose(lowMemoryDevice, meteredNetwork, contentType);
+        delegate = policy.buildLoadControl(allocator);
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Policy
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * Updates the policy for the stream being played.
+     *
+     * @param info      the stream info of the current item
+     * @param audioOnly whether only the audio of the stream is played
+     */
+    public void onContentChanged(@NonNull final StreamInfo info, final boolean audioOnly) {
+        final ContentType type;
+        if (StreamTypeUtil.isLiveStream(info.getStreamType())) {
+            type = ContentType.LIVE;
+        } else if (audioOnly || StreamTypeUtil.isAudio(info.getStreamType())) {
+            type = ContentType.AUDIO;
+        } else if (info.getDuration() > 0
+                && info.getDuration() <= SHORT_VIDEO_MAX_DURATION_SECONDS) {
+            type = ContentType.SHORT_VIDEO;
+        } else {
+            type = ContentType.VIDEO;
+        }
+
+        synchronized (this) {
+            contentType = type;
+            updatePolicy();
+        }
+    }
+
+    /**
+     * Updates the policy after the player switched from or to the audio player, which plays the
+     * audio without any video pipeline, typically for hours in background.
+     *
+     * @param isHeadless whether the player has no video pipeline
+     */
+    public void setHeadless(final boolean isHeadless) {
+        synchronized (this) {
+            headless = isHeadless;
+            updatePolicy();
+        }
+    }
+
+    /**
+     * Updates the policy after the network changed.
+     */
+    public void onNetworkChanged() {
+        final boolean metered = ListHelper.isMeteredNetwork(context);
+        synchronized (this) {
+            meteredNetwork = metered;
+            updatePolicy();
+        }
+    }
+
+    private void updatePolicy() {
+        final ContentType type = headless && contentType == ContentType.AUDIO
+                ? ContentType.HEADLESS_AUDIO : contentType;
+        final BufferPolicy newPolicy = BufferPolicy.choose(lowMemoryDevice, meteredNetwork, type);
+        if (newPolicy.equals(policy)) {
+            return;
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "Switching buffer policy to " + newPolicy + " for " + type
+                    + (meteredNetwork ? " on metered network" : ""));
+        }
+        policy = newPolicy;
+        delegate = newPolicy.buildLoadControl(allocator);
+        if (renderers != null && trackGroups != null && trackSelections != null) {
+            delegate.onTracksSelected(renderers, trackGroups, trackSelections);
+        }
+    }
+
+    private static boolean isLowMemoryDevice(@NonNull final Context context) {
+        final ActivityManager activityManager =
+                ContextCompat.getSystemService(context, ActivityManager.class);
+        return activityManager != null && (activityManager.isLowRamDevice()
+                || activityManager.getMemoryClass() <= BufferPolicy.LOW_MEMORY_CLASS_MB);
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // LoadControl
+    //////////////////////////////////////////////////////////////////////////*/
+
     @Override
-    public void onPrepared() {
+    public synchronized void onPrepared() {
         preloadingEnabled = true;
-        super.onPrepared();
+        delegate.onPrepared();
+    }
+
+    @Override
+    public synchronized void onTracksSelected(@NonNull final Renderer[] newRenderers,
+                                              @NonNull final TrackGroupArray newTrackGroups,
+                                              @NonNull final ExoTrackSelection[] selections) {
+        renderers = newRenderers;
+        trackGroups = newTrackGroups;
+        trackSelections = selections;
+        delegate.onTracksSelected(newRenderers, newTrackGroups, selections);
     }
 
     @Override
-    public void onStopped() {
+    public synchronized void onStopped() {
         preloadingEnabled = true;
-        super.onStopped();
+        delegate.onStopped();
     }
 
     @Override
-    public void onReleased() {
+    public synchronized void onReleased() {
         preloadingEnabled = true;
-        super.onReleased();
+        renderers = null;
+        trackGroups = null;
+        trackSelections = null;
+        delegate.onReleased();
+    }
+
+    @NonNull
+    @Override
+    public Allocator getAllocator() {
+        return allocator;
+    }
+
+    @Override
+    public synchronized long getBackBufferDurationUs() {
+        return delegate.getBackBufferDurationUs();
+    }
+
+    @Override
+    public synchronized boolean retainBackBufferFromKeyframe() {
+        return delegate.retainBackBufferFromKeyframe();
     }
 
     @Override
-    public boolean shouldContinueLoading(final long playbackPositionUs,
-                                         final long bufferedDurationUs,
-                                         final float playbackSpeed) {
+    public synchronized boolean shouldContinueLoading(final long playbackPositionUs,
+                                                      final long bufferedDurationUs,
+                                                      final float playbackSpeed) {
         if (!preloadingEnabled) {
             return false;
         }
-        return super.shouldContinueLoading(
+        return delegate.shouldContinueLoading(
                 playbackPositionUs, bufferedDurationUs, playbackSpeed);
     }
 
+    @Override
+    public synchronized boolean shouldStartPlayback(final long bufferedDurationUs,
+                                                    final float playbackSpeed,
+                                                    final boolean rebuffering,
+                                                    final long targetLiveOffsetUs) {
+        return delegate.shouldStartPlayback(bufferedDurationUs, playbackSpeed, rebuffering,
+                targetLiveOffsetUs);
+    }
+
     public void disablePreloadingOfCurrentTrack() {
         preloadingEnabled = false;
     }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Buffer policies
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * The buffer sizes used by the {@link DefaultLoadControl} for some conditions.
+     */
+    @VisibleForTesting
+    static final class BufferPolicy {
+        /**
+         * Devices whose memory class (the heap available to the app) is not greater than this
+         * are considered low memory devices.
+         */
+        static final int LOW_MEMORY_CLASS_MB = 128;
+
+        /**
+         * The maximum bytes buffered by the audio player, enough for more than the maximum
+         * buffer duration at common audio bitrates.
+         */
+        static final int HEADLESS_AUDIO_BUFFER_BYTES = 4 * 1024 * 1024;
+
+        final int minBufferMs;
+        final int maxBufferMs;
+        final int bufferForPlaybackMs;
+        final int bufferForPlaybackAfterRebufferMs;
+        final int backBufferMs;
+        /**
+         * The maximum bytes buffered, or {@link C#LENGTH_UNSET} to derive it from the selected
+         * tracks.
+         */
+        final int targetBufferBytes;
+
+        BufferPolicy(final int minBufferMs, final int maxBufferMs,
+                     final int bufferForPlaybackMs, final int bufferForPlaybackAfterRebufferMs,
+                     final int backBufferMs, final int targetBufferBytes) {
+            this.minBufferMs = minBufferMs;
+            this.maxBufferMs = maxBufferMs;
+            this.bufferForPlaybackMs = bufferForPlaybackMs;
+            this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+            this.backBufferMs = backBufferMs;
+            this.targetBufferBytes = targetBufferBytes;
+        }
+
+        /**
+         * Chooses the buffer sizes:
+         * <ul>
+         *     <li>audio is cheap to buffer, so a long buffer is kept (but not on metered networks,
+         *     where tracks are often skipped), along with a short back buffer so that rewinding
+         *     (e.g. in podcasts) does not download the audio again</li>
+         *     <li>the audio player keeps the same buffer ahead, but bounded in bytes and without a
+         *     back buffer, to use as little memory as possible while listening for hours</li>
+         *     <li>livestreams only need to cover network hiccups, since the buffer can never be
+         *     ahead of the live edge</li>
+         *     <li>short videos are buffered as a whole and they start as soon as possible</li>
+         *     <li>videos keep no back buffer, as {@link DefaultLoadControl} does by default,
+         *     because their samples take the most memory to keep after playback</li>
+         *     <li>on metered networks the buffer ahead is halved and no back buffer is kept</li>
+         *     <li>on low memory devices video buffers are limited in bytes too, to avoid garbage
+         *     collector pressure</li>
+         * </ul>
+         *
+         * @param lowMemoryDevice whether the device has little memory available for the app
+         * @param meteredNetwork  whether the device is on a metered network
+         * @param contentType     the type of the content being played
+         * @return the buffer policy for the given conditions
+         */
+        @NonNull
+        static BufferPolicy choose(final boolean lowMemoryDevice,
+                                   final boolean meteredNetwork,
+                                   @NonNull final ContentType contentType) {
+            int minBufferMs = DefaultLoadControl.DEFAULT_MIN_BUFFER_MS;
+            int maxBufferMs = DefaultLoadControl.DEFAULT_MAX_BUFFER_MS;
+            int bufferForPlaybackMs = DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS;
+            int backBufferMs = DefaultLoadControl.DEFAULT_BACK_BUFFER_DURATION_MS;
+            int targetBufferBytes = C.LENGTH_UNSET;
+
+            switch (contentType) {
+                case AUDIO:
+                    minBufferMs = 60_000;
+                    maxBufferMs = 120_000;
+                    backBufferMs = 30_000;
+                    break;
+                case HEADLESS_AUDIO:
+                    minBufferMs = 60_000;
+                    maxBufferMs = 120_000;
+                    targetBufferBytes = HEADLESS_AUDIO_BUFFER_BYTES;
+                    break;
+                case LIVE:
+                    minBufferMs = 15_000;
+                    maxBufferMs = 30_000;
+                    break;
+                case SHORT_VIDEO:
+                    minBufferMs = (int) (SHORT_VIDEO_MAX_DURATION_SECONDS * 1000);
+                    maxBufferMs = minBufferMs;
+                    bufferForPlaybackMs = 1_000;
+                    break;
+                case VIDEO:
+                default:
+                    break;
+            }
+
+            if (meteredNetwork) {
+                minBufferMs = Math.max(minBufferMs / 2, bufferForPlaybackMs * 4);
+                maxBufferMs = Math.max(maxBufferMs / 2, minBufferMs);
+                backBufferMs = 0;
+            }
+
+            if (lowMemoryDevice && contentType != ContentType.AUDIO
+                    && contentType != ContentType.HEADLESS_AUDIO) {
+                targetBufferBytes = 16 * 1024 * 1024;
+            }
+
+            return new BufferPolicy(minBufferMs, maxBufferMs, bufferForPlaybackMs,
+                    Math.max(bufferForPlaybackMs,
+                            DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS),
+                    backBufferMs, targetBufferBytes);
+        }
+
+        @NonNull
+        DefaultLoadControl buildLoadControl(@NonNull final DefaultAllocator allocator) {
+            return new DefaultLoadControl.Builder()
+                    .setAllocator(allocator)
+                    .setBufferDurationsMs(minBufferMs, maxBufferMs, bufferForPlaybackMs,
+                            bufferForPlaybackAfterRebufferMs)
+                    .setBackBuffer(backBufferMs, false)
+                    .setTargetBufferBytes(targetBufferBytes)
+                    .setPrioritizeTimeOverSizeThresholds(targetBufferBytes == C.LENGTH_UNSET)
+                    .build();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BufferPolicy)) {
+                return false;
+            }
+            final BufferPolicy that = (BufferPolicy) o;
+            return minBufferMs == that.minBufferMs
+                    && maxBufferMs == that.maxBufferMs
+                    && bufferForPlaybackMs == that.bufferForPlaybackMs
+                    && bufferForPlaybackAfterRebufferMs == that.bufferForPlaybackAfterRebufferMs
+                    && backBufferMs == that.backBufferMs
+                    && targetBufferBytes == that.targetBufferBytes;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = minBufferMs;
+            result = 31 * result + maxBufferMs;
+            result = 31 * result + bufferForPlaybackMs;
+            result = 31 * result + bufferForPlaybackAfterRebufferMs;
+            result = 31 * result + backBufferMs;
+            result = 31 * result + targetBufferBytes;
+            return result;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "BufferPolicy{min=" + minBufferMs + "ms, max=" + maxBufferMs
+                    + "ms, playback=" + bufferForPlaybackMs + "ms, back=" + backBufferMs
+                    + "ms, bytes=" + targetBufferBytes + "}";
+        }
+    }
 }
@@ -0,0 +1,402 @@
+package org.schabi.newpipe.player.helper;
+
+import static org.schabi.newpipe.MainActivity.DEBUG;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.preference.PreferenceManager;
+
+import com.google.android.exoplayer2.database.StandaloneDatabaseProvider;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheKeyFactory;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import org.schabi.newpipe.R;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Owns the {@link SimpleCache} shared by all players, which is kept across sessions.
+ * <p>
+ * Besides creating the cache with the size chosen by the user (or derived from the free
+ * storage), it keeps track of the cache keys used by every stream in order to pin the streams of
+ * the current queue against eviction and to give audio and video content separate quotas (see
+ * {@link PlayerCacheEvictor}). It also counts the bytes read from the cache and from the network.
+ * </p>
+ * <p>
+ * All data is cached with stable keys, which do not depend on the URL of the streams: see
+ * {@link #buildCacheKey(DataSpec)}.
+ * </p>
+ */
+public final class PlayerCache implements PlayerCacheEvictor.KeyPolicy, CacheKeyFactory {
+    private static final String TAG = PlayerCache.class.getSimpleName();
+
+    /**
+     * Prefixes of the cache keys built by
+     * {@link org.schabi.newpipe.player.resolver.PlaybackResolver}, telling audio-only content
+     * apart from video content.
+     */
+    public static final String AUDIO_KEY_PREFIX = "audio ";
+    public static final String VIDEO_KEY_PREFIX = "video ";
+
+    /**
+     * Matches the segment number of the segment URLs of YouTube OTF streams, which are built by
+     * appending it to the URL of the stream.
+     */
+    private static final Pattern SEGMENT_NUMBER = Pattern.compile("&sq=(\\d+)$");
+    private static final String SEGMENT_KEY_SEPARATOR = " sq";
+
+    /**
+     * The folder name in which the ExoPlayer cache will be written.
+     */
+    private static final String CACHE_FOLDER_NAME = "exoplayer";
+
+    /**
+     * Bounds of the cache size when it is derived from the free storage.
+     */
+    private static final long MINIMUM_AUTO_CACHE_SIZE = 64 * 1024 * 1024L;
+    private static final long MAXIMUM_AUTO_CACHE_SIZE = 1024 * 1024 * 1024L;
+
+    /**
+     * Part of the free storage used when the cache size is derived from it.
+     */
+    private static final int AUTO_CACHE_SIZE_DIVISOR = 10;
+
+    /**
+     * Minimum interval between two automatic saves of the statistics.
+     */
+    private static final long STATS_SAVE_INTERVAL_MILLIS = 60 * 1000;
+
+    @Nullable
+    private static PlayerCache instance;
+
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final SimpleCache cache;
+    @NonNull
+    private final PlayerCacheEvictor evictor;
+
+    /**
+     * Maps every cache key used in this session to the URL of the stream info it belongs to.
+     * The keys are forgotten once all of their spans have been evicted.
+     */
+    private final Map<String, String> streamUrls = new ConcurrentHashMap<>();
+    /**
+     * Maps the (transient) URLs of the streams used in this session to their cache keys.
+     */
+    private final Map<String, String> urlKeys = new ConcurrentHashMap<>();
+    /**
+     * The number of spans in the cache for every stream key, segments included.
+     */
+    private final Map<String, Integer> streamSpans = new ConcurrentHashMap<>();
+    @NonNull
+    private volatile Set<String> pinnedStreamUrls = Collections.emptySet();
+
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final AtomicLong networkBytes = new AtomicLong();
+    private final AtomicLong lastStatsSaveMillis = new AtomicLong();
+
+    private final CacheDataSource.EventListener cacheEventListener =
+            new CacheDataSource.EventListener() {
+                @Override
+                public void onCachedBytesRead(final long cacheSizeBytes,
+                                              final long cachedBytesRead) {
+                    cachedBytes.addAndGet(cachedBytesRead);
+                    maybeSaveStats();
+                }
+
+                @Override
+                public void onCacheIgnored(final int reason) {
+                    // nothing to do
+                }
+            };
+
+    private final TransferListener networkTransferListener = new TransferListener() {
+        @Override
+        public void onTransferInitializing(@NonNull final DataSource source,
+                                           @NonNull final DataSpec dataSpec,
+                                           final boolean isNetwork) {
+            // nothing to do
+        }
+
+        @Override
+        public void onTransferStart(@NonNull final DataSource source,
+                                    @NonNull final DataSpec dataSpec,
+                                    final boolean isNetwork) {
+            // nothing to do
+        }
+
+        @Override
+        public void onBytesTransferred(@NonNull final DataSource source,
+                                       @NonNull final DataSpec dataSpec,
+                                       final boolean isNetwork,
+                                       final int bytesTransferred) {
+            if (isNetwork) {
+                networkBytes.addAndGet(bytesTransferred);
+                maybeSaveStats();
+            }
+        }
+
+        @Override
+        public void onTransferEnd(@NonNull final DataSource source,
+                                  @NonNull final DataSpec dataSpec,
+                                  final boolean isNetwork) {
+            // nothing to do
+        }
+    };
+
+    private PlayerCache(@NonNull final Context context) {
+        this.context = context;
+        final File cacheDir = new File(context.getExternalCacheDir(), CACHE_FOLDER_NAME);
+        if (DEBUG) {
+            Log.d(TAG, "PlayerCache: cacheDir = " + cacheDir.getAbsolutePath());
+        }
+        if (!cacheDir.exists() && !cacheDir.mkdir()) {
+            Log.w(TAG, "PlayerCache: could not create cache dir");
+        }
+
+        evictor = new PlayerCacheEvictor(this, PlayerHelper.getPreferredCacheSize(context));
+        cache = new SimpleCache(cacheDir, evictor, new StandaloneDatabaseProvider(context));
+
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        cachedBytes.set(prefs.getLong(
+                context.getString(R.string.player_cache_cached_bytes_key), 0));
+        networkBytes.set(prefs.getLong(
+                context.getString(R.string.player_cache_network_bytes_key), 0));
+        lastStatsSaveMillis.set(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Creates the cache if needed, otherwise applies the cache size preference, which may have
+     * been changed in the meantime.
+     *
+     * @param context the context used to create the cache and read the preferences
+     * @return the player cache
+     */
+    @NonNull
+    public static synchronized PlayerCache getInstance(@NonNull final Context context) {
+        if (instance == null) {
+            instance = new PlayerCache(context.getApplicationContext());
+        } else {
+            instance.evictor.setMaxBytes(PlayerHelper.getPreferredCacheSize(context));
+        }
+        return instance;
+    }
+
+    /**
+     * Computes the cache size when the user did not choose one: a part of the free storage,
+     * within reasonable bounds.
+     *
+     * @param context the context used to find the cache directory
+     * @return the cache size in bytes
+     */
+    static long getAutomaticCacheSize(@NonNull final Context context) {
+        final File dir = context.getExternalCacheDir();
+        final long freeSpace = dir == null ? 0 : dir.getUsableSpace();
+        return Math.max(MINIMUM_AUTO_CACHE_SIZE,
+                Math.min(MAXIMUM_AUTO_CACHE_SIZE, freeSpace / AUTO_CACHE_SIZE_DIVISOR));
+    }
+
+    @NonNull
+    SimpleCache getCache() {
+        return cache;
+    }
+
+    @NonNull
+    CacheDataSource.EventListener getCacheEventListener() {
+        return cacheEventListener;
+    }
+
+    @NonNull
+    TransferListener getNetworkTransferListener() {
+        return networkTransferListener;
+    }
+
+    /**
+     * Associates a cache key with the stream info it belongs to. Needed to pin the key.
+     *
+     * @param streamUrl the URL of the stream info
+     * @param key       the cache key used for one of its streams
+     */
+    public void registerKey(@NonNull final String streamUrl, @NonNull final String key) {
+        streamUrls.put(key, streamUrl);
+    }
+
+    /**
+     * Makes the data requested through the given URL cached with the given key, instead of the
+     * URL itself. URLs of streams are usually signed and expire, so bytes cached with them could
+     * not be found once the stream is resolved again.
+     *
+     * @param url the URL of a stream
+     * @param key the cache key of the stream
+     */
+    public void registerUrl(@NonNull final String url, @NonNull final String key) {
+        urlKeys.put(url, key);
+    }
+
+    /**
+     * Builds the cache key of the data requested by a {@link CacheDataSource}: the key of the
+     * stream if the request uses its URL (or the URL of one of its segments), otherwise the key
+     * chosen by the media source, as ExoPlayer would do.
+     */
+    @NonNull
+    @Override
+    public String buildCacheKey(@NonNull final DataSpec dataSpec) {
+        final String key = dataSpec.key != null ? dataSpec.key : dataSpec.uri.toString();
+
+        final String streamKey = urlKeys.get(key);
+        if (streamKey != null) {
+            return streamKey;
+        }
+
+        final Matcher matcher = SEGMENT_NUMBER.matcher(key);
+        if (matcher.find()) {
+            final String segmentStreamKey = urlKeys.get(key.substring(0, matcher.start()));
+            if (segmentStreamKey != null) {
+                return segmentStreamKey + SEGMENT_KEY_SEPARATOR + matcher.group(1);
+            }
+        }
+
+        return key;
+    }
+
+    /**
+     * Protects the cached streams of the given stream infos from eviction, replacing the
+     * previously pinned ones. Pinned streams are evicted only when the cache contains nothing
+     * else.
+     *
+     * @param urls the URLs of the stream infos to pin, usually the ones of the current queue
+     */
+    public void pin(@NonNull final Collection<String> urls) {
+        pinnedStreamUrls = Collections.unmodifiableSet(new HashSet<>(urls));
+    }
+
+    @Override
+    public boolean isAudio(@NonNull final String key) {
+        return key.startsWith(AUDIO_KEY_PREFIX);
+    }
+
+    @Override
+    public boolean isPinned(@NonNull final String key) {
+        final String streamUrl = streamUrls.get(streamKeyOf(key));
+        return streamUrl != null && pinnedStreamUrls.contains(streamUrl);
+    }
+
+    @Override
+    public void onSpanAdded(@NonNull final String key) {
+        streamSpans.merge(streamKeyOf(key), 1, Integer::sum);
+    }
+
+    @Override
+    public void onSpanRemoved(@NonNull final String key) {
+        final String streamKey = streamKeyOf(key);
+        final Integer spans = streamSpans.computeIfPresent(streamKey,
+                (k, count) -> count > 1 ? count - 1 : null);
+
+        // the keys of a pinned stream are still needed, its data is going to be cached again
+        if (spans == null && !isPinned(streamKey)) {
+            streamUrls.remove(streamKey);
+            urlKeys.values().removeIf(streamKey::equals);
+        }
+    }
+
+    /**
+     * @param key a cache key built by {@link #buildCacheKey(DataSpec)}
+     * @return the key of the stream, i.e. the key without the segment number, if any
+     */
+    @NonNull
+    private static String streamKeyOf(@NonNull final String key) {
+        final int segment = key.lastIndexOf(SEGMENT_KEY_SEPARATOR);
+        if (segment <= 0) {
+            return key;
+        }
+        for (int i = segment + SEGMENT_KEY_SEPARATOR.length(); i < key.length(); i++) {
+            if (!Character.isDigit(key.charAt(i))) {
+                return key;
+            }
+        }
+        return key.substring(0, segment);
+    }
+
+    public long getCacheSpace() {
+        return cache.getCacheSpace();
+    }
+
+    public long getMaximumCacheSpace() {
+        return evictor.getMaxBytes();
+    }
+
+    /**
+     * @return the bytes read from the cache, since the statistics were last reset
+     */
+    public long getCachedBytes() {
+        return cachedBytes.get();
+    }
+
+    /**
+     * @return the bytes downloaded by the player, since the statistics were last reset
+     */
+    public long getNetworkBytes() {
+        return networkBytes.get();
+    }
+
+    /**
+     * @return the ratio of bytes read from the cache, between 0 and 1
+     */
+    public double getHitRatio() {
+        final long cached = cachedBytes.get();
+        final long total = cached + networkBytes.get();
+        return total == 0 ? 0 : (double) cached / total;
+    }
+
+    /**
+     * Persists the statistics if they were not saved recently, so that they are not lost if the
+     * process is killed while playing.
+     */
+    private void maybeSaveStats() {
+        final long now = SystemClock.elapsedRealtime();
+        final long lastSave = lastStatsSaveMillis.get();
+        if (now - lastSave >= STATS_SAVE_INTERVAL_MILLIS
+                && lastStatsSaveMillis.compareAndSet(lastSave, now)) {
+            saveStats(context);
+        }
+    }
+
+    /**
+     * Persists the statistics, so that they survive the process.
+     *
+     * @param context the context used to write the preferences
+     */
+    public void saveStats(@NonNull final Context context) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putLong(context.getString(R.string.player_cache_cached_bytes_key),
+                        cachedBytes.get())
+                .putLong(context.getString(R.string.player_cache_network_bytes_key),
+                        networkBytes.get())
+                .apply();
+    }
+
+    public void resetStats(@NonNull final Context context) {
+        cachedBytes.set(0);
+        networkBytes.set(0);
+        saveStats(context);
+    }
+}
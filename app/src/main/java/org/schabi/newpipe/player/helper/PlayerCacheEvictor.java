@@ -0,0 +1,178 @@
+package org.schabi.newpipe.player.helper;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+
+import java.util.TreeSet;
+
+/**
+ * A {@link CacheEvictor} similar to {@link LeastRecentlyUsedCacheEvictor}, but with separate
+ * quotas for audio and video content, so that watching a few videos does not evict the whole
+ * audio cache (and vice versa).
+ * <p>
+ * The quotas are applied only when the cache is full: each kind can use the space left unused by
+ * the other one, and the spans of a kind are evicted only while it uses more than its quota.
+ * </p>
+ * <p>
+ * Spans of pinned keys are evicted only when no other span of the same kind is left, i.e. they
+ * are the last to go but they can never make the cache exceed its size.
+ * </p>
+ */
+final class PlayerCacheEvictor implements CacheEvictor {
+
+    /**
+     * Percentage of the maximum cache size reserved to audio content when the cache is full.
+     */
+    private static final int AUDIO_QUOTA_PERCENT = 25;
+
+    interface KeyPolicy {
+        boolean isAudio(@NonNull String key);
+
+        boolean isPinned(@NonNull String key);
+
+        /**
+         * Called when a span of the given key is added to the cache, but not when it is touched.
+         */
+        void onSpanAdded(@NonNull String key);
+
+        /**
+         * Called when a span of the given key is removed from the cache, but not when it is
+         * touched.
+         */
+        void onSpanRemoved(@NonNull String key);
+    }
+
+    @NonNull
+    private final KeyPolicy policy;
+    private final TreeSet<CacheSpan> audioSpans = new TreeSet<>(PlayerCacheEvictor::compare);
+    private final TreeSet<CacheSpan> videoSpans = new TreeSet<>(PlayerCacheEvictor::compare);
+
+    private volatile long maxBytes;
+    private long audioBytes;
+    private long videoBytes;
+
+    PlayerCacheEvictor(@NonNull final KeyPolicy policy, final long maxBytes) {
+        this.policy = policy;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Changes the maximum size of the cache, spans exceeding it are evicted the next time the
+     * cache is written.
+     *
+     * @param bytes the new maximum size
+     */
+    void setMaxBytes(final long bytes) {
+        maxBytes = bytes;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public boolean requiresCacheSpanTouches() {
+        return true;
+    }
+
+    @Override
+    public void onCacheInitialized() {
+        // nothing to do
+    }
+
+    @Override
+    public void onStartFile(@NonNull final Cache cache, @NonNull final String key,
+                            final long position, final long length) {
+        if (length != C.LENGTH_UNSET) {
+            evictCache(cache, policy.isAudio(key), length);
+        }
+    }
+
+    @Override
+    public void onSpanAdded(@NonNull final Cache cache, @NonNull final CacheSpan span) {
+        policy.onSpanAdded(span.key);
+        addSpan(cache, span);
+    }
+
+    @Override
+    public void onSpanRemoved(@NonNull final Cache cache, @NonNull final CacheSpan span) {
+        removeSpan(span);
+        policy.onSpanRemoved(span.key);
+    }
+
+    @Override
+    public void onSpanTouched(@NonNull final Cache cache, @NonNull final CacheSpan oldSpan,
+                              @NonNull final CacheSpan newSpan) {
+        removeSpan(oldSpan);
+        addSpan(cache, newSpan);
+    }
+
+    private void addSpan(@NonNull final Cache cache, @NonNull final CacheSpan span) {
+        final boolean audio = policy.isAudio(span.key);
+        if (audio) {
+            audioSpans.add(span);
+            audioBytes += span.length;
+        } else {
+            videoSpans.add(span);
+            videoBytes += span.length;
+        }
+        evictCache(cache, audio, 0);
+    }
+
+    private void removeSpan(@NonNull final CacheSpan span) {
+        // the kind of a key may be known only after its spans were added, e.g. when the cache
+        // is initialized with spans from the previous sessions
+        if (audioSpans.remove(span)) {
+            audioBytes -= span.length;
+        } else if (videoSpans.remove(span)) {
+            videoBytes -= span.length;
+        }
+    }
+
+    private void evictCache(@NonNull final Cache cache, final boolean audio,
+                            final long requiredSpace) {
+        final long audioQuota = maxBytes * AUDIO_QUOTA_PERCENT / 100;
+        final long videoQuota = maxBytes - audioQuota;
+
+        while (audioBytes + videoBytes + requiredSpace > maxBytes
+                && !(audioSpans.isEmpty() && videoSpans.isEmpty())) {
+            // the quotas only matter when the cache is full: evict from the kind using more than
+            // its quota, which can only use the space left unused by the other kind
+            final long audioUsage = audioBytes + (audio ? requiredSpace : 0);
+            final long videoUsage = videoBytes + (audio ? 0 : requiredSpace);
+            final boolean evictAudio;
+            if (audioUsage > audioQuota) {
+                evictAudio = !audioSpans.isEmpty();
+            } else if (videoUsage > videoQuota) {
+                evictAudio = videoSpans.isEmpty();
+            } else {
+                evictAudio = audio ? !audioSpans.isEmpty() : videoSpans.isEmpty();
+            }
+            cache.removeSpan(leastRecentlyUsed(evictAudio ? audioSpans : videoSpans));
+        }
+    }
+
+    @NonNull
+    private CacheSpan leastRecentlyUsed(@NonNull final TreeSet<CacheSpan> spans) {
+        for (final CacheSpan span : spans) {
+            if (!policy.isPinned(span.key)) {
+                return span;
+            }
+        }
+        return spans.first();
+    }
+
+    private static int compare(final CacheSpan lhs, final CacheSpan rhs) {
+        final long lastTouchTimestampDelta = lhs.lastTouchTimestamp - rhs.lastTouchTimestamp;
+        if (lastTouchTimestampDelta == 0) {
+            // Use the standard compareTo method as a tie-break.
+            return lhs.compareTo(rhs);
+        }
+        return lhs.lastTouchTimestamp < rhs.lastTouchTimestamp ? -1 : 1;
+    }
+}
@@ -1,13 +1,9 @@
 package org.schabi.newpipe.player.helper;
 
-import static org.schabi.newpipe.MainActivity.DEBUG;
-
 import android.content.Context;
-import android.util.Log;
 
 import androidx.annotation.Nullable;
 
-import com.google.android.exoplayer2.database.StandaloneDatabaseProvider;
 import com.google.android.exoplayer2.source.ProgressiveMediaSource;
 import com.google.android.exoplayer2.source.SingleSampleMediaSource;
 import com.google.android.exoplayer2.source.dash.DashMediaSource;
@@ -19,9 +15,9 @@ import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSource;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
 import com.google.android.exoplayer2.upstream.TransferListener;
-import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
-import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 
 import org.schabi.newpipe.DownloaderImpl;
 import org.schabi.newpipe.extractor.services.youtube.dashmanifestcreators.YoutubeOtfDashManifestCreator;
@@ -29,8 +25,9 @@ import org.schabi.newpipe.extractor.services.youtube.dashmanifestcreators.Youtub
 import org.schabi.newpipe.extractor.services.youtube.dashmanifestcreators.YoutubeProgressiveDashManifestCreator;
 import org.schabi.newpipe.player.datasource.NonUriHlsDataSourceFactory;
 import org.schabi.newpipe.player.datasource.YoutubeHttpDataSource;
+import org.schabi.newpipe.player.datasource.YoutubeOkHttpDataSource;
 
-import java.io.File;
+import java.util.function.IntSupplier;
 
 public class PlayerDataSource {
     public static final String TAG = PlayerDataSource.class.getSimpleName();
@@ -53,17 +50,14 @@ public class PlayerDataSource {
     private static final int MAX_MANIFEST_CACHE_SIZE = 500;
 
     /**
-     * The folder name in which the ExoPlayer cache will be written.
+     * The cache used to build {@link CacheDataSource} instances (with {@link CacheFactory}).
      */
-    private static final String CACHE_FOLDER_NAME = "exoplayer";
+    private final PlayerCache cache;
 
     /**
-     * The {@link SimpleCache} instance which will be used to build
-     * {@link com.google.android.exoplayer2.upstream.cache.CacheDataSource}s instances (with
-     * {@link CacheFactory}).
+     * The cache of the DASH manifests generated for YouTube streams.
      */
-    private static SimpleCache cache;
-
+    private final DashManifestCache manifestCache;
 
     private final int progressiveLoadIntervalBytes;
 
@@ -83,8 +77,9 @@ public class PlayerDataSource {
 
         progressiveLoadIntervalBytes = PlayerHelper.getProgressiveLoadIntervalBytes(context);
 
-        // make sure the static cache was created: needed by CacheFactories below
-        instantiateCacheIfNeeded(context);
+        // make sure the shared cache was created: needed by CacheFactories below
+        cache = PlayerCache.getInstance(context);
+        manifestCache = DashManifestCache.getInstance(context);
 
         // generic data source factories use DefaultHttpDataSource.Factory
         cachelessDataSourceFactory = new DefaultDataSource.Factory(context,
@@ -94,12 +89,19 @@ public class PlayerDataSource {
                 new DefaultHttpDataSource.Factory().setUserAgent(DownloaderImpl.USER_AGENT));
 
         // YouTube-specific data source factories use getYoutubeHttpDataSourceFactory()
+        // HLS segments are small, so they are never split into parallel requests
+        // the number of parallel connections is read on every open, since it depends on whether
+        // the network is metered
+        final boolean okHttp = PlayerHelper.isOkHttpForPlaybackEnabled(context);
+        final Context appContext = context.getApplicationContext();
+        final IntSupplier parallelConnections =
+                () -> PlayerHelper.getParallelConnections(appContext);
         ytHlsCacheDataSourceFactory = new CacheFactory(context, transferListener, cache,
-                getYoutubeHttpDataSourceFactory(false, false));
+                getYoutubeHttpDataSourceFactory(okHttp, false, false, null));
         ytDashCacheDataSourceFactory = new CacheFactory(context, transferListener, cache,
-                getYoutubeHttpDataSourceFactory(true, true));
+                getYoutubeHttpDataSourceFactory(okHttp, true, true, parallelConnections));
         ytProgressiveDashCacheDataSourceFactory = new CacheFactory(context, transferListener, cache,
-                getYoutubeHttpDataSourceFactory(false, true));
+                getYoutubeHttpDataSourceFactory(okHttp, false, true, parallelConnections));
 
         // set the maximum size to manifest creators
         YoutubeProgressiveDashManifestCreator.getCache().setMaximumSize(MAX_MANIFEST_CACHE_SIZE);
@@ -184,34 +186,64 @@ public class PlayerDataSource {
     //endregion
 
 
+    //region Cache
+    public PlayerCache getCache() {
+        return cache;
+    }
+
+    public DashManifestCache getManifestCache() {
+        return manifestCache;
+    }
+
+    /**
+     * Creates a data source which writes into the player cache, through the same upstream used
+     * by the corresponding media source factory. Used to warm up the cache before playback.
+     *
+     * @param youtube whether the stream belongs to YouTube
+     * @param dash    whether the YouTube stream is played through a generated DASH manifest
+     * @return a new {@link CacheDataSource}
+     */
+    public CacheDataSource createPrefetchDataSource(final boolean youtube, final boolean dash) {
+        if (!youtube) {
+            return cacheDataSourceFactory.createDataSource();
+        }
+        return dash ? ytDashCacheDataSourceFactory.createDataSource()
+                : ytProgressiveDashCacheDataSourceFactory.createDataSource();
+    }
+    //endregion
+
+
     //region Static methods
     private static DefaultDashChunkSource.Factory getDefaultDashChunkSourceFactory(
             final DataSource.Factory dataSourceFactory) {
         return new DefaultDashChunkSource.Factory(dataSourceFactory);
     }
 
-    private static YoutubeHttpDataSource.Factory getYoutubeHttpDataSourceFactory(
+    /**
+     * @param okHttp              whether to use {@link YoutubeOkHttpDataSource}, which shares the
+     *                            connection pool of {@link DownloaderImpl}, instead of
+     *                            {@link YoutubeHttpDataSource}
+     * @param parallelConnections supplies the number of concurrent connections used to read
+     *                            large ranges, {@code null} to always use a single connection
+     */
+    private static HttpDataSource.Factory getYoutubeHttpDataSourceFactory(
+            final boolean okHttp,
             final boolean rangeParameterEnabled,
-            final boolean rnParameterEnabled) {
-        return new YoutubeHttpDataSource.Factory()
+            final boolean rnParameterEnabled,
+            @Nullable final IntSupplier parallelConnections) {
+        if (okHttp) {
+            final YoutubeOkHttpDataSource.Factory factory = new YoutubeOkHttpDataSource.Factory(
+                    DownloaderImpl.getInstance().getClient())
+                    .setRangeParameterEnabled(rangeParameterEnabled)
+                    .setRnParameterEnabled(rnParameterEnabled);
+            return parallelConnections == null
+                    ? factory : factory.setParallelConnections(parallelConnections);
+        }
+        final YoutubeHttpDataSource.Factory factory = new YoutubeHttpDataSource.Factory()
                 .setRangeParameterEnabled(rangeParameterEnabled)
                 .setRnParameterEnabled(rnParameterEnabled);
-    }
-
-    private static void instantiateCacheIfNeeded(final Context context) {
-        if (cache == null) {
-            final File cacheDir = new File(context.getExternalCacheDir(), CACHE_FOLDER_NAME);
-            if (DEBUG) {
-                Log.d(TAG, "instantiateCacheIfNeeded: cacheDir = " + cacheDir.getAbsolutePath());
-            }
-            if (!cacheDir.exists() && !cacheDir.mkdir()) {
-                Log.w(TAG, "instantiateCacheIfNeeded: could not create cache dir");
-            }
-
-            final LeastRecentlyUsedCacheEvictor evictor =
-                    new LeastRecentlyUsedCacheEvictor(PlayerHelper.getPreferredCacheSize());
-            cache = new SimpleCache(cacheDir, evictor, new StandaloneDatabaseProvider(context));
-        }
+        return parallelConnections == null
+                ? factory : factory.setParallelConnections(parallelConnections);
     }
     //endregion
 }
@@ -295,8 +295,21 @@ public final class PlayerHelper {
         return isUsingInexactSeek(context) ? SeekParameters.CLOSEST_SYNC : SeekParameters.EXACT;
     }
 
-    public static long getPreferredCacheSize() {
-        return 64 * 1024 * 1024L;
+    /**
+     * @param context the context used to read the preferences
+     * @return the maximum size of the player cache in bytes, as chosen by the user or derived
+     * from the free storage
+     */
+    public static long getPreferredCacheSize(@NonNull final Context context) {
+        final String size = getPreferences(context).getString(
+                context.getString(R.string.player_cache_size_key),
+                context.getString(R.string.player_cache_size_auto_value));
+
+        if (context.getString(R.string.player_cache_size_auto_value).equals(size)) {
+            return PlayerCache.getAutomaticCacheSize(context);
+        }
+        // MiB
+        return Long.parseLong(size) * 1024 * 1024L;
     }
 
     public static long getPreferredFileSize() {
@@ -399,6 +412,62 @@ public final class PlayerHelper {
         return Integer.parseInt(preferredIntervalBytes) * 1024;
     }
 
+    /**
+     * @param context the context used to read the preferences
+     * @return how many items after the current one should be loaded ahead of time, as chosen by
+     * the user
+     */
+    public static int getPrefetchWindowSize(@NonNull final Context context) {
+        return Integer.parseInt(getPreferences(context).getString(
+                context.getString(R.string.prefetch_window_key),
+                context.getString(R.string.prefetch_window_default_value)));
+    }
+
+    /**
+     * @param context the context used to read the preferences
+     * @return whether the items of the queue should be played without a pause between them when
+     * only audio is played
+     */
+    public static boolean isGaplessAudioEnabled(@NonNull final Context context) {
+        return getPreferences(context).getBoolean(
+                context.getString(R.string.gapless_audio_key), true);
+    }
+
+    /**
+     * @param context the context used to read the preferences
+     * @return for how many milliseconds the audio is faded out and in between two items, as
+     * chosen by the user (0 if disabled)
+     */
+    public static int getAudioCrossfadeMillis(@NonNull final Context context) {
+        return Integer.parseInt(getPreferences(context).getString(
+                context.getString(R.string.audio_crossfade_key),
+                context.getString(R.string.audio_crossfade_default_value)));
+    }
+
+    /**
+     * @param context the context used to read the preferences
+     * @return whether YouTube streams should be loaded with the OkHttp client of the app instead
+     * of {@link java.net.HttpURLConnection}, as chosen by the user
+     */
+    public static boolean isOkHttpForPlaybackEnabled(@NonNull final Context context) {
+        return getPreferences(context).getBoolean(
+                context.getString(R.string.use_okhttp_for_playback_key), false);
+    }
+
+    /**
+     * @param context the context used to read the preferences
+     * @return how many concurrent connections are used to load large ranges of YouTube streams,
+     * as chosen by the user (1 on metered networks)
+     */
+    public static int getParallelConnections(@NonNull final Context context) {
+        if (ListHelper.isMeteredNetwork(context)) {
+            return 1;
+        }
+        return Integer.parseInt(getPreferences(context).getString(
+                context.getString(R.string.parallel_connections_key),
+                context.getString(R.string.parallel_connections_default_value)));
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     // Private helpers
     ////////////////////////////////////////////////////////////////////////////
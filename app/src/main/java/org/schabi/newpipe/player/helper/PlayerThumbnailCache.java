@@ -0,0 +1,143 @@
+package org.schabi.newpipe.player.helper;
+
+import static org.schabi.newpipe.MainActivity.DEBUG;
+import static org.schabi.newpipe.extractor.utils.Utils.isNullOrEmpty;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
+
+import com.squareup.picasso.MemoryPolicy;
+
+import org.schabi.newpipe.util.PicassoHelper;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * A bounded pool of the thumbnails shown by the media session and the notification, already
+ * scaled down to the notification size (see {@link PicassoHelper#loadScaledDownThumbnail}).
+ * <p>
+ * The thumbnails of the upcoming items of the queue are loaded ahead of time, so that on a track
+ * change the artwork can be published immediately, instead of removing it while the thumbnail of
+ * the new item is downloaded and decoded. The pool is separate from the memory cache of Picasso,
+ * which is shared with all the lists of the app and would evict the thumbnails quickly.
+ * </p>
+ * <p>
+ * Not thread safe, all methods must be called from the main thread.
+ * </p>
+ */
+public final class PlayerThumbnailCache {
+    private static final String TAG = PlayerThumbnailCache.class.getSimpleName();
+
+    /**
+     * The maximum bytes of the thumbnails in the pool, enough for a few thumbnails of the
+     * notification size even on high density screens.
+     */
+    private static final int MAX_POOL_BYTES = 6 * 1024 * 1024;
+
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final LruCache<String, Bitmap> pool = new LruCache<String, Bitmap>(MAX_POOL_BYTES) {
+        @Override
+        protected int sizeOf(@NonNull final String key, @NonNull final Bitmap value) {
+            return value.getAllocationByteCount();
+        }
+    };
+
+    /**
+     * The thumbnails being prefetched, by url.
+     */
+    @NonNull
+    private final Map<String, Disposable> tasks = new HashMap<>();
+
+    public PlayerThumbnailCache(@NonNull final Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @param url the url of a thumbnail
+     * @return the scaled down thumbnail, or {@code null} if it is not in the pool
+     */
+    @Nullable
+    public Bitmap get(@Nullable final String url) {
+        return isNullOrEmpty(url) ? null : pool.get(url);
+    }
+
+    /**
+     * @param url    the url of a thumbnail
+     * @param bitmap the thumbnail, scaled down with {@link PicassoHelper#loadScaledDownThumbnail}
+     */
+    public void put(@Nullable final String url, @NonNull final Bitmap bitmap) {
+        if (!isNullOrEmpty(url)) {
+            pool.put(url, bitmap);
+        }
+    }
+
+    /**
+     * Loads the given thumbnails into the pool in background, unless they are already in it or
+     * being loaded, and cancels the loading of the thumbnails not included in them anymore.
+     *
+     * @param urls the urls of the thumbnails of the upcoming items
+     */
+    public void prefetch(@NonNull final Collection<String> urls) {
+        final Iterator<Map.Entry<String, Disposable>> iterator = tasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Disposable> entry = iterator.next();
+            if (!urls.contains(entry.getKey())) {
+                entry.getValue().dispose();
+                iterator.remove();
+            }
+        }
+
+        if (!PicassoHelper.getShouldLoadImages()) {
+            return;
+        }
+        for (final String url : urls) {
+            if (isNullOrEmpty(url) || pool.get(url) != null || tasks.containsKey(url)) {
+                continue;
+            }
+
+            // the pool keeps the bitmap, do not keep a second copy in the memory cache of Picasso
+            tasks.put(url, Single.fromCallable(() ->
+                            PicassoHelper.loadScaledDownThumbnail(context, url)
+                                    .memoryPolicy(MemoryPolicy.NO_STORE)
+                                    .get())
+                    .subscribeOn(Schedulers.io())
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(bitmap -> {
+                        if (DEBUG) {
+                            Log.d(TAG, "Prefetched thumbnail [" + url + "]");
+                        }
+                        tasks.remove(url);
+                        pool.put(url, bitmap);
+                    }, error -> {
+                        Log.w(TAG, "Unable to prefetch thumbnail [" + url + "]", error);
+                        tasks.remove(url);
+                    }));
+        }
+    }
+
+    /**
+     * Cancels the loading of all thumbnails and empties the pool.
+     */
+    public void clear() {
+        for (final Disposable task : tasks.values()) {
+            task.dispose();
+        }
+        tasks.clear();
+        pool.evictAll();
+    }
+}
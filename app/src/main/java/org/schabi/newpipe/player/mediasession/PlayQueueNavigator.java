@@ -56,11 +56,13 @@ public class PlayQueueNavigator implements MediaSessionConnector.QueueNavigator
     @Override
     public void onCurrentMediaItemIndexChanged(
             @NonNull final com.google.android.exoplayer2.Player exoPlayer) {
+        // the timeline of the player only contains a part of the queue, so use the queue
+        final PlayQueue playQueue = player.getPlayQueue();
         if (activeQueueItemId == MediaSessionCompat.QueueItem.UNKNOWN_ID
-                || exoPlayer.getCurrentTimeline().getWindowCount() > MAX_QUEUE_SIZE) {
+                || playQueue == null || playQueue.size() > MAX_QUEUE_SIZE) {
             publishFloatingQueueWindow();
         } else if (!exoPlayer.getCurrentTimeline().isEmpty()) {
-            activeQueueItemId = exoPlayer.getCurrentMediaItemIndex();
+            activeQueueItemId = playQueue.getIndex();
         }
     }
 
@@ -10,6 +10,9 @@ import com.google.android.exoplayer2.source.ShuffleOrder;
 
 import org.schabi.newpipe.player.mediaitem.MediaItemTag;
 
+import java.util.Collection;
+import java.util.Collections;
+
 public class ManagedMediaSourcePlaylist {
     @NonNull
     private final ConcatenatingMediaSource internalSource;
@@ -65,6 +68,37 @@ public class ManagedMediaSourcePlaylist {
         append(PlaceholderMediaSource.COPY);
     }
 
+    /**
+     * Expands the {@link ConcatenatingMediaSource} by appending it with the given amount of
+     * {@link PlaceholderMediaSource}s, in a single update of the playlist.
+     *
+     * @see ConcatenatingMediaSource#addMediaSources(Collection)
+     * @param count the amount of placeholders to append
+     */
+    public synchronized void expand(final int count) {
+        if (count <= 0) {
+            return;
+        }
+        internalSource.addMediaSources(Collections.nCopies(count, PlaceholderMediaSource.COPY));
+    }
+
+    /**
+     * Inserts the given amount of {@link PlaceholderMediaSource}s into the
+     * {@link ConcatenatingMediaSource} at the given index, in a single update of the playlist.
+     * If this index is out of bound, then the insertion is ignored.
+     *
+     * @see ConcatenatingMediaSource#addMediaSources(int, Collection)
+     * @param index the index of the first placeholder
+     * @param count the amount of placeholders to insert
+     */
+    public synchronized void expand(final int index, final int count) {
+        if (index < 0 || index > internalSource.getSize() || count <= 0) {
+            return;
+        }
+        internalSource.addMediaSources(index,
+                Collections.nCopies(count, PlaceholderMediaSource.COPY));
+    }
+
     /**
      * Appends a {@link ManagedMediaSource} to the end of {@link ConcatenatingMediaSource}.
      *
@@ -83,17 +117,41 @@ public class ManagedMediaSourcePlaylist {
      * @param index of {@link ManagedMediaSource} to be removed
      */
     public synchronized void remove(final int index) {
-        if (index < 0 || index > internalSource.getSize()) {
+        if (index < 0 || index >= internalSource.getSize()) {
             return;
         }
 
         internalSource.removeMediaSource(index);
     }
 
+    /**
+     * Removes the {@link ManagedMediaSource}s from {@link ConcatenatingMediaSource} between the
+     * given indices, in a single update of the playlist. The indices are clamped to the bounds
+     * of the playlist.
+     *
+     * @see ConcatenatingMediaSource#removeMediaSourceRange(int, int)
+     * @param fromIndex index of the first {@link ManagedMediaSource} to remove (inclusive)
+     * @param toIndex   index of the last {@link ManagedMediaSource} to remove (exclusive)
+     */
+    public synchronized void removeRange(final int fromIndex, final int toIndex) {
+        final int from = Math.max(0, fromIndex);
+        final int to = Math.min(internalSource.getSize(), toIndex);
+        if (from >= to) {
+            return;
+        }
+
+        internalSource.removeMediaSourceRange(from, to);
+    }
+
     /**
      * Moves a {@link ManagedMediaSource} in {@link ConcatenatingMediaSource}
-     * from the given source index to the target index. If either index is out of bound,
+     * from the given source index to the target index. If either index is negative,
      * then the call is ignored.
+     * <p>
+     * The playlist may contain only a part of the play queue. An item moved from after the end
+     * of the playlist into it is inserted as a {@link PlaceholderMediaSource}, while an item
+     * moved after its end is removed from it, so that the playlist keeps matching the queue.
+     * </p>
      *
      * @see ConcatenatingMediaSource#moveMediaSource(int, int)
      * @param source original index of {@link ManagedMediaSource}
@@ -103,11 +161,17 @@ public class ManagedMediaSourcePlaylist {
         if (source < 0 || target < 0) {
             return;
         }
-        if (source >= internalSource.getSize() || target >= internalSource.getSize()) {
+
+        final int size = internalSource.getSize();
+        if (source >= size && target >= size) {
             return;
+        } else if (source >= size) {
+            internalSource.addMediaSource(target, PlaceholderMediaSource.COPY);
+        } else if (target >= size) {
+            internalSource.removeMediaSource(source);
+        } else {
+            internalSource.moveMediaSource(source, target);
         }
-
-        internalSource.moveMediaSource(source, target);
     }
 
     /**
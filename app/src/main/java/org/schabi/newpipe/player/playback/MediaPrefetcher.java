@@ -0,0 +1,280 @@
+package org.schabi.newpipe.player.playback;
+
+import static org.schabi.newpipe.player.playqueue.PlayQueue.DEBUG;
+import static org.schabi.newpipe.util.ListHelper.getNonTorrentStreams;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.CacheWriter;
+
+import org.schabi.newpipe.extractor.ServiceList;
+import org.schabi.newpipe.extractor.services.youtube.ItagItem;
+import org.schabi.newpipe.extractor.stream.AudioStream;
+import org.schabi.newpipe.extractor.stream.DeliveryMethod;
+import org.schabi.newpipe.extractor.stream.Stream;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+import org.schabi.newpipe.extractor.stream.VideoStream;
+import org.schabi.newpipe.player.helper.PlayerDataSource;
+import org.schabi.newpipe.player.helper.PlayerHelper;
+import org.schabi.newpipe.player.mediaitem.MediaItemTag;
+import org.schabi.newpipe.player.playqueue.PlayQueueItem;
+import org.schabi.newpipe.player.resolver.PlaybackResolver;
+import org.schabi.newpipe.util.ListHelper;
+import org.schabi.newpipe.util.StreamTypeUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Decides how many upcoming {@link PlayQueueItem}s the {@link MediaSourceManager} resolves ahead
+ * of time, and warms up the player cache with the first seconds of their media, so that the
+ * transition between two items does not have to wait for the network.
+ * <p>
+ * Only streams delivered through a single URL are warmed up, since the position of their first
+ * seconds is known without preparing the whole media source. Nothing is downloaded on metered
+ * networks.
+ * </p>
+ * <p>
+ * In gapless audio mode at least two items are resolved ahead and more seconds of their audio
+ * are cached, so that the next item is already buffered when the current one ends and the
+ * player can go on without a pause.
+ * </p>
+ * <p>
+ * Not thread safe, all methods must be called from the main thread.
+ * </p>
+ */
+public final class MediaPrefetcher {
+    private static final String TAG = MediaPrefetcher.class.getSimpleName();
+
+    /**
+     * Seconds of media written into the cache for every stream.
+     */
+    private static final int PREFETCH_SECONDS = 10;
+
+    /**
+     * Seconds of audio written into the cache for every stream in gapless audio mode.
+     */
+    private static final int GAPLESS_AUDIO_PREFETCH_SECONDS = 30;
+
+    /**
+     * Minimum size of the window in gapless audio mode.
+     */
+    private static final int GAPLESS_AUDIO_WINDOW_SIZE = 2;
+
+    /**
+     * Amount of bytes written into the cache for streams whose bitrate is unknown.
+     */
+    private static final long UNKNOWN_BITRATE_PREFETCH_BYTES = 1024 * 1024L;
+
+    /**
+     * Upper bound of the bytes written into the cache for a single stream.
+     */
+    private static final long MAXIMUM_PREFETCH_BYTES = 8 * 1024 * 1024L;
+
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final PlayerDataSource dataSource;
+
+    /**
+     * The prefetch tasks of the items in the window, completed tasks are kept so that the same
+     * item is not downloaded twice.
+     */
+    @NonNull
+    private final Map<PlayQueueItem, Disposable> tasks = new HashMap<>();
+
+    private boolean gaplessAudio = false;
+
+    public MediaPrefetcher(@NonNull final Context context,
+                           @NonNull final PlayerDataSource dataSource) {
+        this.context = context;
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param gaplessAudio whether only audio is played and the items should be played without a
+     *                     pause between them, see {@link PlayerHelper#isGaplessAudioEnabled}
+     */
+    public void setGaplessAudio(final boolean gaplessAudio) {
+        this.gaplessAudio = gaplessAudio;
+    }
+
+    /**
+     * Determines how many items after the current one should be resolved ahead of time. On
+     * metered networks only the next item is resolved, regardless of the user preference.
+     *
+     * @return the size of the window after the current item, at least 1
+     */
+    public int getWindowSize() {
+        if (ListHelper.isMeteredNetwork(context)) {
+            return 1;
+        }
+        final int windowSize = Math.max(1, PlayerHelper.getPrefetchWindowSize(context));
+        return gaplessAudio ? Math.max(GAPLESS_AUDIO_WINDOW_SIZE, windowSize) : windowSize;
+    }
+
+    /**
+     * Starts writing the first seconds of the streams selected for the given item into the
+     * player cache, in background. Does nothing if the item was already prefetched.
+     *
+     * @param item the upcoming item
+     * @param tag  the metadata of the media source resolved for the item
+     */
+    public void prefetch(@NonNull final PlayQueueItem item, @NonNull final MediaItemTag tag) {
+        if (tasks.containsKey(item) || ListHelper.isMeteredNetwork(context)) {
+            return;
+        }
+
+        final StreamInfo info = tag.getMaybeStreamInfo().orElse(null);
+        if (info == null || StreamTypeUtil.isLiveStream(info.getStreamType())) {
+            return;
+        }
+
+        final List<Completable> writers = new ArrayList<>();
+        for (final Stream stream : getSelectedStreams(tag, info)) {
+            final Completable writer = getCacheWriter(info, stream);
+            if (writer != null) {
+                writers.add(writer);
+            }
+        }
+        if (writers.isEmpty()) {
+            return;
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "Prefetching " + writers.size() + " streams of [" + item.getTitle() + "]");
+        }
+
+        tasks.put(item, Completable.merge(writers)
+                .subscribeOn(Schedulers.io())
+                .subscribe(() -> {
+                    if (DEBUG) {
+                        Log.d(TAG, "Prefetched [" + item.getTitle() + "]");
+                    }
+                }, error -> Log.w(TAG, "Unable to prefetch [" + item.getTitle() + "]", error)));
+    }
+
+    /**
+     * Cancels the prefetching of all items not included in the given ones, e.g. because the
+     * queue was reordered or shuffled.
+     *
+     * @param items the items which are still in the window
+     */
+    public void retain(@NonNull final Collection<PlayQueueItem> items) {
+        final Iterator<Map.Entry<PlayQueueItem, Disposable>> iterator =
+                tasks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<PlayQueueItem, Disposable> entry = iterator.next();
+            if (!items.contains(entry.getKey())) {
+                entry.getValue().dispose();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancels the prefetching of all items.
+     */
+    public void clear() {
+        for (final Disposable task : tasks.values()) {
+            task.dispose();
+        }
+        tasks.clear();
+    }
+
+    /**
+     * Picks the same streams the playback resolvers pick: the selected video stream and, if
+     * there is no video or it has no audio, the default audio stream.
+     */
+    @NonNull
+    private List<Stream> getSelectedStreams(@NonNull final MediaItemTag tag,
+                                            @NonNull final StreamInfo info) {
+        final List<Stream> streams = new ArrayList<>();
+
+        @Nullable final VideoStream video = tag.getMaybeQuality()
+                .map(MediaItemTag.Quality::getSelectedVideoStream)
+                .orElse(null);
+        if (video != null) {
+            streams.add(video);
+        }
+
+        if (video == null || video.isVideoOnly()) {
+            final List<AudioStream> audioStreams = getNonTorrentStreams(info.getAudioStreams());
+            final int index = ListHelper.getDefaultAudioFormat(context, audioStreams);
+            if (index >= 0 && index < audioStreams.size()) {
+                streams.add(audioStreams.get(index));
+            }
+        }
+
+        return streams;
+    }
+
+    @Nullable
+    private Completable getCacheWriter(@NonNull final StreamInfo info,
+                                       @NonNull final Stream stream) {
+        if (!stream.isUrl() || stream.getDeliveryMethod() != DeliveryMethod.PROGRESSIVE_HTTP) {
+            return null;
+        }
+
+        final boolean youtube = info.getService() == ServiceList.YouTube;
+        // YouTube audio and video-only streams are played through generated DASH manifests,
+        // which are loaded with a different data source
+        final boolean dash = youtube && (stream instanceof AudioStream
+                || (stream instanceof VideoStream && ((VideoStream) stream).isVideoOnly()));
+
+        // the same key is used by all media sources, see PlayerCache#buildCacheKey()
+        final String cacheKey;
+        if (stream instanceof VideoStream) {
+            cacheKey = PlaybackResolver.cacheKeyOf(info, (VideoStream) stream);
+        } else if (stream instanceof AudioStream) {
+            cacheKey = PlaybackResolver.cacheKeyOf(info, (AudioStream) stream);
+        } else {
+            return null;
+        }
+
+        final DataSpec dataSpec = new DataSpec.Builder()
+                .setUri(Uri.parse(stream.getContent()))
+                .setKey(cacheKey)
+                .setLength(getPrefetchLength(stream))
+                .build();
+
+        return Completable.defer(() -> {
+            final CacheWriter writer = new CacheWriter(
+                    dataSource.createPrefetchDataSource(youtube, dash), dataSpec, null, null);
+            return Completable.fromAction(writer::cache).doOnDispose(writer::cancel);
+        });
+    }
+
+    private long getPrefetchLength(@NonNull final Stream stream) {
+        // bits per second
+        long bitrate = 0;
+        final ItagItem itagItem = stream.getItagItem();
+        if (itagItem != null) {
+            bitrate = itagItem.getBitrate();
+        }
+        if (bitrate <= 0 && stream instanceof AudioStream) {
+            bitrate = ((AudioStream) stream).getAverageBitrate() * 1000L;
+        }
+
+        if (bitrate <= 0) {
+            return UNKNOWN_BITRATE_PREFETCH_BYTES;
+        }
+        final int seconds = gaplessAudio && stream instanceof AudioStream
+                ? GAPLESS_AUDIO_PREFETCH_SECONDS : PREFETCH_SECONDS;
+        return Math.min(bitrate / 8 * seconds, MAXIMUM_PREFETCH_BYTES);
+    }
+}
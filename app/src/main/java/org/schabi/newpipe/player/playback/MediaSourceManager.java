@@ -5,6 +5,7 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.collection.ArraySet;
 
 import com.google.android.exoplayer2.source.MediaSource;
@@ -21,6 +22,7 @@ import org.schabi.newpipe.player.playqueue.PlayQueue;
 import org.schabi.newpipe.player.playqueue.PlayQueueItem;
 import org.schabi.newpipe.player.playqueue.events.MoveEvent;
 import org.schabi.newpipe.player.playqueue.events.PlayQueueEvent;
+import org.schabi.newpipe.player.playqueue.events.PlayQueueEventType;
 import org.schabi.newpipe.player.playqueue.events.RemoveEvent;
 import org.schabi.newpipe.player.playqueue.events.ReorderEvent;
 import org.schabi.newpipe.util.ServiceHelper;
@@ -49,31 +51,69 @@ public class MediaSourceManager {
     private final String TAG = "MediaSourceManager@" + hashCode();
 
     /**
-     * Determines how many streams before and after the current stream should be loaded.
-     * The default value (1) ensures seamless playback under typical network settings.
+     * Determines how many streams before the current stream should be loaded, and the minimum
+     * amount of streams after it. The default value (1) ensures seamless playback under typical
+     * network settings.
      * <p>
      * The streams after the current will be loaded into the playlist timeline while the
      * streams before will only be cached for future usage.
      * </p>
      *
      * @see #onMediaSourceReceived(PlayQueueItem, ManagedMediaSource)
+     * @see #prefetchWindowSize
      */
     private static final int WINDOW_SIZE = 1;
 
     /**
-     * Determines the maximum number of disposables allowed in the {@link #loaderReactor}.
-     * Once exceeded, new calls to {@link #loadImmediate()} will evict all disposables in the
-     * {@link #loaderReactor} in order to load a new set of items.
+     * Determines how many streams after the current stream should be loaded, as decided by the
+     * {@link #prefetcher} when the last load order was processed.
+     */
+    private int prefetchWindowSize = WINDOW_SIZE;
+
+    /**
+     * Determines how many items after the current one are added to the playlist timeline, as
+     * placeholders until they are loaded.
+     * <p>
+     * The playlist only contains a window of the queue around the current index, so that big
+     * queues (e.g. channels and playlists with thousands of streams) do not need one
+     * {@link ManagedMediaSource} per item in the timeline, and appending to them does not update
+     * the timeline. The window is moved along with the current index, see
+     * {@link #playlistStart}.
+     * </p>
      *
-     * @see #loadImmediate()
-     * @see #maybeLoadItem(PlayQueueItem)
+     * @see #populateSources()
      */
-    private static final int MAXIMUM_LOADER_SIZE = WINDOW_SIZE * 2 + 1;
+    @VisibleForTesting
+    static final int PLAYLIST_AHEAD_SIZE = 50;
+
+    /**
+     * Determines how many items before the current one are kept in the playlist timeline, so
+     * that going back to them does not need to change the timeline.
+     * <p>
+     * The items further behind are only removed once there are twice as many, to update the
+     * timeline once every few items.
+     * </p>
+     *
+     * @see #trimSources()
+     */
+    @VisibleForTesting
+    static final int PLAYLIST_BEHIND_SIZE = 10;
+
+    /**
+     * Determines how many items may be left after the current one before the next part of an
+     * incomplete queue (e.g. the next page of a channel or playlist) is fetched, so that the
+     * playback does not stall at the end of every page.
+     *
+     * @see PlayQueue#fetchAhead(int)
+     */
+    private final int queueLookAheadSize;
 
     @NonNull
     private final PlaybackListener playbackListener;
     @NonNull
     private final PlayQueue playQueue;
+    @NonNull
+    private final MediaPrefetcher prefetcher;
 
     /**
      * Determines the gap time between the playback position and the playback duration which
@@ -124,20 +164,31 @@ public class MediaSourceManager {
     @NonNull
     private ManagedMediaSourcePlaylist playlist;
 
+    /**
+     * The index in the play queue of the first item of the {@link #playlist}. The item at the
+     * index {@code i} of the playlist is the one at the index {@code playlistStart + i} of the
+     * queue.
+     */
+    private int playlistStart = 0;
+
     private final Handler removeMediaSourceHandler = new Handler();
 
     public MediaSourceManager(@NonNull final PlaybackListener listener,
-                              @NonNull final PlayQueue playQueue) {
-        this(listener, playQueue, 400L,
+                              @NonNull final PlayQueue playQueue,
+                              @NonNull final MediaPrefetcher prefetcher) {
+        this(listener, playQueue, prefetcher, 400L,
                 /*playbackNearEndGapMillis=*/TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS),
-                /*progressUpdateIntervalMillis*/TimeUnit.MILLISECONDS.convert(2, TimeUnit.SECONDS));
+                /*progressUpdateIntervalMillis*/TimeUnit.MILLISECONDS.convert(2, TimeUnit.SECONDS),
+                /*queueLookAheadSize=*/10);
     }
 
     private MediaSourceManager(@NonNull final PlaybackListener listener,
                                @NonNull final PlayQueue playQueue,
+                               @NonNull final MediaPrefetcher prefetcher,
                                final long loadDebounceMillis,
                                final long playbackNearEndGapMillis,
-                               final long progressUpdateIntervalMillis) {
+                               final long progressUpdateIntervalMillis,
+                               final int queueLookAheadSize) {
         if (playQueue.getBroadcastReceiver() == null) {
             throw new IllegalArgumentException("Play Queue has not been initialized.");
         }
@@ -149,12 +200,14 @@ public class MediaSourceManager {
 
         this.playbackListener = listener;
         this.playQueue = playQueue;
+        this.prefetcher = prefetcher;
 
         this.playbackNearEndGapMillis = playbackNearEndGapMillis;
         this.progressUpdateIntervalMillis = progressUpdateIntervalMillis;
         this.nearEndIntervalSignal = getEdgeIntervalSignal();
 
         this.loadDebounceMillis = loadDebounceMillis;
+        this.queueLookAheadSize = queueLookAheadSize;
         this.debouncedSignal = PublishSubject.create();
         this.debouncedLoader = getDebouncedLoader();
 
@@ -189,6 +242,17 @@ public class MediaSourceManager {
 
         playQueueReactor.cancel();
         loaderReactor.dispose();
+        prefetcher.clear();
+    }
+
+    /**
+     * The timeline of the player only contains a window of the play queue, so its indices have
+     * to be offset by this value to get the indices of the queue.
+     *
+     * @return the index in the play queue of the first item of the playlist timeline
+     */
+    public int getPlaylistStart() {
+        return playlistStart;
     }
 
     /*//////////////////////////////////////////////////////////////////////////
@@ -230,32 +294,36 @@ public class MediaSourceManager {
             case INIT:
             case ERROR:
                 maybeBlock();
-            case APPEND:
-                populateSources();
-                break;
-            case SELECT:
-                maybeRenewCurrentIndex();
                 break;
             case REMOVE:
                 final RemoveEvent removeEvent = (RemoveEvent) event;
-                playlist.remove(removeEvent.getRemoveIndex());
+                removeSource(removeEvent.getRemoveIndex());
                 break;
             case MOVE:
                 final MoveEvent moveEvent = (MoveEvent) event;
-                playlist.move(moveEvent.getFromIndex(), moveEvent.getToIndex());
+                moveSource(moveEvent.getFromIndex(), moveEvent.getToIndex());
                 break;
             case REORDER:
-                // Need to move to ensure the playing index from play queue matches that of
-                // the source timeline, and then window correction can take care of the rest
+                // Need to shift the playlist to ensure the playing index from play queue matches
+                // that of the source timeline, and then window correction can take care of the
+                // rest
                 final ReorderEvent reorderEvent = (ReorderEvent) event;
-                playlist.move(reorderEvent.getFromSelectedIndex(),
+                reorderSources(reorderEvent.getFromSelectedIndex(),
                         reorderEvent.getToSelectedIndex());
                 break;
+            case APPEND:
+            case SELECT:
             case RECOVERY:
             default:
                 break;
         }
 
+        // Keep the items around the (possibly new) current index in the playlist
+        populateSources();
+        if (event.type() == PlayQueueEventType.SELECT) {
+            maybeRenewCurrentIndex();
+        }
+
         // Loading and Syncing
         switch (event.type()) {
             case INIT: case REORDER: case ERROR: case SELECT:
@@ -276,6 +344,8 @@ public class MediaSourceManager {
         if (!isPlayQueueReady()) {
             maybeBlock();
             playQueue.fetch();
+        } else {
+            playQueue.fetchAhead(queueLookAheadSize);
         }
         playQueueReactor.request(1);
     }
@@ -290,11 +360,12 @@ public class MediaSourceManager {
     }
 
     private boolean isPlaybackReady() {
-        if (playlist.size() != playQueue.size()) {
+        if (!isPlaylistPopulated(playlistStart, playlist.size(), playQueue.getIndex(),
+                getPlaylistEnd())) {
             return false;
         }
 
-        final ManagedMediaSource mediaSource = playlist.get(playQueue.getIndex());
+        final ManagedMediaSource mediaSource = getSource(playQueue.getIndex());
         final PlayQueueItem playQueueItem = playQueue.getItem();
         if (mediaSource == null || playQueueItem == null) {
             return false;
@@ -353,6 +424,8 @@ public class MediaSourceManager {
         if (isPlayQueueReady() && isPlaybackReady()) {
             final boolean isBlockReleased = maybeUnblock();
             maybeSync(isBlockReleased);
+            // only after the player has been synchronized, see trimSources()
+            trimSources();
         }
     }
 
@@ -383,11 +456,18 @@ public class MediaSourceManager {
         if (DEBUG) {
             Log.d(TAG, "MediaSource - loadImmediate() called");
         }
-        final ItemsToLoad itemsToLoad = getItemsToLoad(playQueue);
+        // The window may change along with the network type
+        prefetchWindowSize = prefetcher.getWindowSize();
+
+        final ItemsToLoad itemsToLoad = getItemsToLoad(playQueue, prefetchWindowSize);
         if (itemsToLoad == null) {
             return;
         }
 
+        // Cancel the prefetching of items moved out of the window (e.g. after a shuffle) and of
+        // the current one, which is being loaded by the player itself
+        prefetcher.retain(itemsToLoad.neighbors);
+
         // Evict the previous items being loaded to free up memory, before start loading new ones
         maybeClearLoaders();
 
@@ -401,7 +481,7 @@ public class MediaSourceManager {
         if (DEBUG) {
             Log.d(TAG, "maybeLoadItem() called.");
         }
-        if (playQueue.indexOf(item) >= playlist.size()) {
+        if (getSource(playQueue.indexOf(item)) == null) {
             return;
         }
 
@@ -464,8 +544,14 @@ public class MediaSourceManager {
                 Log.d(TAG, "MediaSource - Updating index=[" + itemIndex + "] with "
                         + "title=[" + item.getTitle() + "] at url=[" + item.getUrl() + "]");
             }
-            playlist.update(itemIndex, mediaSource, removeMediaSourceHandler,
+            playlist.update(itemIndex - playlistStart, mediaSource, removeMediaSourceHandler,
                     this::maybeSynchronizePlayer);
+
+            // Warm up the cache of upcoming items, so that the transition does not stall
+            if (itemIndex > playQueue.getIndex() && mediaSource instanceof LoadedMediaSource) {
+                MediaItemTag.from(mediaSource.getMediaItem())
+                        .ifPresent(tag -> prefetcher.prefetch(item, tag));
+            }
         }
     }
 
@@ -486,7 +572,7 @@ public class MediaSourceManager {
      */
     private boolean isCorrectionNeeded(@NonNull final PlayQueueItem item) {
         final int index = playQueue.indexOf(item);
-        final ManagedMediaSource mediaSource = playlist.get(index);
+        final ManagedMediaSource mediaSource = getSource(index);
         return mediaSource != null && mediaSource.shouldBeReplacedWith(item,
                 index != playQueue.getIndex());
     }
@@ -505,7 +591,7 @@ public class MediaSourceManager {
     private void maybeRenewCurrentIndex() {
         final int currentIndex = playQueue.getIndex();
         final PlayQueueItem currentItem = playQueue.getItem();
-        final ManagedMediaSource currentSource = playlist.get(currentIndex);
+        final ManagedMediaSource currentSource = getSource(currentIndex);
         if (currentItem == null || currentSource == null) {
             return;
         }
@@ -519,15 +605,24 @@ public class MediaSourceManager {
             Log.d(TAG, "MediaSource - Reloading currently playing, "
                     + "index=[" + currentIndex + "], item=[" + currentItem.getTitle() + "]");
         }
-        playlist.invalidate(currentIndex, removeMediaSourceHandler, this::loadImmediate);
+        playlist.invalidate(currentIndex - playlistStart, removeMediaSourceHandler,
+                this::loadImmediate);
     }
 
+    /**
+     * Evicts all disposables in the {@link #loaderReactor} once they exceed the amount of items
+     * in the window, in order to load a new set of items.
+     *
+     * @see #loadImmediate()
+     * @see #maybeLoadItem(PlayQueueItem)
+     */
     private void maybeClearLoaders() {
         if (DEBUG) {
             Log.d(TAG, "MediaSource - maybeClearLoaders() called.");
         }
+        final int maximumLoaderSize = WINDOW_SIZE + prefetchWindowSize + 1;
         if (!loadingItems.contains(playQueue.getItem())
-                && loaderReactor.size() > MAXIMUM_LOADER_SIZE) {
+                && loaderReactor.size() > maximumLoaderSize) {
             loaderReactor.clear();
             loadingItems.clear();
         }
@@ -542,23 +637,191 @@ public class MediaSourceManager {
             Log.d(TAG, "resetSources() called.");
         }
         playlist = new ManagedMediaSourcePlaylist();
+        playlistStart = getInitialPlaylistStart(playQueue.getIndex());
     }
 
+    /**
+     * @param index an index of the play queue
+     * @return the {@link ManagedMediaSource} of the playlist for the item at the given index, or
+     * {@code null} if the item is not in the playlist
+     */
+    @Nullable
+    private ManagedMediaSource getSource(final int index) {
+        return playlist.get(index - playlistStart);
+    }
+
+    /**
+     * Adds and removes placeholders at both ends of the playlist, so that it contains the
+     * items of the queue from a few items before the current one up to
+     * {@link #PLAYLIST_AHEAD_SIZE} items after it, with a single timeline update at each end.
+     * <p>
+     * If the current index is far from the playlist, e.g. after selecting another item of a big
+     * queue or after repeating it from the beginning, the playback is blocked and the playlist
+     * is rebuilt around the current index instead of filling the gap.
+     * </p>
+     */
     private void populateSources() {
-        if (DEBUG) {
-            Log.d(TAG, "populateSources() called.");
+        final int index = playQueue.getIndex();
+        if (isFarFromPlaylist(playlistStart, playlist.size(), index)) {
+            if (DEBUG) {
+                Log.d(TAG, "populateSources() called, rebuilding playlist at index=["
+                        + index + "].");
+            }
+            if (isBlocked.get()) {
+                resetSources();
+            } else {
+                maybeBlock();
+            }
+        }
+
+        if (index < playlistStart) {
+            final int start = getInitialPlaylistStart(index);
+            playlist.expand(0, playlistStart - start);
+            playlistStart = start;
+        }
+
+        final int size = Math.max(0, getPlaylistEnd() - playlistStart);
+        if (DEBUG && size != playlist.size()) {
+            Log.d(TAG, "populateSources() called, resizing playlist from "
+                    + playlist.size() + " to " + size + " items.");
+        }
+        if (size > playlist.size()) {
+            playlist.expand(size - playlist.size());
+        } else {
+            playlist.removeRange(size, playlist.size());
         }
-        while (playlist.size() < playQueue.size()) {
-            playlist.expand();
+    }
+
+    /**
+     * Removes the items far behind the current one from the beginning of the playlist.
+     * <p>
+     * Removing them shifts the indices of the timeline of the player, which are only updated
+     * asynchronously. So this must be done after synchronizing the player with the current item,
+     * for it not to seek using indices of the previous timeline.
+     * </p>
+     */
+    private void trimSources() {
+        final int start = getTrimmedPlaylistStart(playlistStart, playQueue.getIndex());
+        if (start > playlistStart) {
+            playlist.removeRange(0, start - playlistStart);
+            playlistStart = start;
         }
     }
 
+    private void removeSource(final int index) {
+        if (index < playlistStart) {
+            playlistStart--;
+        } else {
+            playlist.remove(index - playlistStart);
+        }
+    }
+
+    private void moveSource(final int from, final int to) {
+        if (from < playlistStart && to < playlistStart) {
+            return;
+        }
+
+        if (from < playlistStart) {
+            // the items of the playlist are shifted back by one
+            playlistStart--;
+            playlist.expand(to - playlistStart, 1);
+        } else if (to < playlistStart) {
+            // the items of the playlist are shifted forward by one
+            playlist.remove(from - playlistStart);
+            playlistStart++;
+        } else {
+            playlist.move(from - playlistStart, to - playlistStart);
+        }
+    }
+
+    /**
+     * Keeps the current item at the same index of the playlist, so that its playback is not
+     * interrupted, by shifting the start of the playlist. If the playlist would start before the
+     * queue, the items before the current one are removed instead.
+     *
+     * @param fromSelectedIndex the index of the current item before the reorder
+     * @param toSelectedIndex   the index of the current item after the reorder
+     */
+    private void reorderSources(final int fromSelectedIndex, final int toSelectedIndex) {
+        final int start = toSelectedIndex - (fromSelectedIndex - playlistStart);
+        if (start < 0) {
+            playlist.removeRange(0, -start);
+        }
+        playlistStart = Math.max(0, start);
+    }
+
+    private int getPlaylistEnd() {
+        return getPlaylistEnd(playQueue.size(), playQueue.getIndex(),
+                WINDOW_SIZE + prefetchWindowSize);
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Playlist Window
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * @param index the current index of the queue
+     * @return the index in the queue of the first item of a playlist built around the given index
+     */
+    @VisibleForTesting
+    static int getInitialPlaylistStart(final int index) {
+        return Math.max(0, index - PLAYLIST_BEHIND_SIZE);
+    }
+
+    /**
+     * @param start the index in the queue of the first item of the playlist
+     * @param index the current index of the queue
+     * @return the index in the queue of the first item to keep in the playlist, which is after
+     * {@code start} if too many items behind the current one are in the playlist
+     */
+    @VisibleForTesting
+    static int getTrimmedPlaylistStart(final int start, final int index) {
+        return index - start > 2 * PLAYLIST_BEHIND_SIZE ? index - PLAYLIST_BEHIND_SIZE : start;
+    }
+
+    /**
+     * @param queueSize    the size of the queue
+     * @param index        the current index of the queue
+     * @param minAheadSize the minimum amount of items after the current one to include
+     * @return the index in the queue after the last item of the playlist (exclusive)
+     */
+    @VisibleForTesting
+    static int getPlaylistEnd(final int queueSize, final int index, final int minAheadSize) {
+        return Math.min(queueSize, index + Math.max(PLAYLIST_AHEAD_SIZE, minAheadSize) + 1);
+    }
+
+    /**
+     * @param start the index in the queue of the first item of the playlist
+     * @param size  the size of the playlist
+     * @param index the current index of the queue
+     * @return whether the playlist is too far from the given index to be extended up to it
+     */
+    @VisibleForTesting
+    static boolean isFarFromPlaylist(final int start, final int size, final int index) {
+        return index < start - PLAYLIST_BEHIND_SIZE || index > start + size + PLAYLIST_BEHIND_SIZE;
+    }
+
+    /**
+     * @param start the index in the queue of the first item of the playlist
+     * @param size  the size of the playlist
+     * @param index the current index of the queue
+     * @param end   the index in the queue after the last item the playlist has to contain
+     * @return whether the playlist contains the current item and all the items after it up to
+     * {@code end}, and not more
+     */
+    @VisibleForTesting
+    static boolean isPlaylistPopulated(final int start, final int size, final int index,
+                                       final int end) {
+        return start <= index && start + size == end;
+    }
+
     /*//////////////////////////////////////////////////////////////////////////
     // Manager Helpers
     //////////////////////////////////////////////////////////////////////////*/
 
     @Nullable
-    private static ItemsToLoad getItemsToLoad(@NonNull final PlayQueue playQueue) {
+    private static ItemsToLoad getItemsToLoad(@NonNull final PlayQueue playQueue,
+                                              final int prefetchWindowSize) {
         // The current item has higher priority
         final int currentIndex = playQueue.getIndex();
         final PlayQueueItem currentItem = playQueue.getItem(currentIndex);
@@ -570,7 +833,7 @@ public class MediaSourceManager {
         // Although timeline is not updated prior to the current index, these sources are still
         // loaded into the cache for faster retrieval at a potentially later time.
         final int leftBound = Math.max(0, currentIndex - MediaSourceManager.WINDOW_SIZE);
-        final int rightLimit = currentIndex + MediaSourceManager.WINDOW_SIZE + 1;
+        final int rightLimit = currentIndex + prefetchWindowSize + 1;
         final int rightBound = Math.min(playQueue.size(), rightLimit);
         final Set<PlayQueueItem> neighbors = new ArraySet<>(
                 playQueue.getStreams().subList(leftBound, rightBound));
@@ -12,8 +12,10 @@ import org.schabi.newpipe.extractor.stream.StreamInfoItem;
 import java.util.List;
 import java.util.stream.Collectors;
 
-import io.reactivex.rxjava3.core.SingleObserver;
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
 
 abstract class AbstractInfoPlayQueue<T extends ListInfo<StreamInfoItem>>
         extends PlayQueue {
@@ -45,6 +47,26 @@ abstract class AbstractInfoPlayQueue<T extends ListInfo<StreamInfoItem>>
         this.isComplete = !isInitial && !Page.isValid(nextPage);
     }
 
+    /**
+     * Creates a queue with the state of an encoded one, see {@link PlayQueueCodec}.
+     */
+    AbstractInfoPlayQueue(final int serviceId,
+                          final String url,
+                          final Page nextPage,
+                          final List<PlayQueueItem> items,
+                          final int index,
+                          final boolean isInitial,
+                          final boolean isComplete) {
+        super(index, items);
+
+        this.baseUrl = url;
+        this.nextPage = nextPage;
+        this.serviceId = serviceId;
+
+        this.isInitial = isInitial;
+        this.isComplete = isComplete;
+    }
+
     protected abstract String getTag();
 
     @Override
@@ -52,74 +74,71 @@ abstract class AbstractInfoPlayQueue<T extends ListInfo<StreamInfoItem>>
         return isComplete;
     }
 
-    SingleObserver<T> getHeadListObserver() {
-        return new SingleObserver<>() {
-            @Override
-            public void onSubscribe(@NonNull final Disposable d) {
-                if (isComplete || !isInitial || (fetchReactor != null
-                        && !fetchReactor.isDisposed())) {
-                    d.dispose();
-                } else {
-                    fetchReactor = d;
-                }
-            }
-
-            @Override
-            public void onSuccess(@NonNull final T result) {
-                isInitial = false;
-                if (!result.hasNextPage()) {
-                    isComplete = true;
-                }
-                nextPage = result.getNextPage();
-
-                append(extractListItems(result.getRelatedItems()));
-
-                fetchReactor.dispose();
-                fetchReactor = null;
-            }
-
-            @Override
-            public void onError(@NonNull final Throwable e) {
-                Log.e(getTag(), "Error fetching more playlist, marking playlist as complete.", e);
-                isComplete = true;
-                notifyChange();
-            }
-        };
+    /**
+     * @return the request of the first page of the list, i.e. its info
+     */
+    abstract Single<T> loadHeadList();
+
+    /**
+     * @param page a page of the list after the first one
+     * @return the request of the page
+     */
+    abstract Single<ListExtractor.InfoItemsPage<StreamInfoItem>> loadPage(Page page);
+
+    /**
+     * Loads the next page of the queue in background, does nothing if the queue is complete or
+     * the page is already being loaded.
+     * <p>
+     * The pages after the first one are loaded through {@link InfoItemsPageCache}, which shares
+     * them with other queues of the same list (e.g. when it is played again).
+     * </p>
+     */
+    @Override
+    public void fetch() {
+        if (isComplete || (fetchReactor != null && !fetchReactor.isDisposed())) {
+            return;
+        }
+
+        if (isInitial) {
+            fetchReactor = loadHeadList()
+                    .subscribeOn(Schedulers.io())
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(this::onHeadListLoaded, this::onFetchError);
+        } else {
+            fetchReactor = InfoItemsPageCache.load(serviceId, baseUrl, nextPage,
+                            loadPage(nextPage))
+                    .subscribeOn(Schedulers.io())
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(this::onPageLoaded, this::onFetchError);
+        }
+    }
+
+    private void onHeadListLoaded(@NonNull final T result) {
+        isInitial = false;
+        if (!result.hasNextPage()) {
+            isComplete = true;
+        }
+        nextPage = result.getNextPage();
+        fetchReactor = null;
+
+        append(extractListItems(result.getRelatedItems()));
     }
 
-    SingleObserver<ListExtractor.InfoItemsPage<StreamInfoItem>> getNextPageObserver() {
-        return new SingleObserver<>() {
-            @Override
-            public void onSubscribe(@NonNull final Disposable d) {
-                if (isComplete || isInitial || (fetchReactor != null
-                        && !fetchReactor.isDisposed())) {
-                    d.dispose();
-                } else {
-                    fetchReactor = d;
-                }
-            }
-
-            @Override
-            public void onSuccess(
-                    @NonNull final ListExtractor.InfoItemsPage<StreamInfoItem> result) {
-                if (!result.hasNextPage()) {
-                    isComplete = true;
-                }
-                nextPage = result.getNextPage();
-
-                append(extractListItems(result.getItems()));
-
-                fetchReactor.dispose();
-                fetchReactor = null;
-            }
-
-            @Override
-            public void onError(@NonNull final Throwable e) {
-                Log.e(getTag(), "Error fetching more playlist, marking playlist as complete.", e);
-                isComplete = true;
-                notifyChange();
-            }
-        };
+    private void onPageLoaded(@NonNull final ListExtractor.InfoItemsPage<StreamInfoItem> result) {
+        if (!result.hasNextPage()) {
+            isComplete = true;
+        }
+        nextPage = result.getNextPage();
+        fetchReactor = null;
+
+        append(extractListItems(result.getItems()));
+    }
+
+    private void onFetchError(@NonNull final Throwable e) {
+        Log.e(getTag(), "Error fetching more playlist, marking playlist as complete.", e);
+        isComplete = true;
+        fetchReactor = null;
+        notifyChange();
     }
 
     @Override
@@ -1,6 +1,7 @@
 package org.schabi.newpipe.player.playqueue;
 
 
+import org.schabi.newpipe.extractor.ListExtractor;
 import org.schabi.newpipe.extractor.Page;
 import org.schabi.newpipe.extractor.channel.ChannelInfo;
 import org.schabi.newpipe.extractor.stream.StreamInfoItem;
@@ -8,8 +9,7 @@ import org.schabi.newpipe.util.ExtractorHelper;
 
 import java.util.List;
 
-import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
-import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.core.Single;
 
 public final class ChannelPlayQueue extends AbstractInfoPlayQueue<ChannelInfo> {
 
@@ -25,23 +25,28 @@ public final class ChannelPlayQueue extends AbstractInfoPlayQueue<ChannelInfo> {
         super(serviceId, url, nextPage, streams, index);
     }
 
+    ChannelPlayQueue(final int serviceId,
+                     final String url,
+                     final Page nextPage,
+                     final List<PlayQueueItem> items,
+                     final int index,
+                     final boolean isInitial,
+                     final boolean isComplete) {
+        super(serviceId, url, nextPage, items, index, isInitial, isComplete);
+    }
+
     @Override
     protected String getTag() {
         return "ChannelPlayQueue@" + Integer.toHexString(hashCode());
     }
 
     @Override
-    public void fetch() {
-        if (this.isInitial) {
-            ExtractorHelper.getChannelInfo(this.serviceId, this.baseUrl, false)
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(getHeadListObserver());
-        } else {
-            ExtractorHelper.getMoreChannelItems(this.serviceId, this.baseUrl, this.nextPage)
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(getNextPageObserver());
-        }
+    Single<ChannelInfo> loadHeadList() {
+        return ExtractorHelper.getChannelInfo(this.serviceId, this.baseUrl, false);
+    }
+
+    @Override
+    Single<ListExtractor.InfoItemsPage<StreamInfoItem>> loadPage(final Page page) {
+        return ExtractorHelper.getMoreChannelItems(this.serviceId, this.baseUrl, page);
     }
 }
@@ -0,0 +1,105 @@
+package org.schabi.newpipe.player.playqueue;
+
+import androidx.annotation.NonNull;
+import androidx.collection.LruCache;
+
+import org.schabi.newpipe.extractor.ListExtractor.InfoItemsPage;
+import org.schabi.newpipe.extractor.Page;
+import org.schabi.newpipe.extractor.stream.StreamInfoItem;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * Short-lived cache of the pages of channels and playlists loaded by play queues.
+ * <p>
+ * Requests of a page which is already being loaded share the pending request instead of
+ * loading the page again, and loaded pages are kept for {@link #EXPIRATION_MILLIS}, so that
+ * queues of the same list (e.g. when a playlist is played again) do not need to load them.
+ * </p>
+ */
+final class InfoItemsPageCache {
+    private static final long EXPIRATION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_PAGES_ON_CACHE = 30;
+
+    private static final LruCache<String, CacheData> LRU_CACHE =
+            new LruCache<>(MAX_PAGES_ON_CACHE);
+    // guarded by LRU_CACHE
+    private static final Map<String, Single<InfoItemsPage<StreamInfoItem>>> PENDING_REQUESTS =
+            new HashMap<>();
+
+    private InfoItemsPageCache() {
+    }
+
+    /**
+     * @param serviceId the service of the list
+     * @param url       the url of the list
+     * @param page      the page to load
+     * @param request   the request loading the page, only subscribed to if the page is neither
+     *                  cached nor being loaded
+     * @return the cached page, the pending request of the page, or the given request
+     */
+    @NonNull
+    static Single<InfoItemsPage<StreamInfoItem>> load(
+            final int serviceId,
+            @NonNull final String url,
+            @NonNull final Page page,
+            @NonNull final Single<InfoItemsPage<StreamInfoItem>> request) {
+        final String key = keyOf(serviceId, url, page);
+        return Single.defer(() -> {
+            synchronized (LRU_CACHE) {
+                final CacheData data = LRU_CACHE.get(key);
+                if (data != null && !data.isExpired()) {
+                    return Single.just(data.page);
+                }
+
+                Single<InfoItemsPage<StreamInfoItem>> pendingRequest = PENDING_REQUESTS.get(key);
+                if (pendingRequest == null) {
+                    pendingRequest = request
+                            .doOnSuccess(result -> {
+                                synchronized (LRU_CACHE) {
+                                    LRU_CACHE.put(key, new CacheData(result));
+                                }
+                            })
+                            .doFinally(() -> {
+                                synchronized (LRU_CACHE) {
+                                    PENDING_REQUESTS.remove(key);
+                                }
+                            })
+                            // the page is loaded once, even if the queues stop waiting for it
+                            .cache();
+                    PENDING_REQUESTS.put(key, pendingRequest);
+                }
+                return pendingRequest;
+            }
+        });
+    }
+
+    @NonNull
+    private static String keyOf(final int serviceId, @NonNull final String url,
+                                @NonNull final Page page) {
+        return serviceId + ":" + url + ":" + page.getUrl() + ":" + page.getId() + ":"
+                + Objects.hashCode(page.getIds()) + ":" + Objects.hashCode(page.getCookies())
+                + ":" + Arrays.hashCode(page.getBody());
+    }
+
+    private static final class CacheData {
+        private final long expireTimestamp;
+        @NonNull
+        private final InfoItemsPage<StreamInfoItem> page;
+
+        private CacheData(@NonNull final InfoItemsPage<StreamInfoItem> page) {
+            this.expireTimestamp = System.currentTimeMillis() + EXPIRATION_MILLIS;
+            this.page = page;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > expireTimestamp;
+        }
+    }
+}
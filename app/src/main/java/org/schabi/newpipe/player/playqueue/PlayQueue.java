@@ -14,9 +14,9 @@ import org.schabi.newpipe.player.playqueue.events.RemoveEvent;
 import org.schabi.newpipe.player.playqueue.events.ReorderEvent;
 import org.schabi.newpipe.player.playqueue.events.SelectEvent;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -33,7 +33,8 @@ import io.reactivex.rxjava3.subjects.BehaviorSubject;
  * message bus, providing all listeners with new updates to the play queue.
  * </p>
  * <p>
- * This class can be serialized for passing intents, but in order to start the
+ * This class can be serialized for saving state (in the compact form of {@link PlayQueueCodec})
+ * and handed off to a player through {@link PlayQueueHandOff}, but in order to start the
  * message bus, it must be initialized.
  * </p>
  */
@@ -43,15 +44,15 @@ public abstract class PlayQueue implements Serializable {
     private final AtomicInteger queueIndex;
     private final List<PlayQueueItem> history = new ArrayList<>();
 
-    private List<PlayQueueItem> backup;
-    private List<PlayQueueItem> streams;
+    @NonNull
+    private final PlayQueueOrder streams;
 
     private transient BehaviorSubject<PlayQueueEvent> eventBroadcast;
     private transient Flowable<PlayQueueEvent> broadcastReceiver;
     private transient boolean disposed = false;
 
     PlayQueue(final int index, final List<PlayQueueItem> startWith) {
-        streams = new ArrayList<>(startWith);
+        streams = new PlayQueueOrder(startWith);
 
         if (streams.size() > index) {
             history.add(streams.get(index));
@@ -107,6 +108,20 @@ public abstract class PlayQueue implements Serializable {
      */
     public abstract void fetch();
 
+    /**
+     * Loads partial queue in the background before the end of the queue is reached, i.e. when
+     * at most {@code lookAheadSize} items are left after the current one, so that playback does
+     * not wait for it. Does nothing if the queue is complete.
+     *
+     * @param lookAheadSize the number of items after the current one below which the queue is
+     *                      fetched
+     */
+    public void fetchAhead(final int lookAheadSize) {
+        if (!isComplete() && size() - getIndex() - 1 <= lookAheadSize) {
+            fetch();
+        }
+    }
+
     /*//////////////////////////////////////////////////////////////////////////
     // Readonly ops
     //////////////////////////////////////////////////////////////////////////*/
@@ -188,11 +203,14 @@ public abstract class PlayQueue implements Serializable {
     /**
      * Returns the index of the given item using referential equality.
      * May be null despite play queue contains identical item.
+     * <p>
+     * The items are looked up in an index, so this does not scan the queue.
+     * </p>
      *
      * @param item the item to find the index of
      * @return the index of the given item
      */
-    public int indexOf(@NonNull final PlayQueueItem item) {
+    public synchronized int indexOf(@NonNull final PlayQueueItem item) {
         return streams.indexOf(item);
     }
 
@@ -218,7 +236,7 @@ public abstract class PlayQueue implements Serializable {
      * @return whether the play queue is shuffled
      */
     public boolean isShuffled() {
-        return backup != null;
+        return streams.isShuffled();
     }
 
     /**
@@ -226,7 +244,7 @@ public abstract class PlayQueue implements Serializable {
      */
     @NonNull
     public List<PlayQueueItem> getStreams() {
-        return Collections.unmodifiableList(streams);
+        return streams.getPlayOrder();
     }
 
     /*//////////////////////////////////////////////////////////////////////////
@@ -266,8 +284,8 @@ public abstract class PlayQueue implements Serializable {
     /**
      * Appends the given {@link PlayQueueItem}s to the current play queue.
      * <p>
-     * If the play queue is shuffled, then append the items to the backup queue as is and
-     * append the shuffle items to the play queue.
+     * If the play queue is shuffled, then the items are appended to the original order as is
+     * and to the play order shuffled.
      * </p>
      * <p>
      * Will emit a {@link AppendEvent} on any given context.
@@ -278,15 +296,11 @@ public abstract class PlayQueue implements Serializable {
     public synchronized void append(@NonNull final List<PlayQueueItem> items) {
         final List<PlayQueueItem> itemList = new ArrayList<>(items);
 
-        if (isShuffled()) {
-            backup.addAll(itemList);
-            Collections.shuffle(itemList);
-        }
         if (!streams.isEmpty() && streams.get(streams.size() - 1).isAutoQueued()
                 && !itemList.get(0).isAutoQueued()) {
             streams.remove(streams.size() - 1);
         }
-        streams.addAll(itemList);
+        streams.append(itemList);
 
         broadcast(new AppendEvent(itemList.size()));
     }
@@ -341,10 +355,6 @@ public abstract class PlayQueue implements Serializable {
             queueIndex.set(0);
         }
 
-        if (backup != null) {
-            backup.remove(getItem(removeIndex));
-        }
-
         history.remove(streams.remove(removeIndex));
         if (streams.size() > queueIndex.get()) {
             history.add(streams.get(queueIndex.get()));
@@ -381,9 +391,8 @@ public abstract class PlayQueue implements Serializable {
             queueIndex.incrementAndGet();
         }
 
-        final PlayQueueItem playQueueItem = streams.remove(source);
-        playQueueItem.setAutoQueued(false);
-        streams.add(target, playQueueItem);
+        streams.get(source).setAutoQueued(false);
+        streams.move(source, target);
         broadcast(new MoveEvent(source, target));
     }
 
@@ -420,9 +429,9 @@ public abstract class PlayQueue implements Serializable {
     /**
      * Shuffles the current play queue
      * <p>
-     * This method first backs up the existing play queue and item being played. Then a newly
-     * shuffled play queue will be generated along with currently playing item placed at the
-     * beginning of the queue. This item will also be added to the history.
+     * This method switches the play queue to the shuffled mode, which keeps the original order.
+     * Then a newly shuffled play order will be generated along with currently playing item placed
+     * at the beginning of the queue. This item will also be added to the history.
      * </p>
      * <p>
      * Will emit a {@link ReorderEvent} if shuffled.
@@ -432,12 +441,9 @@ public abstract class PlayQueue implements Serializable {
      * top, so shuffling a size-2 list does nothing)
      */
     public synchronized void shuffle() {
-        // Create a backup if it doesn't already exist
-        // Note: The backup-list has to be created at all cost (even when size <= 2).
+        // Note: The shuffled mode has to be entered at all cost (even when size <= 2).
         // Otherwise it's not possible to enter shuffle-mode!
-        if (backup == null) {
-            backup = new ArrayList<>(streams);
-        }
+        streams.startShuffling();
         // Can't shuffle a list that's empty or only has one element
         if (size() <= 2) {
             return;
@@ -446,39 +452,34 @@ public abstract class PlayQueue implements Serializable {
         final int originalIndex = getIndex();
         final PlayQueueItem currentItem = getItem();
 
-        Collections.shuffle(streams);
-
-        // Move currentItem to the head of the queue
-        streams.remove(currentItem);
-        streams.add(0, currentItem);
+        // Shuffle with currentItem at the head of the queue
+        streams.shuffle(originalIndex);
         queueIndex.set(0);
 
-        history.add(currentItem);
+        if (currentItem != null) {
+            history.add(currentItem);
+        }
 
         broadcast(new ReorderEvent(originalIndex, 0));
     }
 
     /**
-     * Unshuffles the current play queue if a backup play queue exists.
+     * Unshuffles the current play queue if it is shuffled.
      * <p>
      * This method undoes shuffling and index will be set to the previously playing item if found,
      * otherwise, the index will reset to 0.
      * </p>
      * <p>
-     * Will emit a {@link ReorderEvent} if a backup exists.
+     * Will emit a {@link ReorderEvent} if shuffled.
      * </p>
      */
     public synchronized void unshuffle() {
-        if (backup == null) {
+        if (!streams.isShuffled()) {
             return;
         }
         final int originIndex = getIndex();
-        final PlayQueueItem current = getItem();
-
-        streams = backup;
-        backup = null;
 
-        final int newIndex = streams.indexOf(current);
+        final int newIndex = streams.unshuffle(originIndex);
         if (newIndex != -1) {
             queueIndex.set(newIndex);
         } else {
@@ -541,12 +542,56 @@ public abstract class PlayQueue implements Serializable {
 
     @Override
     public int hashCode() {
-        return streams.hashCode();
+        return getStreams().hashCode();
     }
 
     public boolean isDisposed() {
         return disposed;
     }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Encoding
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * @return the items in their order before shuffling, or {@code null} if not shuffled
+     */
+    @Nullable
+    /*package-private*/ List<PlayQueueItem> getBackup() {
+        return streams.isShuffled() ? streams.getOriginalOrder() : null;
+    }
+
+    @NonNull
+    /*package-private*/ List<PlayQueueItem> getHistory() {
+        return history;
+    }
+
+    /**
+     * Restores the shuffle backup and the history of a decoded queue.
+     *
+     * @param backupItems  the items in their order before shuffling, or {@code null}
+     * @param historyItems the played items, oldest first
+     */
+    /*package-private*/ synchronized void restore(@Nullable final List<PlayQueueItem> backupItems,
+                                                  @NonNull final List<PlayQueueItem> historyItems) {
+        if (backupItems != null) {
+            streams.restoreOriginalOrder(backupItems);
+        }
+        history.clear();
+        history.addAll(historyItems);
+    }
+
+    /**
+     * Replaces the queue with its {@link PlayQueueCodec} encoding when serialized, which is much
+     * smaller and faster to write than every item as a separate object. Queues which the codec
+     * does not know are serialized as usual.
+     *
+     * @return the object to serialize instead of this queue
+     * @throws ObjectStreamException never, declared as required by serialization
+     */
+    protected final Object writeReplace() throws ObjectStreamException {
+        return PlayQueueCodec.canEncode(this) ? new PlayQueueCodec.SerializedForm(this) : this;
+    }
     /*//////////////////////////////////////////////////////////////////////////
     // Rx Broadcast
     //////////////////////////////////////////////////////////////////////////*/
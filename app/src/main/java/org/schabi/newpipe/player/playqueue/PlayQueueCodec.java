@@ -0,0 +1,449 @@
+package org.schabi.newpipe.player.playqueue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.schabi.newpipe.extractor.Page;
+import org.schabi.newpipe.extractor.stream.StreamType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of {@link SinglePlayQueue}s, {@link PlaylistPlayQueue}s and
+ * {@link ChannelPlayQueue}s.
+ * <p>
+ * Instead of writing every {@link PlayQueueItem} as a separate object, like the default
+ * serialization does, the strings of all items are written once in a table (uploaders, uploader
+ * urls and stream types usually repeat a lot) and the items as columns of indexes and primitives.
+ * The items shared by the streams, the shuffle backup and the history are written once.
+ * The errors of the items are not encoded.
+ * </p>
+ * <p>
+ * The encoding is only meant to be read by the same version of the app.
+ * </p>
+ */
+public final class PlayQueueCodec {
+    private static final int VERSION = 1;
+
+    private static final byte TYPE_SINGLE = 0;
+    private static final byte TYPE_PLAYLIST = 1;
+    private static final byte TYPE_CHANNEL = 2;
+
+    private static final int NULL_INDEX = -1;
+
+    /**
+     * The strings of an item in the table: title, url, thumbnail url, uploader, uploader url
+     * and stream type.
+     */
+    private static final int ITEM_STRING_COUNT = 6;
+
+    private PlayQueueCodec() {
+    }
+
+    /**
+     * @param queue a play queue
+     * @return whether the queue can be encoded, i.e. it is not of an unknown type
+     */
+    public static boolean canEncode(@NonNull final PlayQueue queue) {
+        return queue instanceof SinglePlayQueue || queue instanceof PlaylistPlayQueue
+                || queue instanceof ChannelPlayQueue;
+    }
+
+    /**
+     * Creates an independent copy of a queue, which is not initialized. This is much faster than
+     * cloning it through serialization.
+     *
+     * @param queue the queue to copy, see {@link #canEncode(PlayQueue)}
+     * @return the copy
+     */
+    @NonNull
+    public static PlayQueue copy(@NonNull final PlayQueue queue) {
+        try {
+            return decode(encode(queue));
+        } catch (final IOException e) {
+            // the encoding was just created, so this can not happen
+            throw new IllegalStateException("Could not copy the play queue", e);
+        }
+    }
+
+    /**
+     * @param queue the queue to encode, see {@link #canEncode(PlayQueue)}
+     * @return the encoded queue
+     * @throws IllegalArgumentException if the queue can not be encoded
+     */
+    @NonNull
+    public static byte[] encode(@NonNull final PlayQueue queue) {
+        if (!canEncode(queue)) {
+            throw new IllegalArgumentException(
+                    "Unsupported play queue: " + queue.getClass().getName());
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            // the queue must not be changed while it is read
+            synchronized (queue) {
+                writeQueue(output, queue);
+            }
+        } catch (final IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new IllegalStateException("Could not encode the play queue", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param data a queue encoded by {@link #encode(PlayQueue)}
+     * @return the decoded queue, which is not initialized
+     * @throws IOException if the data is not a valid encoding
+     */
+    @NonNull
+    public static PlayQueue decode(@NonNull final byte[] data) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+            return readQueue(input);
+        } catch (final IndexOutOfBoundsException | NegativeArraySizeException
+                | IllegalArgumentException e) {
+            throw new IOException("Invalid play queue encoding", e);
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Writing
+    //////////////////////////////////////////////////////////////////////////*/
+
+    private static void writeQueue(@NonNull final DataOutputStream output,
+                                   @NonNull final PlayQueue queue) throws IOException {
+        final List<PlayQueueItem> streams = queue.getStreams();
+        @Nullable final List<PlayQueueItem> backup = queue.getBackup();
+        final List<PlayQueueItem> history = queue.getHistory();
+
+        // every item once, the ones which are only in the backup or history after the streams
+        final Map<PlayQueueItem, Integer> itemIndexes = new IdentityHashMap<>();
+        final List<PlayQueueItem> items = new ArrayList<>(streams.size());
+        indexItems(streams, itemIndexes, items);
+        if (backup != null) {
+            indexItems(backup, itemIndexes, items);
+        }
+        indexItems(history, itemIndexes, items);
+
+        final StringTable strings = new StringTable();
+        final int itemCount = items.size();
+        final int[] stringIndexes = new int[itemCount * ITEM_STRING_COUNT];
+        for (int i = 0; i < itemCount; i++) {
+            final PlayQueueItem item = items.get(i);
+            final int offset = i * ITEM_STRING_COUNT;
+            stringIndexes[offset] = strings.indexOf(item.getTitle());
+            stringIndexes[offset + 1] = strings.indexOf(item.getUrl());
+            stringIndexes[offset + 2] = strings.indexOf(item.getThumbnailUrl());
+            stringIndexes[offset + 3] = strings.indexOf(item.getUploader());
+            stringIndexes[offset + 4] = strings.indexOf(item.getUploaderUrl());
+            stringIndexes[offset + 5] = strings.indexOf(item.getStreamType().name());
+        }
+
+        output.writeInt(VERSION);
+        output.writeByte(typeOf(queue));
+        output.writeInt(queue.getIndex());
+
+        strings.write(output);
+
+        output.writeInt(itemCount);
+        for (final int stringIndex : stringIndexes) {
+            output.writeInt(stringIndex);
+        }
+        for (final PlayQueueItem item : items) {
+            output.writeInt(item.getServiceId());
+        }
+        for (final PlayQueueItem item : items) {
+            output.writeLong(item.getDuration());
+        }
+        for (final PlayQueueItem item : items) {
+            output.writeLong(item.getRecoveryPosition());
+        }
+        for (final PlayQueueItem item : items) {
+            output.writeBoolean(item.isAutoQueued());
+        }
+
+        writeItemIndexes(output, streams, itemIndexes);
+        if (backup != null) {
+            output.writeBoolean(true);
+            writeItemIndexes(output, backup, itemIndexes);
+        } else {
+            output.writeBoolean(false);
+        }
+        writeItemIndexes(output, history, itemIndexes);
+
+        if (queue instanceof AbstractInfoPlayQueue) {
+            final AbstractInfoPlayQueue<?> infoQueue = (AbstractInfoPlayQueue<?>) queue;
+            output.writeInt(infoQueue.serviceId);
+            writeNullableString(output, infoQueue.baseUrl);
+            writePage(output, infoQueue.nextPage);
+            output.writeBoolean(infoQueue.isInitial);
+            output.writeBoolean(infoQueue.isComplete());
+        }
+    }
+
+    private static void indexItems(@NonNull final List<PlayQueueItem> list,
+                                   @NonNull final Map<PlayQueueItem, Integer> itemIndexes,
+                                   @NonNull final List<PlayQueueItem> items) {
+        for (final PlayQueueItem item : list) {
+            if (!itemIndexes.containsKey(item)) {
+                itemIndexes.put(item, items.size());
+                items.add(item);
+            }
+        }
+    }
+
+    private static void writeItemIndexes(@NonNull final DataOutputStream output,
+                                         @NonNull final List<PlayQueueItem> list,
+                                         @NonNull final Map<PlayQueueItem, Integer> itemIndexes)
+            throws IOException {
+        output.writeInt(list.size());
+        for (final PlayQueueItem item : list) {
+            //noinspection ConstantConditions all items were indexed
+            output.writeInt(itemIndexes.get(item));
+        }
+    }
+
+    private static byte typeOf(@NonNull final PlayQueue queue) {
+        if (queue instanceof PlaylistPlayQueue) {
+            return TYPE_PLAYLIST;
+        } else if (queue instanceof ChannelPlayQueue) {
+            return TYPE_CHANNEL;
+        } else {
+            return TYPE_SINGLE;
+        }
+    }
+
+    private static void writeNullableString(@NonNull final DataOutputStream output,
+                                            @Nullable final String string) throws IOException {
+        if (string == null) {
+            output.writeInt(NULL_INDEX);
+        } else {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Pages are written with the default serialization: there is at most one of them and their
+     * content depends on the service.
+     */
+    private static void writePage(@NonNull final DataOutputStream output,
+                                  @Nullable final Page page) throws IOException {
+        if (page == null) {
+            output.writeInt(NULL_INDEX);
+            return;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutput = new ObjectOutputStream(bytes)) {
+            objectOutput.writeObject(page);
+        }
+        output.writeInt(bytes.size());
+        bytes.writeTo(output);
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Reading
+    //////////////////////////////////////////////////////////////////////////*/
+
+    @NonNull
+    private static PlayQueue readQueue(@NonNull final DataInputStream input) throws IOException {
+        final int version = input.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported play queue encoding version: " + version);
+        }
+        final byte type = input.readByte();
+        final int index = input.readInt();
+
+        final String[] strings = StringTable.read(input);
+
+        final int itemCount = input.readInt();
+        final int[] stringIndexes = readInts(input, itemCount * ITEM_STRING_COUNT);
+        final int[] serviceIds = readInts(input, itemCount);
+        final long[] durations = new long[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            durations[i] = input.readLong();
+        }
+        final long[] recoveryPositions = new long[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            recoveryPositions[i] = input.readLong();
+        }
+
+        final PlayQueueItem[] items = new PlayQueueItem[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            final int offset = i * ITEM_STRING_COUNT;
+            items[i] = new PlayQueueItem(
+                    stringAt(strings, stringIndexes[offset]),
+                    stringAt(strings, stringIndexes[offset + 1]),
+                    serviceIds[i],
+                    durations[i],
+                    stringAt(strings, stringIndexes[offset + 2]),
+                    stringAt(strings, stringIndexes[offset + 3]),
+                    stringAt(strings, stringIndexes[offset + 4]),
+                    StreamType.valueOf(strings[stringIndexes[offset + 5]]));
+            items[i].setRecoveryPosition(recoveryPositions[i]);
+            items[i].setAutoQueued(input.readBoolean());
+        }
+
+        final List<PlayQueueItem> streams = readItems(input, items);
+        final List<PlayQueueItem> backup = input.readBoolean() ? readItems(input, items) : null;
+        final List<PlayQueueItem> history = readItems(input, items);
+
+        final PlayQueue queue;
+        if (type == TYPE_SINGLE) {
+            queue = new SinglePlayQueue(index, streams);
+        } else if (type == TYPE_PLAYLIST || type == TYPE_CHANNEL) {
+            final int serviceId = input.readInt();
+            final String baseUrl = readNullableString(input);
+            final Page nextPage = readPage(input);
+            final boolean isInitial = input.readBoolean();
+            final boolean isComplete = input.readBoolean();
+            queue = type == TYPE_PLAYLIST
+                    ? new PlaylistPlayQueue(serviceId, baseUrl, nextPage, streams, index,
+                            isInitial, isComplete)
+                    : new ChannelPlayQueue(serviceId, baseUrl, nextPage, streams, index,
+                            isInitial, isComplete);
+        } else {
+            throw new IOException("Unknown play queue type: " + type);
+        }
+        queue.restore(backup, history);
+        return queue;
+    }
+
+    @NonNull
+    private static int[] readInts(@NonNull final DataInputStream input, final int count)
+            throws IOException {
+        final int[] ints = new int[count];
+        for (int i = 0; i < count; i++) {
+            ints[i] = input.readInt();
+        }
+        return ints;
+    }
+
+    @NonNull
+    private static List<PlayQueueItem> readItems(@NonNull final DataInputStream input,
+                                                 @NonNull final PlayQueueItem[] items)
+            throws IOException {
+        final int size = input.readInt();
+        final List<PlayQueueItem> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(items[input.readInt()]);
+        }
+        return list;
+    }
+
+    @Nullable
+    private static String stringAt(@NonNull final String[] strings, final int index) {
+        return index == NULL_INDEX ? null : strings[index];
+    }
+
+    @Nullable
+    private static String readNullableString(@NonNull final DataInputStream input)
+            throws IOException {
+        final int length = input.readInt();
+        if (length == NULL_INDEX) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Nullable
+    private static Page readPage(@NonNull final DataInputStream input) throws IOException {
+        final int length = input.readInt();
+        if (length == NULL_INDEX) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        try (ObjectInputStream objectInput =
+                     new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Page) objectInput.readObject();
+        } catch (final ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid page", e);
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // String table
+    //////////////////////////////////////////////////////////////////////////*/
+
+    private static final class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        int indexOf(@Nullable final String string) {
+            if (string == null) {
+                return NULL_INDEX;
+            }
+            final Integer index = indexes.get(string);
+            if (index != null) {
+                return index;
+            }
+            indexes.put(string, strings.size());
+            strings.add(string);
+            return strings.size() - 1;
+        }
+
+        void write(@NonNull final DataOutputStream output) throws IOException {
+            output.writeInt(strings.size());
+            for (final String string : strings) {
+                writeNullableString(output, string);
+            }
+        }
+
+        @NonNull
+        static String[] read(@NonNull final DataInputStream input) throws IOException {
+            final String[] strings = new String[input.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readNullableString(input);
+            }
+            return strings;
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Serialization
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * What is serialized instead of a {@link PlayQueue}, see {@link PlayQueue#writeReplace()}.
+     */
+    static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @NonNull
+        private final byte[] data;
+
+        SerializedForm(@NonNull final PlayQueue queue) {
+            this.data = encode(queue);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                return decode(data);
+            } catch (final IOException e) {
+                final InvalidObjectException exception =
+                        new InvalidObjectException("Could not decode the play queue");
+                exception.initCause(e);
+                throw exception;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.schabi.newpipe.player.playqueue;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
+
+import org.schabi.newpipe.MainActivity;
+
+import java.util.UUID;
+
+/**
+ * Passes {@link PlayQueue}s between components of the app (e.g. in the extras of the intents
+ * starting the player), without cloning them.
+ * <p>
+ * The queue given to {@link #put(PlayQueue)} is handed off as is: the caller transfers its
+ * ownership to whoever {@link #take(String) takes} it. Only if the queue is still in use, i.e. it
+ * was already initialized or disposed by a player or it is already waiting to be taken, a copy is
+ * handed off instead, see {@link PlayQueueCodec#copy(PlayQueue)}.
+ * </p>
+ */
+public final class PlayQueueHandOff {
+    private static final boolean DEBUG = MainActivity.DEBUG;
+    private static final String TAG = PlayQueueHandOff.class.getSimpleName();
+
+    /**
+     * Number of queues waiting to be taken. Queues which are never taken (e.g. because the
+     * intent was not delivered) are dropped when others are put.
+     */
+    private static final int MAX_PENDING_QUEUES = 5;
+    private static final LruCache<String, PlayQueue> PENDING_QUEUES =
+            new LruCache<>(MAX_PENDING_QUEUES);
+
+    private PlayQueueHandOff() {
+    }
+
+    /**
+     * Hands off a play queue.
+     *
+     * @param queue the queue, which should not be used by the caller anymore
+     * @return the key to {@link #take(String) take} the queue with
+     */
+    @NonNull
+    public static String put(@NonNull final PlayQueue queue) {
+        final String key = UUID.randomUUID().toString();
+        synchronized (PENDING_QUEUES) {
+            final boolean inUse = queue.getBroadcastReceiver() != null || queue.isDisposed()
+                    || isPending(queue);
+            if (DEBUG) {
+                Log.d(TAG, "put() called with: queue = [" + queue + "], inUse = [" + inUse + "]");
+            }
+            PENDING_QUEUES.put(key, inUse && PlayQueueCodec.canEncode(queue)
+                    ? PlayQueueCodec.copy(queue) : queue);
+        }
+        return key;
+    }
+
+    private static boolean isPending(@NonNull final PlayQueue queue) {
+        // PlayQueue.equals() compares the items, not the instances
+        for (final PlayQueue pendingQueue : PENDING_QUEUES.snapshot().values()) {
+            if (pendingQueue == queue) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes a play queue which was handed off, which can be taken only once.
+     *
+     * @param key the key returned by {@link #put(PlayQueue)}
+     * @return the queue, or {@code null} if it was already taken or dropped
+     */
+    @Nullable
+    public static PlayQueue take(@NonNull final String key) {
+        if (DEBUG) {
+            Log.d(TAG, "take() called with: key = [" + key + "]");
+        }
+        synchronized (PENDING_QUEUES) {
+            return PENDING_QUEUES.remove(key);
+        }
+    }
+}
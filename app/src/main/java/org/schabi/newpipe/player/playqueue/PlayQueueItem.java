@@ -53,10 +53,10 @@ public class PlayQueueItem implements Serializable {
     }
 
     @SuppressWarnings("ParameterNumber")
-    private PlayQueueItem(@Nullable final String name, @Nullable final String url,
-                          final int serviceId, final long duration,
-                          @Nullable final String thumbnailUrl, @Nullable final String uploader,
-                          final String uploaderUrl, @NonNull final StreamType streamType) {
+    PlayQueueItem(@Nullable final String name, @Nullable final String url,
+                  final int serviceId, final long duration,
+                  @Nullable final String thumbnailUrl, @Nullable final String uploader,
+                  final String uploaderUrl, @NonNull final StreamType streamType) {
         this.title = name != null ? name : EMPTY_STRING;
         this.url = url != null ? url : EMPTY_STRING;
         this.serviceId = serviceId;
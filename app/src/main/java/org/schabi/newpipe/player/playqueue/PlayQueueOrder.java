@@ -0,0 +1,359 @@
+package org.schabi.newpipe.player.playqueue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.RandomAccess;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The items of a {@link PlayQueue}, in their original order and in their play order.
+ * <p>
+ * The items are only kept in their original order. When shuffled, the play order is a
+ * permutation of the indexes of the items, so shuffling and unshuffling does not copy or
+ * search the items, and the original order is kept without a backup copy. The positions of
+ * the items are looked up by identity in an index, which is updated lazily after the items
+ * were moved or removed.
+ * </p>
+ * <p>
+ * This class is not thread safe, the play queue guards it with its monitor.
+ * </p>
+ */
+final class PlayQueueOrder implements Serializable {
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * The items in their original order.
+     */
+    @NonNull
+    private final List<PlayQueueItem> items;
+
+    /**
+     * The index of every item in {@link #items}. The entries of the items from
+     * {@link #indexedCount} on may be missing or outdated.
+     */
+    @NonNull
+    private final Map<PlayQueueItem, Integer> itemIndexes = new IdentityHashMap<>();
+    private int indexedCount = 0;
+
+    /**
+     * The index in {@link #items} of the item at every play position, {@code null} if not
+     * shuffled. Only the first {@code items.size()} elements are used.
+     */
+    @Nullable
+    private int[] order;
+
+    /**
+     * The play position of every item, i.e. the inverse permutation of {@link #order},
+     * {@code null} if not shuffled.
+     */
+    @Nullable
+    private int[] positions;
+
+    PlayQueueOrder(@NonNull final List<PlayQueueItem> startWith) {
+        items = new ArrayList<>(startWith);
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Readonly ops
+    //////////////////////////////////////////////////////////////////////////*/
+
+    int size() {
+        return items.size();
+    }
+
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    boolean isShuffled() {
+        return order != null;
+    }
+
+    /**
+     * @param position a play position
+     * @return the item at the play position
+     */
+    @NonNull
+    PlayQueueItem get(final int position) {
+        return items.get(itemIndexAt(position));
+    }
+
+    /**
+     * @param item an item, compared by identity
+     * @return the play position of the item, or {@code -1} if it is not in the queue
+     */
+    int indexOf(@NonNull final PlayQueueItem item) {
+        final int itemIndex = itemIndexOf(item);
+        if (itemIndex == -1 || positions == null) {
+            return itemIndex;
+        }
+        return positions[itemIndex];
+    }
+
+    /**
+     * @return an unmodifiable live view of the items in their play order
+     */
+    @NonNull
+    List<PlayQueueItem> getPlayOrder() {
+        return new PlayOrderView();
+    }
+
+    /**
+     * @return an unmodifiable live view of the items in their original order
+     */
+    @NonNull
+    List<PlayQueueItem> getOriginalOrder() {
+        return Collections.unmodifiableList(items);
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Write ops
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * Appends items to the original order, and to the play order in a random order if shuffled.
+     */
+    void append(@NonNull final List<PlayQueueItem> newItems) {
+        final int start = items.size();
+        items.addAll(newItems);
+        if (order == null) {
+            return;
+        }
+
+        final int end = items.size();
+        ensureCapacity(end);
+        for (int i = start; i < end; i++) {
+            order[i] = i;
+        }
+        shuffleRange(start, end);
+        updatePositions(start, end);
+    }
+
+    /**
+     * @param position the play position of the item to remove
+     * @return the removed item
+     */
+    @NonNull
+    PlayQueueItem remove(final int position) {
+        final int itemIndex = itemIndexAt(position);
+        final PlayQueueItem item = items.remove(itemIndex);
+        itemIndexes.remove(item);
+        invalidateItemIndexes(itemIndex);
+
+        if (order != null) {
+            final int size = items.size();
+            System.arraycopy(order, position + 1, order, position, size - position);
+            // the items after the removed one moved up in the original order
+            for (int i = 0; i < size; i++) {
+                if (order[i] > itemIndex) {
+                    order[i]--;
+                }
+            }
+            updatePositions(0, size);
+        }
+        return item;
+    }
+
+    /**
+     * Moves an item in the play order. If not shuffled, the original order is the play order.
+     *
+     * @param source the play position of the item
+     * @param target the new play position of the item
+     */
+    void move(final int source, final int target) {
+        checkPosition(source);
+        checkPosition(target);
+        if (order == null) {
+            items.add(target, items.remove(source));
+            invalidateItemIndexes(Math.min(source, target));
+            return;
+        }
+
+        final int moved = order[source];
+        if (source < target) {
+            System.arraycopy(order, source + 1, order, source, target - source);
+        } else {
+            System.arraycopy(order, target, order, target + 1, source - target);
+        }
+        order[target] = moved;
+        updatePositions(Math.min(source, target), Math.max(source, target) + 1);
+    }
+
+    /**
+     * Switches to shuffled mode, without changing the play order if not shuffled yet.
+     */
+    void startShuffling() {
+        if (order != null) {
+            return;
+        }
+        final int size = items.size();
+        order = new int[Math.max(size, MIN_CAPACITY)];
+        positions = new int[order.length];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            positions[i] = i;
+        }
+    }
+
+    /**
+     * Shuffles the play order, switching to shuffled mode.
+     *
+     * @param firstPosition the play position of the item to place first, ignored if out of
+     *                      bounds
+     */
+    void shuffle(final int firstPosition) {
+        startShuffling();
+        final int size = items.size();
+        if (firstPosition >= 0 && firstPosition < size) {
+            final int first = order[firstPosition];
+            order[firstPosition] = order[0];
+            order[0] = first;
+            shuffleRange(1, size);
+        } else {
+            shuffleRange(0, size);
+        }
+        updatePositions(0, size);
+    }
+
+    /**
+     * Switches back to the original order.
+     *
+     * @param position a play position
+     * @return the position of the item at the given play position in the original order, or
+     * {@code -1} if the position is out of bounds
+     */
+    int unshuffle(final int position) {
+        final int itemIndex = position >= 0 && position < items.size()
+                ? itemIndexAt(position) : -1;
+        order = null;
+        positions = null;
+        return itemIndex;
+    }
+
+    /**
+     * Restores the shuffled mode of a decoded queue, whose items are in their play order.
+     *
+     * @param originalItems the same items in their original order
+     */
+    void restoreOriginalOrder(@NonNull final List<PlayQueueItem> originalItems) {
+        final List<PlayQueueItem> playOrder = new ArrayList<>(items);
+        if (playOrder.size() != originalItems.size()) {
+            throw new IllegalArgumentException("The original order has different items");
+        }
+
+        items.clear();
+        items.addAll(originalItems);
+        itemIndexes.clear();
+        indexedCount = 0;
+
+        final int size = items.size();
+        order = new int[Math.max(size, MIN_CAPACITY)];
+        positions = new int[order.length];
+        for (int i = 0; i < size; i++) {
+            final int itemIndex = itemIndexOf(playOrder.get(i));
+            if (itemIndex == -1) {
+                throw new IllegalArgumentException("The original order has different items");
+            }
+            order[i] = itemIndex;
+        }
+        updatePositions(0, size);
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Utils
+    //////////////////////////////////////////////////////////////////////////*/
+
+    private int itemIndexAt(final int position) {
+        checkPosition(position);
+        return order == null ? position : order[position];
+    }
+
+    private void checkPosition(final int position) {
+        if (position < 0 || position >= items.size()) {
+            throw new IndexOutOfBoundsException(
+                    "Position: " + position + ", size: " + items.size());
+        }
+    }
+
+    private int itemIndexOf(@NonNull final PlayQueueItem item) {
+        final Integer index = itemIndexes.get(item);
+        if (index != null && index < items.size() && items.get(index) == item) {
+            return index;
+        }
+
+        // the item was not indexed yet, or it moved since
+        final int size = items.size();
+        for (int i = indexedCount; i < size; i++) {
+            final PlayQueueItem indexedItem = items.get(i);
+            final Integer previousIndex = itemIndexes.get(indexedItem);
+            // keep the first occurrence of items which are in the queue more than once
+            if (previousIndex == null || previousIndex >= i
+                    || items.get(previousIndex) != indexedItem) {
+                itemIndexes.put(indexedItem, i);
+            }
+        }
+        indexedCount = size;
+
+        final Integer newIndex = itemIndexes.get(item);
+        return newIndex != null && items.get(newIndex) == item ? newIndex : -1;
+    }
+
+    private void invalidateItemIndexes(final int fromItemIndex) {
+        indexedCount = Math.min(indexedCount, fromItemIndex);
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (order != null && order.length < capacity) {
+            final int newLength = Math.max(capacity, order.length * 2);
+            order = Arrays.copyOf(order, newLength);
+            positions = Arrays.copyOf(positions, newLength);
+        }
+    }
+
+    /**
+     * Fisher-Yates shuffle of the play positions in [start, end).
+     */
+    private void shuffleRange(final int start, final int end) {
+        final Random random = ThreadLocalRandom.current();
+        for (int i = end - 1; i > start; i--) {
+            final int j = start + random.nextInt(i - start + 1);
+            final int swapped = order[i];
+            order[i] = order[j];
+            order[j] = swapped;
+        }
+    }
+
+    private void updatePositions(final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            positions[order[i]] = i;
+        }
+    }
+
+    private final class PlayOrderView extends AbstractList<PlayQueueItem>
+            implements RandomAccess {
+        @Override
+        public PlayQueueItem get(final int index) {
+            return PlayQueueOrder.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return items.size();
+        }
+
+        @Override
+        public int indexOf(@Nullable final Object o) {
+            return o instanceof PlayQueueItem ? PlayQueueOrder.this.indexOf((PlayQueueItem) o) : -1;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.schabi.newpipe.player.playqueue;
 
+import org.schabi.newpipe.extractor.ListExtractor;
 import org.schabi.newpipe.extractor.Page;
 import org.schabi.newpipe.extractor.playlist.PlaylistInfo;
 import org.schabi.newpipe.extractor.stream.StreamInfoItem;
@@ -7,8 +8,7 @@ import org.schabi.newpipe.util.ExtractorHelper;
 
 import java.util.List;
 
-import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
-import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.core.Single;
 
 public final class PlaylistPlayQueue extends AbstractInfoPlayQueue<PlaylistInfo> {
 
@@ -24,23 +24,28 @@ public final class PlaylistPlayQueue extends AbstractInfoPlayQueue<PlaylistInfo>
         super(serviceId, url, nextPage, streams, index);
     }
 
+    PlaylistPlayQueue(final int serviceId,
+                      final String url,
+                      final Page nextPage,
+                      final List<PlayQueueItem> items,
+                      final int index,
+                      final boolean isInitial,
+                      final boolean isComplete) {
+        super(serviceId, url, nextPage, items, index, isInitial, isComplete);
+    }
+
     @Override
     protected String getTag() {
         return "PlaylistPlayQueue@" + Integer.toHexString(hashCode());
     }
 
     @Override
-    public void fetch() {
-        if (this.isInitial) {
-            ExtractorHelper.getPlaylistInfo(this.serviceId, this.baseUrl, false)
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(getHeadListObserver());
-        } else {
-            ExtractorHelper.getMorePlaylistItems(this.serviceId, this.baseUrl, this.nextPage)
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(getNextPageObserver());
-        }
+    Single<PlaylistInfo> loadHeadList() {
+        return ExtractorHelper.getPlaylistInfo(this.serviceId, this.baseUrl, false);
+    }
+
+    @Override
+    Single<ListExtractor.InfoItemsPage<StreamInfoItem>> loadPage(final Page page) {
+        return ExtractorHelper.getMorePlaylistItems(this.serviceId, this.baseUrl, page);
     }
 }
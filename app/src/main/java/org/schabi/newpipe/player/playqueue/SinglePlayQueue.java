@@ -24,6 +24,10 @@ public final class SinglePlayQueue extends PlayQueue {
         super(index, playQueueItemsOf(items));
     }
 
+    SinglePlayQueue(final int index, final List<PlayQueueItem> items) {
+        super(index, items);
+    }
+
     private static List<PlayQueueItem> playQueueItemsOf(final List<StreamInfoItem> items) {
         final List<PlayQueueItem> playQueueItems = new ArrayList<>(items.size());
         for (final StreamInfoItem item : items) {
@@ -35,6 +35,8 @@ import org.schabi.newpipe.extractor.stream.StreamInfo;
 import org.schabi.newpipe.extractor.stream.StreamType;
 import org.schabi.newpipe.extractor.stream.VideoStream;
 import org.schabi.newpipe.player.datasource.NonUriHlsDataSourceFactory;
+import org.schabi.newpipe.player.helper.DashManifestCache;
+import org.schabi.newpipe.player.helper.PlayerCache;
 import org.schabi.newpipe.player.helper.PlayerDataSource;
 import org.schabi.newpipe.player.mediaitem.MediaItemTag;
 import org.schabi.newpipe.player.mediaitem.StreamInfoTag;
@@ -55,11 +57,15 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
 
 
     //region Cache key generation
-    private static StringBuilder commonCacheKeyOf(final StreamInfo info,
+    private static StringBuilder commonCacheKeyOf(final String keyPrefix,
+                                                  final StreamInfo info,
                                                   final Stream stream,
                                                   final boolean resolutionOrBitrateUnknown) {
+        // kind of content, used to account the stream in the right cache quota
+        final StringBuilder cacheKey = new StringBuilder(keyPrefix);
+
         // stream info service id
-        final StringBuilder cacheKey = new StringBuilder(info.getServiceId());
+        cacheKey.append(info.getServiceId());
 
         // stream info id
         cacheKey.append(" ");
@@ -69,6 +75,20 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
         cacheKey.append(" ");
         cacheKey.append(stream.getId());
 
+        // itag and content length (if known)
+        // The itag identifies the format, the resolution and the bitrate of YouTube streams,
+        // while the content length distinguishes different encodings published with the same
+        // itag, which would otherwise corrupt the cache.
+        final ItagItem itagItem = stream.getItagItem();
+        if (itagItem != null) {
+            cacheKey.append(" itag");
+            cacheKey.append(itagItem.id);
+            if (itagItem.getContentLength() > 0) {
+                cacheKey.append(" ");
+                cacheKey.append(itagItem.getContentLength());
+            }
+        }
+
         // mediaFormat (if not null)
         final MediaFormat mediaFormat = stream.getFormat();
         if (mediaFormat != null) {
@@ -104,6 +124,11 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
      * e.g. a different URL, since the URL might have been reloaded in the meantime, but the stream
      * actually referenced by the URL is still the same.
      * </p>
+     * <p>
+     * The key is used for all delivery methods: media sources which would cache their data using
+     * the URL of the stream (e.g. DASH segments) are mapped to it through
+     * {@link PlayerCache#registerUrl(String, String)}.
+     * </p>
      *
      * @param info        the {@link StreamInfo stream info}, to distinguish between streams with
      *                    the same features but coming from different stream infos
@@ -113,7 +138,8 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
      */
     static String cacheKeyOf(final StreamInfo info, final VideoStream videoStream) {
         final boolean resolutionUnknown = videoStream.getResolution().equals(RESOLUTION_UNKNOWN);
-        final StringBuilder cacheKey = commonCacheKeyOf(info, videoStream, resolutionUnknown);
+        final StringBuilder cacheKey = commonCacheKeyOf(PlayerCache.VIDEO_KEY_PREFIX, info,
+                videoStream, resolutionUnknown);
 
         // resolution (if known)
         if (!resolutionUnknown) {
@@ -148,7 +174,8 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
      */
     static String cacheKeyOf(final StreamInfo info, final AudioStream audioStream) {
         final boolean averageBitrateUnknown = audioStream.getAverageBitrate() == UNKNOWN_BITRATE;
-        final StringBuilder cacheKey = commonCacheKeyOf(info, audioStream, averageBitrateUnknown);
+        final StringBuilder cacheKey = commonCacheKeyOf(PlayerCache.AUDIO_KEY_PREFIX, info,
+                audioStream, averageBitrateUnknown);
 
         // averageBitrate (if known)
         if (!averageBitrateUnknown) {
@@ -225,6 +252,8 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
                                         final StreamInfo streamInfo,
                                         final String cacheKey,
                                         final MediaItemTag metadata) throws ResolverException {
+        registerCacheKeys(dataSource, stream, streamInfo, cacheKey);
+
         if (streamInfo.getService() == ServiceList.YouTube) {
             return createYoutubeMediaSource(stream, streamInfo, dataSource, cacheKey, metadata);
         }
@@ -387,14 +416,14 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
 
             try {
                 final ItagItem itagItem = Objects.requireNonNull(stream.getItagItem());
-                final String manifestString = YoutubePostLiveStreamDvrDashManifestCreator
-                        .fromPostLiveStreamDvrStreamingUrl(stream.getContent(),
-                                itagItem,
-                                itagItem.getTargetDurationSec(),
-                                streamInfo.getDuration());
-                return buildYoutubeManualDashMediaSource(dataSource,
-                        createDashManifest(manifestString, stream), stream, cacheKey,
-                        metadata);
+                final DashManifest dashManifest = getYoutubeDashManifest(dataSource, stream,
+                        cacheKey, () -> YoutubePostLiveStreamDvrDashManifestCreator
+                                .fromPostLiveStreamDvrStreamingUrl(stream.getContent(),
+                                        itagItem,
+                                        itagItem.getTargetDurationSec(),
+                                        streamInfo.getDuration()));
+                return buildYoutubeManualDashMediaSource(dataSource, dashManifest, stream,
+                        cacheKey, metadata);
             } catch (final CreationException | IOException | NullPointerException e) {
                 throw new ResolverException(
                         "Error when generating the DASH manifest of YouTube ended live stream", e);
@@ -417,13 +446,13 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
                 if ((stream instanceof VideoStream && ((VideoStream) stream).isVideoOnly())
                         || stream instanceof AudioStream) {
                     try {
-                        final String manifestString = YoutubeProgressiveDashManifestCreator
-                                .fromProgressiveStreamingUrl(stream.getContent(),
-                                        Objects.requireNonNull(stream.getItagItem()),
-                                        streamInfo.getDuration());
-                        return buildYoutubeManualDashMediaSource(dataSource,
-                                createDashManifest(manifestString, stream), stream, cacheKey,
-                                metadata);
+                        final ItagItem itagItem = Objects.requireNonNull(stream.getItagItem());
+                        final DashManifest dashManifest = getYoutubeDashManifest(dataSource,
+                                stream, cacheKey, () -> YoutubeProgressiveDashManifestCreator
+                                        .fromProgressiveStreamingUrl(stream.getContent(),
+                                                itagItem, streamInfo.getDuration()));
+                        return buildYoutubeManualDashMediaSource(dataSource, dashManifest,
+                                stream, cacheKey, metadata);
                     } catch (final CreationException | IOException | NullPointerException e) {
                         Log.w(TAG, "Error when generating or parsing DASH manifest of "
                                 + "YouTube progressive stream, falling back to a "
@@ -444,13 +473,12 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
                 // the base URL of the OTF stream).
 
                 try {
-                    final String manifestString = YoutubeOtfDashManifestCreator
-                            .fromOtfStreamingUrl(stream.getContent(),
-                                    Objects.requireNonNull(stream.getItagItem()),
-                                    streamInfo.getDuration());
-                    return buildYoutubeManualDashMediaSource(dataSource,
-                            createDashManifest(manifestString, stream), stream, cacheKey,
-                            metadata);
+                    final ItagItem itagItem = Objects.requireNonNull(stream.getItagItem());
+                    final DashManifest dashManifest = getYoutubeDashManifest(dataSource, stream,
+                            cacheKey, () -> YoutubeOtfDashManifestCreator.fromOtfStreamingUrl(
+                                    stream.getContent(), itagItem, streamInfo.getDuration()));
+                    return buildYoutubeManualDashMediaSource(dataSource, dashManifest, stream,
+                            cacheKey, metadata);
                 } catch (final CreationException | IOException | NullPointerException e) {
                     Log.e(TAG,
                             "Error when generating the DASH manifest of YouTube OTF stream", e);
@@ -470,6 +498,20 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
         }
     }
 
+    /**
+     * Gets the DASH manifest of a YouTube stream from the {@link DashManifestCache}, with the
+     * current URL of the stream, generating it only if it is not cached yet or if it expired.
+     */
+    private static DashManifest getYoutubeDashManifest(
+            final PlayerDataSource dataSource,
+            final Stream stream,
+            final String cacheKey,
+            final DashManifestCache.ManifestCreator creator)
+            throws CreationException, IOException {
+        return createDashManifest(dataSource.getManifestCache()
+                .getOrCreate(cacheKey, stream.getContent(), creator), stream);
+    }
+
     private static DashMediaSource buildYoutubeManualDashMediaSource(
             final PlayerDataSource dataSource,
             final DashManifest dashManifest,
@@ -500,6 +542,21 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
 
 
     //region Utils
+    /**
+     * Associates the cache key of a stream with its stream info, needed to pin the stream, and
+     * with its URL, so that the data of media sources which use the URL as key (e.g. the
+     * segments of DASH manifests) is cached using the stable key.
+     */
+    private static void registerCacheKeys(final PlayerDataSource dataSource,
+                                          final Stream stream,
+                                          final StreamInfo streamInfo,
+                                          final String cacheKey) {
+        dataSource.getCache().registerKey(streamInfo.getUrl(), cacheKey);
+        if (stream.isUrl()) {
+            dataSource.getCache().registerUrl(stream.getContent(), cacheKey);
+        }
+    }
+
     private static Uri manifestUrlToUri(final String manifestUrl) {
         return Uri.parse(Objects.requireNonNullElse(manifestUrl, ""));
     }
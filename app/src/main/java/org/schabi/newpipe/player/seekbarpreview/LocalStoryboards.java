@@ -0,0 +1,368 @@
+package org.schabi.newpipe.player.seekbarpreview;
+
+import static org.schabi.newpipe.MainActivity.DEBUG;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.schabi.newpipe.extractor.stream.Frameset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import us.shandian.giga.get.FinishedMission;
+import us.shandian.giga.get.sqlite.FinishedMissionStore;
+
+/**
+ * Storyboards generated from downloaded videos, for streams whose service provides no
+ * storyboard and to avoid downloading the storyboard of a stream which is already on the device.
+ * <p>
+ * Frames are extracted from the sync samples (keyframes) of the file with
+ * {@link MediaMetadataRetriever}, which uses the hardware decoders of the device and does not
+ * have to decode the frames between keyframes. They are stored as JPEG sprite sheets in the cache
+ * folder, so that they are generated only once, and are returned as a {@link Frameset} whose
+ * URLs point to the sheets on disk.
+ * </p>
+ */
+public final class LocalStoryboards {
+    private static final String TAG = LocalStoryboards.class.getSimpleName();
+
+    /**
+     * The folder name in which the storyboards will be written, one subfolder per storyboard.
+     */
+    private static final String CACHE_FOLDER_NAME = "storyboards";
+    private static final String INFO_FILE_NAME = "storyboard.info";
+    private static final String SHEET_FILE_PREFIX = "sheet_";
+    private static final String SHEET_FILE_EXTENSION = ".jpg";
+    private static final int INFO_VERSION = 1;
+
+    /**
+     * Number of storyboards kept on disk, the least recently used ones are deleted first.
+     */
+    private static final int MAX_STORYBOARDS = 30;
+
+    /**
+     * Maximum number of frames of a storyboard, longer videos have more time between frames.
+     */
+    private static final int MAX_FRAMES = 200;
+    /**
+     * Minimum time between frames, keyframes are usually not closer than this.
+     */
+    private static final int MIN_DURATION_PER_FRAME_MS = 2000;
+    /**
+     * Frames per sheet row and column. {@link Frameset#getFrameBoundsAt(long)} expects the same
+     * number of rows and columns.
+     */
+    private static final int FRAMES_PER_PAGE = 5;
+    private static final int JPEG_QUALITY = 80;
+
+    private LocalStoryboards() {
+    }
+
+    /**
+     * Returns the storyboard already generated from the download of a stream.
+     *
+     * @param context    the context used to find the downloads and the cache folder
+     * @param streamUrl  the url of the stream
+     * @param frameWidth the width of the frames
+     * @return the storyboard, or {@code null} if the stream was not downloaded or its storyboard
+     * was not generated yet
+     */
+    @WorkerThread
+    @Nullable
+    public static Frameset find(@NonNull final Context context,
+                                @NonNull final String streamUrl,
+                                final int frameWidth) {
+        final FinishedMission mission = findDownload(context, streamUrl);
+        if (mission == null) {
+            return null;
+        }
+
+        final File folder = getFolder(context, mission, frameWidth);
+        final Frameset frameset = readInfo(folder);
+        if (frameset != null) {
+            // mark the storyboard as recently used
+            //noinspection ResultOfMethodCallIgnored
+            folder.setLastModified(System.currentTimeMillis());
+        }
+        return frameset;
+    }
+
+    /**
+     * Generates the storyboard of a stream from its download, if any, or returns the one which
+     * was already generated. Stops when the current thread is interrupted.
+     *
+     * @param context    the context used to find the downloads and the cache folder
+     * @param streamUrl  the url of the stream
+     * @param frameWidth the width of the frames
+     * @return the storyboard, or {@code null} if the stream was not downloaded or the frames
+     * could not be extracted
+     */
+    @WorkerThread
+    @Nullable
+    public static Frameset getOrGenerate(@NonNull final Context context,
+                                         @NonNull final String streamUrl,
+                                         final int frameWidth) {
+        final FinishedMission mission = findDownload(context, streamUrl);
+        if (mission == null) {
+            return null;
+        }
+
+        final File folder = getFolder(context, mission, frameWidth);
+        final Frameset existing = readInfo(folder);
+        if (existing != null) {
+            //noinspection ResultOfMethodCallIgnored
+            folder.setLastModified(System.currentTimeMillis());
+            return existing;
+        }
+
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, mission.storage.getUri());
+            trimCache(folder.getParentFile());
+            return generate(retriever, folder, frameWidth);
+        } catch (final IOException | RuntimeException e) {
+            // MediaMetadataRetriever throws IllegalArgumentException and RuntimeException if the
+            // file cannot be read or decoded
+            Log.w(TAG, "Could not generate the storyboard of " + streamUrl, e);
+            deleteFolder(folder);
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (final Exception e) {
+                // nothing to do
+            }
+        }
+    }
+
+    @Nullable
+    private static FinishedMission findDownload(@NonNull final Context context,
+                                                @NonNull final String streamUrl) {
+        final FinishedMissionStore store = new FinishedMissionStore(context);
+        try {
+            return store.findBySource(streamUrl, 'v');
+        } catch (final RuntimeException e) {
+            Log.w(TAG, "Could not search the downloads of " + streamUrl, e);
+            return null;
+        } finally {
+            store.close();
+        }
+    }
+
+    @NonNull
+    private static File getFolder(@NonNull final Context context,
+                                  @NonNull final FinishedMission mission,
+                                  final int frameWidth) {
+        // a new download to the same file gives a new storyboard, since its length changes
+        final String name = Integer.toHexString(mission.storage.getUri().toString().hashCode())
+                + "_" + Long.toHexString(mission.length) + "_" + frameWidth;
+        return new File(new File(context.getCacheDir(), CACHE_FOLDER_NAME), name);
+    }
+
+    @NonNull
+    private static Frameset generate(@NonNull final MediaMetadataRetriever retriever,
+                                     @NonNull final File folder,
+                                     final int frameWidth) throws IOException {
+        final long durationMs = parseLong(
+                retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+        int videoWidth = (int) parseLong(
+                retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+        int videoHeight = (int) parseLong(
+                retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+        final long rotation = parseLong(
+                retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+        if (durationMs <= 0 || videoWidth <= 0 || videoHeight <= 0) {
+            throw new IOException("Not a video or unknown duration");
+        }
+        if (rotation == 90 || rotation == 270) {
+            final int width = videoWidth;
+            videoWidth = videoHeight;
+            videoHeight = width;
+        }
+
+        final int frameHeight = Math.max(1, frameWidth * videoHeight / videoWidth);
+        final int durationPerFrame = (int) Math.max(MIN_DURATION_PER_FRAME_MS,
+                (durationMs + MAX_FRAMES - 1) / MAX_FRAMES);
+        final int totalCount = (int) (durationMs / durationPerFrame) + 1;
+        final int framesPerSheet = FRAMES_PER_PAGE * FRAMES_PER_PAGE;
+        final int sheetCount = (totalCount + framesPerSheet - 1) / framesPerSheet;
+
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create " + folder);
+        }
+
+        final List<String> urls = new ArrayList<>(sheetCount);
+        final Rect frameRect = new Rect();
+        for (int sheet = 0; sheet < sheetCount; sheet++) {
+            final Bitmap sheetBitmap = Bitmap.createBitmap(frameWidth * FRAMES_PER_PAGE,
+                    frameHeight * FRAMES_PER_PAGE, Bitmap.Config.RGB_565);
+            final Canvas canvas = new Canvas(sheetBitmap);
+
+            final int firstFrame = sheet * framesPerSheet;
+            for (int frame = firstFrame;
+                 frame < Math.min(totalCount, firstFrame + framesPerSheet); frame++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    sheetBitmap.recycle();
+                    throw new InterruptedIOException("Storyboard generation cancelled");
+                }
+
+                final Bitmap frameBitmap = getFrameAt(retriever,
+                        (long) frame * durationPerFrame, frameWidth, frameHeight);
+                if (frameBitmap == null) {
+                    // leave the frame black, e.g. at the very end of the video
+                    continue;
+                }
+
+                final int position = frame - firstFrame;
+                final int left = (position % FRAMES_PER_PAGE) * frameWidth;
+                final int top = (position / FRAMES_PER_PAGE) * frameHeight;
+                frameRect.set(left, top, left + frameWidth, top + frameHeight);
+                canvas.drawBitmap(frameBitmap, null, frameRect, null);
+                frameBitmap.recycle();
+            }
+
+            final File sheetFile = new File(folder,
+                    SHEET_FILE_PREFIX + sheet + SHEET_FILE_EXTENSION);
+            try (OutputStream output = new BufferedOutputStream(
+                    new FileOutputStream(sheetFile))) {
+                sheetBitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+            } finally {
+                sheetBitmap.recycle();
+            }
+            urls.add(Uri.fromFile(sheetFile).toString());
+        }
+
+        // the info file is written last, a storyboard without it is incomplete
+        final File infoFile = new File(folder, INFO_FILE_NAME);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(infoFile)))) {
+            output.writeInt(INFO_VERSION);
+            output.writeInt(frameWidth);
+            output.writeInt(frameHeight);
+            output.writeInt(totalCount);
+            output.writeInt(durationPerFrame);
+            output.writeInt(sheetCount);
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "Generated storyboard with " + totalCount + " frames in " + folder);
+        }
+        return new Frameset(urls, frameWidth, frameHeight, totalCount, durationPerFrame,
+                FRAMES_PER_PAGE, FRAMES_PER_PAGE);
+    }
+
+    @Nullable
+    private static Bitmap getFrameAt(@NonNull final MediaMetadataRetriever retriever,
+                                     final long positionMs,
+                                     final int frameWidth,
+                                     final int frameHeight) {
+        // OPTION_CLOSEST_SYNC only decodes the keyframe nearest to the position
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            return retriever.getScaledFrameAtTime(positionMs * 1000,
+                    MediaMetadataRetriever.OPTION_CLOSEST_SYNC, frameWidth, frameHeight);
+        }
+        return retriever.getFrameAtTime(positionMs * 1000,
+                MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+    }
+
+    @Nullable
+    private static Frameset readInfo(@NonNull final File folder) {
+        final File infoFile = new File(folder, INFO_FILE_NAME);
+        if (!infoFile.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(infoFile)))) {
+            if (input.readInt() != INFO_VERSION) {
+                deleteFolder(folder);
+                return null;
+            }
+            final int frameWidth = input.readInt();
+            final int frameHeight = input.readInt();
+            final int totalCount = input.readInt();
+            final int durationPerFrame = input.readInt();
+            final int sheetCount = input.readInt();
+
+            final List<String> urls = new ArrayList<>(sheetCount);
+            for (int sheet = 0; sheet < sheetCount; sheet++) {
+                final File sheetFile = new File(folder,
+                        SHEET_FILE_PREFIX + sheet + SHEET_FILE_EXTENSION);
+                if (!sheetFile.isFile()) {
+                    throw new IOException("Missing sheet " + sheetFile);
+                }
+                urls.add(Uri.fromFile(sheetFile).toString());
+            }
+            return new Frameset(urls, frameWidth, frameHeight, totalCount, durationPerFrame,
+                    FRAMES_PER_PAGE, FRAMES_PER_PAGE);
+        } catch (final IOException e) {
+            Log.w(TAG, "Could not read storyboard " + folder, e);
+            deleteFolder(folder);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the least recently used storyboards, leaving room for a new one.
+     */
+    private static void trimCache(@Nullable final File cacheFolder) {
+        if (cacheFolder == null) {
+            return;
+        }
+        final File[] folders = cacheFolder.listFiles(File::isDirectory);
+        if (folders == null || folders.length < MAX_STORYBOARDS) {
+            return;
+        }
+
+        Arrays.sort(folders, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i <= folders.length - MAX_STORYBOARDS; i++) {
+            deleteFolder(folders[i]);
+        }
+    }
+
+    private static void deleteFolder(@NonNull final File folder) {
+        final File[] files = folder.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        folder.delete();
+    }
+
+    private static long parseLong(@Nullable final String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -2,28 +2,29 @@ package org.schabi.newpipe.player.seekbarpreview;
 
 import static org.schabi.newpipe.player.seekbarpreview.SeekbarPreviewThumbnailHelper.SeekbarPreviewThumbnailType;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
+import androidx.core.content.ContextCompat;
 
 import com.google.common.base.Stopwatch;
 
 import org.schabi.newpipe.extractor.stream.Frameset;
 import org.schabi.newpipe.util.PicassoHelper;
 
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.Supplier;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class SeekbarPreviewThumbnailHolder {
 
@@ -32,68 +33,135 @@ public class SeekbarPreviewThumbnailHolder {
     // https://stackoverflow.com/a/54744028
     public static final String TAG = "SeekbarPrevThumbHolder";
 
-    // Key = Position of the picture in milliseconds
-    // Supplier = Supplies the bitmap for that position
-    private final Map<Integer, Supplier<Bitmap>> seekbarPreviewData = new ConcurrentHashMap<>();
+    /**
+     * Number of storyboard sheets downloaded at the same time.
+     */
+    private static final int SHEET_FETCH_THREADS = 3;
 
-    // This ensures that if the reset is still undergoing
-    // and another reset starts, only the last reset is processed
-    private UUID currentUpdateRequestIdentifier = UUID.randomUUID();
+    /**
+     * Part of the memory available to the app (its memory class) used to keep cropped frames.
+     */
+    private static final int FRAME_CACHE_MEMORY_CLASS_DIVISOR = 64;
 
+    /**
+     * Width of the frames of the storyboards generated from downloads.
+     */
+    private static final int LOCAL_FRAME_WIDTH_HIGH_QUALITY = 320;
+    private static final int LOCAL_FRAME_WIDTH_LOW_QUALITY = 160;
+
+    // The data of the latest reset, replaced as a whole so that the sheets downloaded for a
+    // previous reset are never mixed with the current ones
+    @Nullable
+    private volatile PreviewData previewData;
+
+    @Nullable
+    private ExecutorService sheetExecutor;
+
+    /**
+     * Starts generating the preview frames of a stream, in background.
+     * <p>
+     * The storyboard generated from a download of the stream is preferred, since it is loaded
+     * from the disk. If there is none, the framesets of the stream are used, and if the stream
+     * has no framesets either, a storyboard is generated from its download, if any.
+     * </p>
+     *
+     * @param context    the context used to read the preferences and find the downloads
+     * @param streamUrl  the url of the stream
+     * @param framesets  the framesets of the stream
+     * @param positionMs the current playback position, whose storyboard sheet is downloaded first
+     */
     public synchronized void resetFrom(
             @NonNull final Context context,
-            final List<Frameset> framesets) {
+            @NonNull final String streamUrl,
+            final List<Frameset> framesets,
+            final long positionMs) {
+
+        // abort the downloads of the previous reset, only the last reset is processed
+        if (sheetExecutor != null) {
+            sheetExecutor.shutdownNow();
+            sheetExecutor = null;
+        }
+        if (previewData != null) {
+            previewData.cancelled = true;
+        }
+
+        Log.d(TAG, "Clearing seekbarPreviewData");
+        previewData = null;
 
         final int seekbarPreviewType =
                 SeekbarPreviewThumbnailHelper.getSeekbarPreviewThumbnailType(context);
+        if (seekbarPreviewType == SeekbarPreviewThumbnailType.NONE) {
+            Log.d(TAG, "Not processing seekbarPreviewData due to settings");
+            return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        final ExecutorService executor = Executors.newFixedThreadPool(SHEET_FETCH_THREADS);
+        sheetExecutor = executor;
+        executor.submit(() -> {
+            final Frameset frameset =
+                    getFrameset(appContext, streamUrl, framesets, seekbarPreviewType);
+            if (frameset == null || frameset.getUrls().isEmpty()
+                    || frameset.getTotalCount() <= 0) {
+                Log.d(TAG, "No frameset was found to fill seekbarPreviewData");
+                executor.shutdown();
+                return;
+            }
 
-        final UUID updateRequestIdentifier = UUID.randomUUID();
-        this.currentUpdateRequestIdentifier = updateRequestIdentifier;
+            Log.d(TAG, "Frameset quality info: "
+                    + "[width=" + frameset.getFrameWidth()
+                    + ", heigh=" + frameset.getFrameHeight() + "]");
+
+            final PreviewData data = new PreviewData(frameset, getFrameCacheSize(appContext));
+            data.priorityPositionMs = positionMs;
+            synchronized (this) {
+                if (executor != sheetExecutor) {
+                    // a newer reset happened meanwhile
+                    return;
+                }
+                previewData = data;
+            }
 
-        final ExecutorService executorService = Executors.newSingleThreadExecutor();
-        executorService.submit(() -> {
             try {
-                resetFromAsync(seekbarPreviewType, framesets, updateRequestIdentifier);
-            } catch (final Exception ex) {
-                Log.e(TAG, "Failed to execute async", ex);
+                for (int i = 1; i < Math.min(SHEET_FETCH_THREADS, data.sheets.length()); i++) {
+                    executor.submit(() -> fetchSheets(data));
+                }
+                // ensure that the executorService stops/destroys its threads
+                // after the tasks are finished
+                executor.shutdown();
+            } catch (final RejectedExecutionException e) {
+                // a newer reset happened meanwhile
+                return;
             }
+            fetchSheets(data);
         });
-        // ensure that the executorService stops/destroys it's threads
-        // after the task is finished
-        executorService.shutdown();
     }
 
-    private void resetFromAsync(
-            final int seekbarPreviewType,
-            final List<Frameset> framesets,
-            final UUID updateRequestIdentifier) {
-
-        Log.d(TAG, "Clearing seekbarPreviewData");
-        seekbarPreviewData.clear();
-
-        if (seekbarPreviewType == SeekbarPreviewThumbnailType.NONE) {
-            Log.d(TAG, "Not processing seekbarPreviewData due to settings");
-            return;
+    @Nullable
+    private Frameset getFrameset(@NonNull final Context context,
+                                 @NonNull final String streamUrl,
+                                 @Nullable final List<Frameset> framesets,
+                                 final int seekbarPreviewType) {
+        final int localFrameWidth = seekbarPreviewType == SeekbarPreviewThumbnailType.HIGH_QUALITY
+                ? LOCAL_FRAME_WIDTH_HIGH_QUALITY : LOCAL_FRAME_WIDTH_LOW_QUALITY;
+
+        Frameset frameset = LocalStoryboards.find(context, streamUrl, localFrameWidth);
+        if (frameset != null) {
+            Log.d(TAG, "Using the storyboard of the downloaded stream");
+            return frameset;
         }
 
-        final Frameset frameset = getFrameSetForType(framesets, seekbarPreviewType);
-        if (frameset == null) {
-            Log.d(TAG, "No frameset was found to fill seekbarPreviewData");
-            return;
+        if (framesets != null) {
+            frameset = getFrameSetForType(framesets, seekbarPreviewType);
         }
-
-        Log.d(TAG, "Frameset quality info: "
-                + "[width=" + frameset.getFrameWidth()
-                + ", heigh=" + frameset.getFrameHeight() + "]");
-
-        // Abort method execution if we are not the latest request
-        if (!isRequestIdentifierCurrent(updateRequestIdentifier)) {
-            return;
+        if (frameset == null) {
+            Log.d(TAG, "Generating the storyboard of the downloaded stream, if any");
+            frameset = LocalStoryboards.getOrGenerate(context, streamUrl, localFrameWidth);
         }
-
-        generateDataFrom(frameset, updateRequestIdentifier);
+        return frameset;
     }
 
+    @Nullable
     private Frameset getFrameSetForType(
             final List<Frameset> framesets,
             final int seekbarPreviewType) {
@@ -111,61 +179,22 @@ public class SeekbarPreviewThumbnailHolder {
         }
     }
 
-    private void generateDataFrom(
-            final Frameset frameset,
-            final UUID updateRequestIdentifier) {
-
-        Log.d(TAG, "Starting generation of seekbarPreviewData");
+    /**
+     * Downloads storyboard sheets until none is left, always picking the one nearest to the last
+     * requested position. Runs on a worker thread.
+     */
+    private void fetchSheets(@NonNull final PreviewData data) {
         final Stopwatch sw = Log.isLoggable(TAG, Log.DEBUG) ? Stopwatch.createStarted() : null;
 
-        int currentPosMs = 0;
-        int pos = 1;
-
-        final int frameCountPerUrl = frameset.getFramesPerPageX() * frameset.getFramesPerPageY();
-
-        // Process each url in the frameset
-        for (final String url : frameset.getUrls()) {
-            // get the bitmap
-            final Bitmap srcBitMap = getBitMapFrom(url);
-
-            // The data is not added directly to "seekbarPreviewData" due to
-            // concurrency and checks for "updateRequestIdentifier"
-            final Map<Integer, Supplier<Bitmap>> generatedDataForUrl = new HashMap<>();
-
-            // The bitmap consists of several images, which we process here
-            // foreach frame in the returned bitmap
-            for (int i = 0; i < frameCountPerUrl; i++) {
-                // Frames outside the video length are skipped
-                if (pos > frameset.getTotalCount()) {
-                    break;
-                }
-
-                // Get the bounds where the frame is found
-                final int[] bounds = frameset.getFrameBoundsAt(currentPosMs);
-                generatedDataForUrl.put(currentPosMs, () -> {
-                    // It can happen, that the original bitmap could not be downloaded
-                    // In such a case - we don't want a NullPointer - simply return null
-                    if (srcBitMap == null) {
-                        return null;
-                    }
-
-                    // Cut out the corresponding bitmap form the "srcBitMap"
-                    return Bitmap.createBitmap(srcBitMap, bounds[1], bounds[2],
-                            frameset.getFrameWidth(), frameset.getFrameHeight());
-                });
-
-                currentPosMs += frameset.getDurationPerFrame();
-                pos++;
-            }
-
-            // Check if we are still the latest request
-            // If not abort method execution
-            if (isRequestIdentifierCurrent(updateRequestIdentifier)) {
-                seekbarPreviewData.putAll(generatedDataForUrl);
-            } else {
-                Log.d(TAG, "Aborted of generation of seekbarPreviewData");
+        while (!data.cancelled) {
+            final int sheet = data.nextSheetToFetch();
+            if (sheet == -1) {
                 break;
             }
+            final Bitmap bitmap = getBitMapFrom(data.frameset.getUrls().get(sheet));
+            if (bitmap != null) {
+                data.sheets.set(sheet, bitmap);
+            }
         }
 
         if (sw != null) {
@@ -204,36 +233,177 @@ public class SeekbarPreviewThumbnailHolder {
         }
     }
 
-    private boolean isRequestIdentifierCurrent(final UUID requestIdentifier) {
-        return this.currentUpdateRequestIdentifier.equals(requestIdentifier);
+    private static int getFrameCacheSize(@NonNull final Context context) {
+        final ActivityManager activityManager =
+                ContextCompat.getSystemService(context, ActivityManager.class);
+        final int memoryClassMb = activityManager == null ? 32 : activityManager.getMemoryClass();
+        return memoryClassMb * 1024 * 1024 / FRAME_CACHE_MEMORY_CLASS_DIVISOR;
     }
 
-
     public Optional<Bitmap> getBitmapAt(final int positionInMs) {
-        // Check if the BitmapData is empty
-        if (seekbarPreviewData.isEmpty()) {
+        final PreviewData data = previewData;
+        if (data == null) {
             return Optional.empty();
         }
 
-        // Get the closest frame to the requested position
-        final int closestIndexPosition =
-                seekbarPreviewData.keySet().stream()
-                        .min(Comparator.comparingInt(i -> Math.abs(i - positionInMs)))
-                        .orElse(-1);
-
-        // this should never happen, because
-        // it indicates that "seekbarPreviewData" is empty which was already checked
-        if (closestIndexPosition == -1) {
-            return Optional.empty();
-        }
+        // the sheets near the scrubbing position are downloaded first
+        data.priorityPositionMs = positionInMs;
 
         try {
-            // Get the bitmap for the position (executes the supplier)
-            return Optional.ofNullable(seekbarPreviewData.get(closestIndexPosition).get());
+            return Optional.ofNullable(data.getFrameAt(positionInMs));
         } catch (final Exception ex) {
             // If there is an error, log it and return Optional.empty
             Log.w(TAG, "Unable to get seekbar preview", ex);
             return Optional.empty();
         }
     }
+
+    /**
+     * The frames of a frameset: their timestamps, the storyboard sheets downloaded so far and a
+     * cache of the frames already cut out of them.
+     */
+    private static final class PreviewData {
+        @NonNull
+        private final Frameset frameset;
+        private final int framesPerSheet;
+        /**
+         * The position of every frame, in milliseconds, sorted.
+         */
+        @NonNull
+        private final int[] timestamps;
+        @NonNull
+        private final AtomicReferenceArray<Bitmap> sheets;
+        /**
+         * Whether the sheet at the same index was already picked by a worker.
+         */
+        @NonNull
+        private final boolean[] sheetsFetched;
+        /**
+         * Cropped frames, by frame index.
+         */
+        @NonNull
+        private final LruCache<Integer, Bitmap> frameCache;
+
+        private volatile boolean cancelled;
+        private volatile long priorityPositionMs;
+
+        PreviewData(@NonNull final Frameset frameset, final int frameCacheSize) {
+            this.frameset = frameset;
+            this.framesPerSheet = Math.max(1,
+                    frameset.getFramesPerPageX() * frameset.getFramesPerPageY());
+
+            // Frames outside the video length are skipped
+            final int frameCount = Math.min(frameset.getTotalCount(),
+                    frameset.getUrls().size() * framesPerSheet);
+            timestamps = new int[frameCount];
+            for (int i = 0; i < frameCount; i++) {
+                timestamps[i] = i * frameset.getDurationPerFrame();
+            }
+
+            sheets = new AtomicReferenceArray<>(
+                    (frameCount + framesPerSheet - 1) / framesPerSheet);
+            sheetsFetched = new boolean[sheets.length()];
+            frameCache = new LruCache<Integer, Bitmap>(frameCacheSize) {
+                @Override
+                protected int sizeOf(@NonNull final Integer key, @NonNull final Bitmap value) {
+                    return value.getByteCount();
+                }
+            };
+        }
+
+        /**
+         * @return the index of the sheet not fetched yet which is nearest to the priority
+         * position, or {@code -1} if all sheets were fetched
+         */
+        synchronized int nextSheetToFetch() {
+            final int prioritySheet = getFrameIndex(priorityPositionMs) / framesPerSheet;
+            for (int distance = 0; distance < sheetsFetched.length; distance++) {
+                // prefer the sheets after the position, since playback goes forward
+                for (final int sheet : new int[]{prioritySheet + distance,
+                        prioritySheet - distance}) {
+                    if (sheet >= 0 && sheet < sheetsFetched.length && !sheetsFetched[sheet]) {
+                        sheetsFetched[sheet] = true;
+                        return sheet;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the index of the frame nearest to the given position, found by binary search
+         */
+        int getFrameIndex(final long positionMs) {
+            final int index = Arrays.binarySearch(timestamps,
+                    (int) Math.min(Integer.MAX_VALUE, Math.max(0, positionMs)));
+            if (index >= 0) {
+                return index;
+            }
+
+            final int insertionPoint = -index - 1;
+            if (insertionPoint == 0) {
+                return 0;
+            } else if (insertionPoint >= timestamps.length) {
+                return timestamps.length - 1;
+            }
+            // pick the closest of the two frames around the position
+            return positionMs - timestamps[insertionPoint - 1]
+                    <= timestamps[insertionPoint] - positionMs
+                    ? insertionPoint - 1 : insertionPoint;
+        }
+
+        /**
+         * @return the frame nearest to the given position among the ones whose sheet was already
+         * downloaded, or {@code null} if no sheet was downloaded yet
+         */
+        @Nullable
+        Bitmap getFrameAt(final int positionMs) {
+            if (timestamps.length == 0) {
+                return null;
+            }
+
+            final int frameIndex = getFrameIndex(positionMs);
+            final Bitmap cached = frameCache.get(frameIndex);
+            if (cached != null) {
+                return cached;
+            }
+
+            int sheet = frameIndex / framesPerSheet;
+            int frame = frameIndex;
+            if (sheets.get(sheet) == null) {
+                // use the nearest frame of the nearest downloaded sheet
+                sheet = getNearestDownloadedSheet(sheet);
+                if (sheet == -1) {
+                    return null;
+                }
+                frame = sheet < frameIndex / framesPerSheet
+                        ? Math.min(timestamps.length, (sheet + 1) * framesPerSheet) - 1
+                        : sheet * framesPerSheet;
+                final Bitmap nearestCached = frameCache.get(frame);
+                if (nearestCached != null) {
+                    return nearestCached;
+                }
+            }
+
+            final Bitmap sheetBitmap = sheets.get(sheet);
+            // Cut out the corresponding bitmap from the sheet
+            final int[] bounds = frameset.getFrameBoundsAt(timestamps[frame]);
+            final Bitmap frameBitmap = Bitmap.createBitmap(sheetBitmap, bounds[1], bounds[2],
+                    frameset.getFrameWidth(), frameset.getFrameHeight());
+            frameCache.put(frame, frameBitmap);
+            return frameBitmap;
+        }
+
+        private int getNearestDownloadedSheet(final int sheet) {
+            for (int distance = 1; distance < sheets.length(); distance++) {
+                if (sheet - distance >= 0 && sheets.get(sheet - distance) != null) {
+                    return sheet - distance;
+                }
+                if (sheet + distance < sheets.length() && sheets.get(sheet + distance) != null) {
+                    return sheet + distance;
+                }
+            }
+            return -1;
+        }
+    }
 }
@@ -307,10 +307,12 @@ public final class MainPlayerUi extends VideoPlayerUi implements View.OnLayoutCh
             }
         } else if (VideoDetailFragment.ACTION_VIDEO_FRAGMENT_STOPPED.equals(intent.getAction())) {
             fragmentIsVisible = false;
+            updateProgressUpdatesRequest();
             onFragmentStopped();
         } else if (VideoDetailFragment.ACTION_VIDEO_FRAGMENT_RESUMED.equals(intent.getAction())) {
             // Restore video source when user returns to the fragment
             fragmentIsVisible = true;
+            updateProgressUpdatesRequest();
             player.useVideoSource(true);
 
             // When a user returns from background, the system UI will always be shown even if
@@ -332,6 +334,9 @@ public final class MainPlayerUi extends VideoPlayerUi implements View.OnLayoutCh
     public void onFragmentListenerSet() {
         super.onFragmentListenerSet();
         fragmentIsVisible = true;
+        if (!player.exoPlayerIsNull()) {
+            updateProgressUpdatesRequest();
+        }
         // Apply window insets because Android will not do it when orientation changes
         // from landscape to portrait
         if (!isFullscreen) {
@@ -372,6 +377,12 @@ public final class MainPlayerUi extends VideoPlayerUi implements View.OnLayoutCh
     //////////////////////////////////////////////////////////////////////////*/
     //region Playback states
 
+    @Override
+    protected boolean isProgressVisible() {
+        // the player is only shown inside the video detail fragment
+        return fragmentIsVisible;
+    }
+
     @Override
     public void onUpdateProgress(final int currentProgress,
                                  final int duration,
@@ -112,8 +112,8 @@ public abstract class PlayerUi {
 
     /**
      * Called when stream progress (i.e. the current time in the seekbar) or stream duration change.
-     * Will surely be called every {@link Player#PROGRESS_LOOP_INTERVAL_MILLIS} while a stream is
-     * playing.
+     * Will be called periodically while a stream is playing, but only if some UI or listener
+     * requested progress updates with {@link Player#requestProgressUpdates(Object)}.
      * @param currentProgress the current progress in milliseconds
      * @param duration        the duration of the stream being played
      * @param bufferPercent   the percentage of stream already buffered, see {@link
@@ -363,6 +363,7 @@ public abstract class VideoPlayerUi extends PlayerUi
     public void initPlayer() {
         super.initPlayer();
         setupVideoSurfaceIfNeeded();
+        updateProgressUpdatesRequest();
     }
 
     @Override
@@ -379,11 +380,13 @@ public abstract class VideoPlayerUi extends PlayerUi
     public void destroyPlayer() {
         super.destroyPlayer();
         clearVideoSurface();
+        player.cancelProgressUpdates(this);
     }
 
     @Override
     public void destroy() {
         super.destroy();
+        player.cancelProgressUpdates(this);
         binding.endScreen.setImageDrawable(null);
         deinitPlayerSeekOverlay();
         deinitListeners();
@@ -481,6 +484,26 @@ public abstract class VideoPlayerUi extends PlayerUi
     //////////////////////////////////////////////////////////////////////////*/
     //region Progress loop and updates
 
+    /**
+     * @return whether the progress is visible to the user, i.e. whether this UI needs the
+     * periodic progress updates of the player
+     */
+    protected boolean isProgressVisible() {
+        return true;
+    }
+
+    /**
+     * Requests or cancels the periodic progress updates of the player, depending on {@link
+     * #isProgressVisible()}. To be called whenever its value may have changed.
+     */
+    protected void updateProgressUpdatesRequest() {
+        if (isProgressVisible()) {
+            player.requestProgressUpdates(this);
+        } else {
+            player.cancelProgressUpdates(this);
+        }
+    }
+
     @Override
     public void onUpdateProgress(final int currentProgress,
                                  final int duration,
@@ -967,7 +990,8 @@ public abstract class VideoPlayerUi extends PlayerUi
         binding.titleTextView.setText(info.getName());
         binding.channelTextView.setText(info.getUploaderName());
 
-        this.seekbarPreviewThumbnailHolder.resetFrom(player.getContext(), info.getPreviewFrames());
+        this.seekbarPreviewThumbnailHolder.resetFrom(player.getContext(), info.getUrl(),
+                info.getPreviewFrames(), player.getExoPlayer().getCurrentPosition());
     }
 
     private void updateStreamRelatedViews() {
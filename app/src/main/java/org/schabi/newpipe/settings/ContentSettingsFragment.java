@@ -27,6 +27,7 @@ import org.schabi.newpipe.error.ErrorUtil;
 import org.schabi.newpipe.extractor.NewPipe;
 import org.schabi.newpipe.extractor.localization.ContentCountry;
 import org.schabi.newpipe.extractor.localization.Localization;
+import org.schabi.newpipe.local.history.StreamProgressIndex;
 import org.schabi.newpipe.streams.io.NoFileManagerSafeGuard;
 import org.schabi.newpipe.streams.io.StoredFileHelper;
 import org.schabi.newpipe.util.NavigationHelper;
@@ -220,6 +221,9 @@ public class ContentSettingsFragment extends BasePreferenceFragment {
                 Toast.makeText(getContext(), R.string.could_not_import_all_files, Toast.LENGTH_LONG)
                     .show();
             }
+            // the progress of the replaced database must not be shown until the app restarts,
+            // the index is loaded from the imported database afterwards
+            StreamProgressIndex.getInstance(requireContext()).clear();
 
             // if settings file exist, ask if it should be imported.
             if (manager.extractSettings(file)) {
@@ -1,11 +1,13 @@
 package org.schabi.newpipe.settings;
 
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.os.Build;
 import android.os.Bundle;
 import android.provider.Settings;
 import android.text.format.DateUtils;
+import android.text.format.Formatter;
 import android.widget.Toast;
 
 import androidx.preference.ListPreference;
@@ -13,6 +15,7 @@ import androidx.preference.ListPreference;
 import com.google.android.material.snackbar.Snackbar;
 
 import org.schabi.newpipe.R;
+import org.schabi.newpipe.player.helper.PlayerCache;
 import org.schabi.newpipe.util.PermissionHelper;
 
 import java.util.LinkedList;
@@ -26,6 +29,15 @@ public class VideoAudioSettingsFragment extends BasePreferenceFragment {
         addPreferencesFromResourceRegistry();
 
         updateSeekOptions();
+        updatePlayerCacheStats();
+
+        requirePreference(R.string.player_cache_stats_key).setOnPreferenceClickListener(p -> {
+            PlayerCache.getInstance(requireContext()).resetStats(requireContext());
+            updatePlayerCacheStats();
+            Toast.makeText(getContext(), R.string.player_cache_stats_reset, Toast.LENGTH_SHORT)
+                    .show();
+            return true;
+        });
 
         listener = (sharedPreferences, s) -> {
 
@@ -48,6 +60,9 @@ public class VideoAudioSettingsFragment extends BasePreferenceFragment {
                 }
             } else if (s.equals(getString(R.string.use_inexact_seek_key))) {
                 updateSeekOptions();
+            } else if (s.equals(getString(R.string.player_cache_size_key))) {
+                // getInstance() applies the new size
+                updatePlayerCacheStats();
             }
         };
     }
@@ -103,6 +118,18 @@ public class VideoAudioSettingsFragment extends BasePreferenceFragment {
         }
     }
 
+    private void updatePlayerCacheStats() {
+        final Context context = requireContext();
+        final PlayerCache cache = PlayerCache.getInstance(context);
+        requirePreference(R.string.player_cache_stats_key).setSummary(getString(
+                R.string.player_cache_stats_summary,
+                Formatter.formatShortFileSize(context, cache.getCacheSpace()),
+                Formatter.formatShortFileSize(context, cache.getMaximumCacheSpace()),
+                Formatter.formatShortFileSize(context, cache.getCachedBytes()),
+                String.valueOf(Math.round(cache.getHitRatio() * 100)),
+                Formatter.formatShortFileSize(context, cache.getNetworkBytes())));
+    }
+
     @Override
     public void onResume() {
         super.onResume();
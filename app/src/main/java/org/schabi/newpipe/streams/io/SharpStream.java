@@ -60,6 +60,27 @@ public abstract class SharpStream implements Closeable, Flushable {
         throw new IOException("Not implemented");
     }
 
+    /**
+     * Resizes the stream reserving the storage space up front. The default implementation only
+     * sets the length.
+     *
+     * @param length the new length
+     * @return {@code true} if the space was reserved, {@code false} if the stream was only resized
+     * @throws IOException if there is not enough free space or the stream cannot be resized
+     */
+    public boolean preallocate(final long length) throws IOException {
+        setLength(length);
+        return false;
+    }
+
+    /**
+     * @return the available space in bytes of the storage behind this stream, or {@code -1} if
+     * unknown
+     */
+    public long getAvailableSpace() {
+        return -1;
+    }
+
     public void seek(final long offset) throws IOException {
         throw new IOException("Not implemented");
     }
@@ -7,6 +7,8 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
 import android.provider.DocumentsContract;
+import android.system.ErrnoException;
+import android.system.OsConstants;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -228,6 +230,39 @@ public class StoredFileHelper implements Serializable {
         }
     }
 
+    /**
+     * Prepares the file to hold {@code length} bytes. The free space is verified once and the
+     * whole length is reserved up front (if the storage allows it) to avoid fragmentation and
+     * slow out-of-order writes. SAF targets that cannot preallocate are resized (or left as-is)
+     * and grow while written.
+     *
+     * @param length the final length of the file
+     * @return {@code true} if the space was preallocated, otherwise, {@code false}
+     * @throws IOException if there is not enough free space or the file cannot be resized
+     */
+    public boolean preallocate(final long length) throws IOException {
+        assertValid();
+
+        try (SharpStream fs = getStream()) {
+            final long required = length - fs.length();
+            final long available = fs.getAvailableSpace();
+
+            if (available >= 0 && required > available) {
+                throw new IOException("ENOSPC: " + required + " bytes required but only "
+                        + available + " bytes are available",
+                        new ErrnoException("preallocate", OsConstants.ENOSPC));
+            }
+
+            final boolean preallocated = fs.preallocate(length);
+            if (DEBUG) {
+                Log.d(TAG, "preallocate(" + length + ") preallocated=" + preallocated
+                        + " name=" + getName());
+            }
+
+            return preallocated;
+        }
+    }
+
     public boolean delete() {
         if (source == null) {
             return true;
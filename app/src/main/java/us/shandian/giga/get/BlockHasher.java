@@ -0,0 +1,47 @@
+package us.shandian.giga.get;
+
+import androidx.annotation.NonNull;
+
+import java.util.zip.CRC32;
+
+/**
+ * Calculates the hash of every block of a resource written sequentially, used when the blocks
+ * are not downloaded individually (single-thread fallback mode and local copies)
+ */
+class BlockHasher {
+    private final DownloadMission mMission;
+    private final CRC32 mCrc = new CRC32();
+    private long mPosition;
+
+    /**
+     * @param mission the mission where the block hashes are stored
+     */
+    BlockHasher(@NonNull DownloadMission mission) {
+        mMission = mission;
+        mPosition = 0;
+    }
+
+    /**
+     * Updates the hash of the current block, if the block is completed the hash is stored
+     *
+     * @param buffer the written data
+     * @param offset the start offset in the buffer
+     * @param count  the number of bytes written
+     */
+    void update(byte[] buffer, int offset, int count) {
+        while (count > 0) {
+            long blockEnd = (mPosition / DownloadMission.BLOCK_SIZE + 1) * DownloadMission.BLOCK_SIZE;
+            int amount = (int) Math.min(count, blockEnd - mPosition);
+
+            mCrc.update(buffer, offset, amount);
+            mPosition += amount;
+            offset += amount;
+            count -= amount;
+
+            if (mPosition == blockEnd || mPosition == mMission.length) {
+                mMission.setBlockHash((int) ((mPosition - 1) / DownloadMission.BLOCK_SIZE), mCrc.getValue());
+                mCrc.reset();
+            }
+        }
+    }
+}
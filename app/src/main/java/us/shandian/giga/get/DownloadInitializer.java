@@ -1,5 +1,7 @@
 package us.shandian.giga.get;
 
+import android.system.ErrnoException;
+import android.system.OsConstants;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -8,10 +10,14 @@ import androidx.annotation.NonNull;
 import org.schabi.newpipe.streams.io.SharpStream;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
 
+import us.shandian.giga.get.sqlite.FinishedMissionStore;
 import us.shandian.giga.util.Utility;
 
 import static org.schabi.newpipe.BuildConfig.DEBUG;
@@ -41,6 +47,25 @@ public class DownloadInitializer extends Thread {
 
     @Override
     public void run() {
+        MissionMetrics metrics = mMission.getMetrics();
+        boolean ready;
+
+        metrics.begin(MissionMetrics.Phase.PROBE);
+        try {
+            ready = initialize();
+        } finally {
+            metrics.end(MissionMetrics.Phase.PROBE);
+        }
+
+        if (ready) mMission.start();
+    }
+
+    /**
+     * Probes the resource length, the range requests support and prepares the storage
+     *
+     * @return {@code true} if the mission can be started, otherwise, {@code false}
+     */
+    private boolean initialize() {
         if (mMission.current > 0) mMission.resetState(false, true, DownloadMission.ERROR_NOTHING);
 
         int retryCount = 0;
@@ -58,7 +83,7 @@ public class DownloadInitializer extends Thread {
                         mMission.establishConnection(mId, mConn);
                         dispose();
 
-                        if (Thread.interrupted()) return;
+                        if (Thread.interrupted()) return false;
                         long length = Utility.getContentLength(mConn);
 
                         if (i == 0) {
@@ -88,7 +113,7 @@ public class DownloadInitializer extends Thread {
                     mMission.establishConnection(mId, mConn);
                     dispose();
 
-                    if (!mMission.running || Thread.interrupted()) return;
+                    if (!mMission.running || Thread.interrupted()) return false;
 
                     httpCode = mConn.getResponseCode();
                     mMission.length = Utility.getContentLength(mConn);
@@ -96,7 +121,7 @@ public class DownloadInitializer extends Thread {
 
                 if (mMission.length == 0 || httpCode == 204) {
                     mMission.notifyError(DownloadMission.ERROR_HTTP_NO_CONTENT, null);
-                    return;
+                    return false;
                 }
 
                 // check for dynamic generated content
@@ -114,7 +139,7 @@ public class DownloadInitializer extends Thread {
                     mMission.establishConnection(mId, mConn);
                     dispose();
 
-                    if (!mMission.running || Thread.interrupted()) return;
+                    if (!mMission.running || Thread.interrupted()) return false;
 
                     synchronized (mMission.LOCK) {
                         if (mConn.getResponseCode() == 206) {
@@ -144,15 +169,17 @@ public class DownloadInitializer extends Thread {
                         }
                     }
 
-                    if (!mMission.running || Thread.interrupted()) return;
+                    if (!mMission.running || Thread.interrupted()) return false;
                 }
 
-                try (SharpStream fs = mMission.storage.getStream()) {
-                    fs.setLength(mMission.offsets[mMission.current] + mMission.length);
-                    fs.seek(mMission.offsets[mMission.current]);
+                if (!mMission.unknownLength) {
+                    mMission.blockHashes = new long[DownloadMission.getBlockCount(mMission.length)];
                 }
 
-                if (!mMission.running || Thread.interrupted()) return;
+                // reserve the whole resource now, the threads write scattered offsets
+                mMission.storage.preallocate(mMission.offsets[mMission.current] + mMission.length);
+
+                if (!mMission.running || Thread.interrupted()) return false;
 
                 if (!mMission.unknownLength && mMission.recoveryInfo != null) {
                     String entityTag = mConn.getHeaderField("ETAG");
@@ -168,36 +195,142 @@ public class DownloadInitializer extends Thread {
                     }
                 }
 
+                if (deduplicate() && DEBUG) {
+                    Log.d(TAG, "content copied from a finished download");
+                }
+
+                if (!mMission.running || Thread.interrupted()) return false;
+
                 mMission.running = false;
-                break;
+                return true;
             } catch (InterruptedIOException | ClosedByInterruptException e) {
-                return;
+                return false;
             } catch (Exception e) {
-                if (!mMission.running || super.isInterrupted()) return;
+                if (!mMission.running || super.isInterrupted()) return false;
 
                 if (e instanceof DownloadMission.HttpError && ((DownloadMission.HttpError) e).statusCode == ERROR_HTTP_FORBIDDEN) {
                     // for youtube streams. The url has expired
                     interrupt();
                     mMission.doRecover(ERROR_HTTP_FORBIDDEN);
-                    return;
+                    return false;
                 }
 
-                if (e instanceof IOException && e.getMessage().contains("Permission denied")) {
+                String message = e.getMessage();
+                if (e instanceof IOException && message != null && message.contains("Permission denied")) {
                     mMission.notifyError(DownloadMission.ERROR_PERMISSION_DENIED, e);
-                    return;
+                    return false;
+                }
+
+                if (e instanceof IOException && e.getCause() instanceof ErrnoException
+                        && ((ErrnoException) e.getCause()).errno == OsConstants.ENOSPC) {
+                    // retrying is useless, the free space is checked once
+                    mMission.notifyError(DownloadMission.ERROR_INSUFFICIENT_STORAGE, null);
+                    return false;
                 }
 
                 if (retryCount++ > mMission.maxRetry) {
                     Log.e(TAG, "initializer failed", e);
                     mMission.notifyError(e);
-                    return;
+                    return false;
                 }
 
                 Log.e(TAG, "initializer failed, retrying", e);
+                mMission.getMetrics().addRetry();
+            }
+        }
+    }
+
+    /**
+     * Copies the resource from a finished download with identical length and first/last block
+     * hashes instead of downloading it again. Costs two block requests only if exists a
+     * finished download with the same length.
+     *
+     * @return {@code true} if the content was copied, otherwise, {@code false}
+     */
+    private boolean deduplicate() throws IOException, DownloadMission.HttpError {
+        FinishedMissionStore index = mMission.contentIndex;
+
+        if (index == null || mMission.urls.length != 1 || mMission.psAlgorithm != null) return false;
+        if (mMission.unknownLength || mMission.blockHashes == null) return false;
+        if (!index.hasContentOfLength(mMission.length)) return false;
+
+        int count = mMission.blockHashes.length;
+        long head = fetchBlockHash(0);
+        long tail = count > 1 ? fetchBlockHash(count - 1) : head;
+
+        if (head == 0 || tail == 0 || !mMission.running) return false;
+
+        FinishedMission source = index.findContent(mMission.length, head, tail, mMission.storage);
+        if (source == null) return false;
+
+        if (DEBUG) {
+            Log.d(TAG, "identical content found in " + source.storage.getName());
+        }
+
+        // the local file can be changed after the index was written, check the hashes again
+        BlockHasher hasher = new BlockHasher(mMission);
+        long remain = mMission.length;
+
+        try (SharpStream in = source.storage.getStream(); SharpStream out = mMission.storage.getStream()) {
+            out.seek(mMission.offsets[mMission.current]);
+
+            byte[] buf = new byte[DownloadMission.BUFFER_SIZE];
+            int len;
+
+            while (remain > 0 && mMission.running && (len = in.read(buf, 0, (int) Math.min(buf.length, remain))) != -1) {
+                out.write(buf, 0, len);
+                hasher.update(buf, 0, len);
+                remain -= len;
+            }
+        }
+
+        synchronized (mMission.LOCK) {
+            if (remain > 0 || mMission.getHeadHash() != head || mMission.getTailHash() != tail) {
+                Arrays.fill(mMission.blockHashes, 0);
+                return false;
+            }
+
+            // all blocks are done, also avoids the fallback mode
+            mMission.blocks = new int[count];
+            Arrays.fill(mMission.blocks, -1);
+        }
+
+        mMission.notifyProgress(mMission.length);
+        return true;
+    }
+
+    /**
+     * Downloads a block of the current resource without storing it
+     *
+     * @param position the index of the block
+     * @return the block hash, or zero if the server does not support range requests
+     */
+    private long fetchBlockHash(int position) throws IOException, DownloadMission.HttpError {
+        long start = (long) position * DownloadMission.BLOCK_SIZE;
+        long end = Math.min(start + DownloadMission.BLOCK_SIZE, mMission.length) - 1;
+
+        mConn = mMission.openConnection(false, start, end);
+        mMission.establishConnection(mId, mConn);
+
+        if (mConn.getResponseCode() != 206) {
+            dispose();
+            return 0;
+        }
+
+        CRC32 crc = new CRC32();
+        long remain = end - start + 1;
+
+        try (InputStream is = mConn.getInputStream()) {
+            byte[] buf = new byte[DownloadMission.BUFFER_SIZE];
+            int len;
+
+            while (remain > 0 && mMission.running && (len = is.read(buf, 0, (int) Math.min(buf.length, remain))) != -1) {
+                crc.update(buf, 0, len);
+                remain -= len;
             }
         }
 
-        mMission.start();
+        return remain > 0 ? 0 : (crc.getValue() | DownloadMission.HASH_KNOWN);
     }
 
     @Override
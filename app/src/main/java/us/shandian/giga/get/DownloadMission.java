@@ -26,6 +26,8 @@ import java.util.Objects;
 import javax.net.ssl.SSLException;
 
 import org.schabi.newpipe.streams.io.StoredFileHelper;
+import us.shandian.giga.get.MissionMetrics.Phase;
+import us.shandian.giga.get.sqlite.FinishedMissionStore;
 import us.shandian.giga.postprocessing.Postprocessing;
 import us.shandian.giga.service.DownloadManagerService;
 import us.shandian.giga.util.Utility;
@@ -38,6 +40,11 @@ public class DownloadMission extends Mission {
     static final int BUFFER_SIZE = 64 * 1024;
     static final int BLOCK_SIZE = 512 * 1024;
 
+    /**
+     * Flag stored along the CRC32 of a block, a checksum can be zero
+     */
+    static final long HASH_KNOWN = 1L << 32;
+
     private static final String TAG = "DownloadMission";
 
     public static final int ERROR_NOTHING = -1;
@@ -119,11 +126,24 @@ public class DownloadMission extends Mission {
      */
     int[] blocks;
 
+    /**
+     * CRC32 of every block of the current resource (masked with {@link DownloadMission#HASH_KNOWN}),
+     * an entry is zero if the hash is unknown (the block was resumed from a previous session).
+     * Used to detect if the same content was already downloaded by another mission.
+     */
+    long[] blockHashes;
+
     /**
      * Download/File resume offset in fallback mode (if applicable) {@link DownloadRunnableFallback}
      */
     volatile long fallbackResumeOffset;
 
+    /**
+     * ETag (or Last-Modified date) of the resource downloaded in fallback mode, sent in the
+     * {@code If-Range} header when resuming. {@code null} if the server did not provide one
+     */
+    String fallbackValidator;
+
     /**
      * Maximum of download threads running, chosen by the user
      */
@@ -142,6 +162,12 @@ public class DownloadMission extends Mission {
     public Exception errObject = null;
 
     public transient Handler mHandler;
+
+    /**
+     * Index of finished missions, used to copy identical content from a local file instead of
+     * downloading it again. {@code null} if the deduplication is disabled
+     */
+    public transient FinishedMissionStore contentIndex;
     private transient boolean[] blockAcquired;
 
     private transient long writingToFileNext;
@@ -205,6 +231,63 @@ public class DownloadMission extends Mission {
         }
     }
 
+    /**
+     * Gets the metrics of this mission, they are kept in memory only
+     *
+     * @return the metrics
+     */
+    @NonNull
+    public MissionMetrics getMetrics() {
+        return MetricsRegistry.getInstance().of(this);
+    }
+
+    /**
+     * Stores the hash of a fully downloaded block
+     *
+     * @param position the index of the block
+     * @param crc      CRC32 of the block content
+     */
+    void setBlockHash(int position, long crc) {
+        synchronized (LOCK) {
+            if (blockHashes != null && position < blockHashes.length) {
+                blockHashes[position] = crc | HASH_KNOWN;
+            }
+        }
+    }
+
+    /**
+     * Calculates the amount of blocks required to download a resource
+     *
+     * @param length the resource length
+     * @return the amount of blocks
+     */
+    static int getBlockCount(long length) {
+        int count = (int) (length / BLOCK_SIZE);
+        if (((long) count * BLOCK_SIZE) < length) count++;
+        return count;
+    }
+
+    /**
+     * Indicates if the downloaded file can be indexed by its content. Only missions with a single
+     * resource and without post-processing are stored as-is
+     *
+     * @return {@code true} if the first and last block hashes are known, otherwise, {@code false}
+     */
+    public boolean isContentIndexable() {
+        if (urls.length != 1 || psAlgorithm != null || unknownLength) return false;
+        if (blockHashes == null || blockHashes.length < 1) return false;
+
+        return getHeadHash() != 0 && getTailHash() != 0;
+    }
+
+    public long getHeadHash() {
+        return blockHashes == null || blockHashes.length < 1 ? 0 : blockHashes[0];
+    }
+
+    public long getTailHash() {
+        return blockHashes == null || blockHashes.length < 1 ? 0 : blockHashes[blockHashes.length - 1];
+    }
+
     /**
      * Opens a connection
      *
@@ -247,7 +330,9 @@ public class DownloadMission extends Mission {
      * @throws HttpError   if the HTTP Status-Code is not satisfiable
      */
     void establishConnection(int threadId, HttpURLConnection conn) throws IOException, HttpError {
+        long started = System.nanoTime();
         int statusCode = conn.getResponseCode();
+        getMetrics().addRequest(System.nanoTime() - started);
 
         if (DEBUG) {
             Log.d(TAG, threadId + ":[request]  Range=" + conn.getRequestProperty("Range"));
@@ -327,10 +412,11 @@ public class DownloadMission extends Mission {
         }
 
         if (err instanceof IOException) {
-            if (err.getMessage().contains("Permission denied")) {
+            String message = err.getMessage();
+            if (message != null && message.contains("Permission denied")) {
                 code = ERROR_PERMISSION_DENIED;
                 err = null;
-            } else if (err.getMessage().contains("ENOSPC")) {
+            } else if (message != null && message.contains("ENOSPC")) {
                 code = ERROR_INSUFFICIENT_STORAGE;
                 err = null;
             } else if (!storage.canWrite()) {
@@ -342,6 +428,8 @@ public class DownloadMission extends Mission {
         errCode = code;
         errObject = err;
 
+        getMetrics().endAll();
+
         switch (code) {
             case ERROR_SSL_EXCEPTION:
             case ERROR_UNKNOWN_HOST:
@@ -364,6 +452,8 @@ public class DownloadMission extends Mission {
         if (current < urls.length) {
             if (++finishCount < threads.length) return;
 
+            getMetrics().end(Phase.TRANSFER);
+
             if (DEBUG) {
                 Log.d(TAG, "onFinish: downloaded " + (current + 1) + "/" + urls.length);
             }
@@ -461,6 +551,8 @@ public class DownloadMission extends Mission {
         finishCount = 0;
         blockAcquired = new boolean[blocks.length];
 
+        getMetrics().begin(Phase.TRANSFER);
+
         if (blocks.length < 1) {
             threads = new Thread[]{runAsync(1, new DownloadRunnableFallback(this))};
         } else {
@@ -494,6 +586,7 @@ public class DownloadMission extends Mission {
         }
 
         running = false;
+        getMetrics().endAll();
         notify(DownloadManagerService.MESSAGE_PAUSED);
 
         if (init != null && init.isAlive()) {
@@ -548,7 +641,9 @@ public class DownloadMission extends Mission {
         unknownLength = false;
         threads = new Thread[0];
         fallbackResumeOffset = 0;
+        fallbackValidator = null;
         blocks = null;
+        blockHashes = null;
         blockAcquired = null;
 
         if (rollback) current = 0;
@@ -695,6 +790,7 @@ public class DownloadMission extends Mission {
         }
 
         Exception exception = null;
+        getMetrics().begin(Phase.POSTPROCESSING);
 
         try {
             psAlgorithm.run(this);
@@ -710,6 +806,7 @@ public class DownloadMission extends Mission {
 
             exception = err;
         } finally {
+            getMetrics().end(Phase.POSTPROCESSING);
             notifyPostProcessing(errCode == ERROR_NOTHING ? 2 : 0);
         }
 
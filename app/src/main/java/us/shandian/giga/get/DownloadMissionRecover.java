@@ -42,6 +42,17 @@ public class DownloadMissionRecover extends Thread {
 
     @Override
     public void run() {
+        MissionMetrics metrics = mMission.getMetrics();
+
+        metrics.begin(MissionMetrics.Phase.RECOVERY);
+        try {
+            runRecovery();
+        } finally {
+            metrics.end(MissionMetrics.Phase.RECOVERY);
+        }
+    }
+
+    private void runRecovery() {
         if (mMission.source == null) {
             mMission.notifyError(mErrCode, null);
             return;
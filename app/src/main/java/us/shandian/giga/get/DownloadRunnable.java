@@ -9,6 +9,7 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.Objects;
+import java.util.zip.CRC32;
 
 import us.shandian.giga.get.DownloadMission.Block;
 import us.shandian.giga.get.DownloadMission.HttpError;
@@ -46,6 +47,10 @@ public class DownloadRunnable extends Thread {
         int retryCount = 0;
         SharpStream f;
 
+        // the block hash is only known if the whole block is downloaded in this session
+        CRC32 crc = new CRC32();
+        boolean hashing = false;
+
         try {
             f = mMission.storage.getStream();
         } catch (IOException e) {
@@ -70,6 +75,13 @@ public class DownloadRunnable extends Thread {
                     Log.d(TAG, mId + ":acquired block at position=" + block.position + " done=" + block.done);
             }
 
+            if (block.done == 0) {
+                crc.reset();
+                hashing = true;
+            } else if (!retry) {
+                hashing = false;
+            }
+
             long start = (long)block.position * DownloadMission.BLOCK_SIZE;
             long end = start + DownloadMission.BLOCK_SIZE - 1;
 
@@ -110,6 +122,9 @@ public class DownloadRunnable extends Thread {
 
                 f.seek(mMission.offsets[mMission.current] + start);
 
+                long received = start;
+                long started = System.nanoTime();
+
                 try (InputStream is = mConn.getInputStream()) {
                     byte[] buf = new byte[DownloadMission.BUFFER_SIZE];
                     int len;
@@ -118,10 +133,13 @@ public class DownloadRunnable extends Thread {
                     // fixes a deadlock because in some videos, youtube is sending one byte alone
                     while (start <= end && mMission.running && (len = is.read(buf, 0, buf.length)) != -1) {
                         f.write(buf, 0, len);
+                        if (hashing) crc.update(buf, 0, len);
                         start += len;
                         block.done += len;
                         mMission.notifyProgress(len);
                     }
+                } finally {
+                    mMission.getMetrics().addTransfer(start - received, System.nanoTime() - started);
                 }
 
                 if (DEBUG && mMission.running) {
@@ -146,9 +164,14 @@ public class DownloadRunnable extends Thread {
                     break;
                 }
 
+                mMission.getMetrics().addRetry();
+
                 retry = true;
             } finally {
-                if (!retry) releaseBlock(block, end - start);
+                if (!retry) {
+                    if (hashing && start > end) mMission.setBlockHash(block.position, crc.getValue());
+                    releaseBlock(block, end - start);
+                }
             }
         }
 
@@ -6,6 +6,7 @@ import androidx.annotation.NonNull;
 
 import org.schabi.newpipe.streams.io.SharpStream;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -23,12 +24,18 @@ import static us.shandian.giga.get.DownloadMission.ERROR_HTTP_FORBIDDEN;
 public class DownloadRunnableFallback extends Thread {
     private static final String TAG = "DownloadRunnableFallback";
 
+    /**
+     * Amount of bytes between resume checkpoints
+     */
+    private static final int CHECKPOINT_SIZE = DownloadMission.BLOCK_SIZE;
+
     private final DownloadMission mMission;
 
     private int mRetryCount = 0;
     private InputStream mIs;
     private SharpStream mF;
     private HttpURLConnection mConn;
+    private BlockHasher mHasher;
 
     DownloadRunnableFallback(@NonNull DownloadMission mission) {
         mMission = mission;
@@ -53,12 +60,15 @@ public class DownloadRunnableFallback extends Thread {
         boolean done;
         long start = mMission.fallbackResumeOffset;
 
-        if (DEBUG && !mMission.unknownLength && start > 0) {
+        // a resource of unknown length can only be resumed if it can be validated
+        boolean resume = start > 0 && (!mMission.unknownLength || mMission.fallbackValidator != null);
+
+        if (DEBUG && resume) {
             Log.i(TAG, "Resuming a single-thread download at " + start);
         }
 
         try {
-            long rangeStart = (mMission.unknownLength || start < 1) ? -1 : start;
+            long rangeStart = resume ? start : -1;
 
             int mId = 1;
             mConn = mMission.openConnection(false, rangeStart, -1);
@@ -68,39 +78,104 @@ public class DownloadRunnableFallback extends Thread {
                 mConn.setRequestProperty("Range", "bytes=0-");
             }
 
+            if (resume && mMission.fallbackValidator != null) {
+                // if the resource has changed the server replies with the whole content
+                mConn.setRequestProperty("If-Range", mMission.fallbackValidator);
+            }
+
             mMission.establishConnection(mId, mConn);
 
             // check if the download can be resumed
-            if (mConn.getResponseCode() == 416 && start > 0) {
-                mMission.notifyProgress(-start);
-                start = 0;
-                mRetryCount--;
+            if (mConn.getResponseCode() == 416) {
+                if (start > 0) {
+                    mMission.notifyProgress(-start);
+                    start = 0;
+                    mRetryCount--;
+                }
                 throw new DownloadMission.HttpError(416);
             }
 
+            if (start > 0 && (!resume || mConn.getResponseCode() != 206 || isLengthMismatch())) {
+                // the server ignored the range request or the resource has changed
+                if (DEBUG) {
+                    Log.i(TAG, "Cannot resume at " + start + ", restarting. Response code = " + mConn.getResponseCode());
+                }
+                start = 0;
+
+                if (rangeStart > 0 && mConn.getResponseCode() == 206) {
+                    // the partial body does not start at offset 0, request the whole resource
+                    // without the Range and If-Range headers
+                    mConn.disconnect();
+                    mConn = mMission.openConnection(false, -1, -1);
+                    mMission.establishConnection(mId, mConn);
+
+                    if (mConn.getResponseCode() == 206) {
+                        throw new IOException("partial response to a request without range");
+                    }
+                }
+            }
+
+            if (start == 0) {
+                // remember how to validate the resource, used when resuming after a failure
+                String entityTag = mConn.getHeaderField("ETag");
+                mMission.fallbackValidator = entityTag == null || entityTag.isEmpty() ? mConn.getHeaderField("Last-Modified") : entityTag;
+            }
+
             // secondary check for the file length
             if (!mMission.unknownLength)
                 mMission.unknownLength = Utility.getContentLength(mConn) == -1;
 
-            if (mMission.unknownLength || mConn.getResponseCode() == 200) {
-                // restart amount of bytes downloaded
-                mMission.done = mMission.offsets[mMission.current] - mMission.offsets[0];
+            // the resource may have changed since the mission was initialized
+            if (start == 0 && !mMission.unknownLength) {
+                long length = Utility.getContentLength(mConn);
+                if (length != mMission.length) changeLength(length);
+            }
+
+            // restart (or adjust to the resume offset) the amount of bytes downloaded
+            synchronized (mMission) {
+                if (mMission.unknownLength) mMission.length = start;
+                mMission.done = mMission.offsets[mMission.current] - mMission.offsets[0] + start;
             }
+            mMission.fallbackResumeOffset = start;
 
             mF = mMission.storage.getStream();
             mF.seek(mMission.offsets[mMission.current] + start);
 
             mIs = mConn.getInputStream();
 
+            // the block hashes can be calculated only if the whole resource is downloaded now
+            if (start == 0 && !mMission.unknownLength && mMission.blockHashes != null) {
+                mHasher = new BlockHasher(mMission);
+            } else {
+                mHasher = null;
+            }
+
             byte[] buf = new byte[DownloadMission.BUFFER_SIZE];
             int len = 0;
+            long received = start;
+            long started = System.nanoTime();
 
-            while (mMission.running && (len = mIs.read(buf, 0, buf.length)) != -1) {
-                mF.write(buf, 0, len);
-                start += len;
-                mMission.notifyProgress(len);
+            try {
+                while (mMission.running && (len = mIs.read(buf, 0, buf.length)) != -1) {
+                    mF.write(buf, 0, len);
+                    if (mHasher != null) mHasher.update(buf, 0, len);
+                    start += len;
+
+                    if (start - mMission.fallbackResumeOffset >= CHECKPOINT_SIZE) {
+                        // checkpoint, the offset is persisted along the mission state by notifyProgress()
+                        mMission.fallbackResumeOffset = start;
+                    }
+
+                    mMission.notifyProgress(len);
+                }
+            } finally {
+                mMission.getMetrics().addTransfer(start - received, System.nanoTime() - started);
             }
 
+            // some servers (or proxies) close the connection without signaling an error
+            if (len == -1 && !mMission.unknownLength && start < mMission.length)
+                throw new EOFException("premature end of stream at " + start + "/" + mMission.length);
+
             dispose();
 
             // if thread goes interrupted check if the last part is written. This avoid re-download the whole file
@@ -124,6 +199,8 @@ public class DownloadRunnableFallback extends Thread {
                 return;
             }
 
+            mMission.getMetrics().addRetry();
+
             if (DEBUG) {
                 Log.e(TAG, "got exception, retrying...", e);
             }
@@ -139,6 +216,49 @@ public class DownloadRunnableFallback extends Thread {
         }
     }
 
+    /**
+     * Adopts the new length of a resource downloaded again from the start, the file and the
+     * block hashes are resized too
+     *
+     * @param length the length of the whole resource
+     * @throws IOException if the file cannot be resized
+     */
+    private void changeLength(long length) throws IOException {
+        if (DEBUG) {
+            Log.i(TAG, "The resource length changed from " + mMission.length + " to " + length);
+        }
+
+        synchronized (mMission) {
+            mMission.length = length;
+            if (mMission.blockHashes != null)
+                mMission.blockHashes = new long[DownloadMission.getBlockCount(length)];
+        }
+
+        mMission.storage.preallocate(mMission.offsets[mMission.current] + length);
+    }
+
+    /**
+     * Checks the resource length announced in the partial response, if available
+     *
+     * @return {@code true} if the length does not match the expected length, otherwise, {@code false}
+     */
+    private boolean isLengthMismatch() {
+        if (mMission.unknownLength) return false;
+
+        String range = mConn.getHeaderField("Content-Range");
+        if (range == null) return false;
+
+        int slash = range.lastIndexOf('/');
+        if (slash < 0) return false;
+
+        try {
+            String total = range.substring(slash + 1).trim();
+            return !total.equals("*") && Long.parseLong(total) != mMission.length;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     @Override
     public void interrupt() {
         super.interrupt();
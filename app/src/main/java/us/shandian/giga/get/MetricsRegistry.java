@@ -0,0 +1,111 @@
+package us.shandian.giga.get;
+
+import androidx.annotation.NonNull;
+
+import com.grack.nanojson.JsonStringWriter;
+import com.grack.nanojson.JsonWriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process registry of the {@link MissionMetrics} of the recent missions. Nothing is persisted,
+ * the data is meant to tune the amount of threads and the block size
+ */
+public final class MetricsRegistry {
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+    private static final int MAX_MISSIONS = 50;
+
+    private final LinkedHashMap<Long, MissionMetrics> mMissions = new LinkedHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets (or creates) the metrics of a mission
+     *
+     * @param mission the mission
+     * @return the metrics of the mission
+     */
+    @NonNull
+    synchronized MissionMetrics of(@NonNull DownloadMission mission) {
+        MissionMetrics metrics = mMissions.get(mission.timestamp);
+        if (metrics != null) return metrics;
+
+        String name = mission.storage == null ? null : mission.storage.getName();
+        metrics = new MissionMetrics(mission.timestamp, name, mission.threadCount);
+        mMissions.put(mission.timestamp, metrics);
+
+        if (mMissions.size() > MAX_MISSIONS) {
+            Iterator<Long> iterator = mMissions.keySet().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+
+        return metrics;
+    }
+
+    /**
+     * @return the metrics of the recent missions, the newest first
+     */
+    @NonNull
+    public synchronized List<MissionMetrics> getMissions() {
+        ArrayList<MissionMetrics> list = new ArrayList<>(mMissions.values());
+        Collections.reverse(list);
+        return list;
+    }
+
+    public synchronized void clear() {
+        mMissions.clear();
+    }
+
+    /**
+     * Dumps all metrics, missions are also grouped by the amount of threads
+     *
+     * @return the JSON string
+     */
+    @NonNull
+    public String toJson() {
+        List<MissionMetrics> missions = getMissions();
+        Map<Integer, long[]> byThreads = new LinkedHashMap<>();
+
+        JsonStringWriter writer = JsonWriter.string().object();
+
+        writer.array("missions");
+        for (MissionMetrics metrics : missions) {
+            metrics.writeJsonOn(writer);
+
+            long[] totals = byThreads.get(metrics.threadCount);
+            if (totals == null) {
+                totals = new long[3];
+                byThreads.put(metrics.threadCount, totals);
+            }
+            totals[0]++;
+            totals[1] += metrics.getBytes();
+            totals[2] += metrics.getPhaseMillis(MissionMetrics.Phase.TRANSFER);
+        }
+        writer.end();
+
+        writer.array("by_threads");
+        for (Map.Entry<Integer, long[]> entry : byThreads.entrySet()) {
+            long[] totals = entry.getValue();
+            writer.object()
+                    .value("threads", entry.getKey())
+                    .value("missions", totals[0])
+                    .value("bytes", totals[1])
+                    .value("avg_speed", totals[2] < 1 ? 0 : totals[1] * 1000L / totals[2])
+                    .end();
+        }
+        writer.end();
+
+        return writer.end().done();
+    }
+}
@@ -0,0 +1,155 @@
+package us.shandian.giga.get;
+
+import androidx.annotation.NonNull;
+
+import com.grack.nanojson.JsonStringWriter;
+
+import java.util.Locale;
+
+/**
+ * Counters of a single mission: duration of every phase, bytes received, requests, retries and
+ * an histogram of the throughput reached by the download threads
+ */
+public class MissionMetrics {
+
+    public enum Phase {PROBE, TRANSFER, RECOVERY, POSTPROCESSING}
+
+    /**
+     * Upper bounds (exclusive) of the throughput histogram buckets, in KiB/s. The last bucket
+     * holds everything above
+     */
+    public static final int[] THROUGHPUT_BUCKETS = {64, 256, 1024, 4096, 16384};
+
+    public final long timestamp;
+    public final String name;
+    public final int threadCount;
+
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private final long[] phaseStarted = new long[Phase.values().length];
+    private final int[] phaseCount = new int[Phase.values().length];
+    private final int[] throughput = new int[THROUGHPUT_BUCKETS.length + 1];
+
+    private long bytes;
+    private int requests;
+    private long responseNanos;
+    private int retries;
+
+    MissionMetrics(long timestamp, String name, int threadCount) {
+        this.timestamp = timestamp;
+        this.name = name;
+        this.threadCount = threadCount;
+    }
+
+    synchronized void begin(@NonNull Phase phase) {
+        if (phaseStarted[phase.ordinal()] == 0) phaseStarted[phase.ordinal()] = System.nanoTime();
+    }
+
+    /**
+     * Ends a phase, does nothing if the phase was not started
+     */
+    synchronized void end(@NonNull Phase phase) {
+        int i = phase.ordinal();
+        if (phaseStarted[i] == 0) return;
+
+        phaseNanos[i] += System.nanoTime() - phaseStarted[i];
+        phaseCount[i]++;
+        phaseStarted[i] = 0;
+    }
+
+    /**
+     * Ends every started phase, used when the mission stops (fails or is paused) so the time
+     * spent until its threads are stopped is not accounted
+     */
+    synchronized void endAll() {
+        for (Phase phase : Phase.values()) end(phase);
+    }
+
+    /**
+     * @param nanos time elapsed between opening the connection and receiving the response code
+     */
+    synchronized void addRequest(long nanos) {
+        requests++;
+        responseNanos += nanos;
+    }
+
+    synchronized void addRetry() {
+        retries++;
+    }
+
+    /**
+     * Adds the amount of bytes received in a single response
+     *
+     * @param amount bytes received
+     * @param nanos  time spent reading the response body
+     */
+    synchronized void addTransfer(long amount, long nanos) {
+        if (amount < 1) return;
+        bytes += amount;
+
+        if (nanos < 1) return;
+        double kibPerSecond = (amount / 1024d) / (nanos / 1e9d);
+
+        int bucket = 0;
+        while (bucket < THROUGHPUT_BUCKETS.length && kibPerSecond >= THROUGHPUT_BUCKETS[bucket]) {
+            bucket++;
+        }
+        throughput[bucket]++;
+    }
+
+    public synchronized long getPhaseMillis(@NonNull Phase phase) {
+        return phaseNanos[phase.ordinal()] / 1000000L;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getRequests() {
+        return requests;
+    }
+
+    public synchronized int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return average speed of the transfer phase in bytes per second, or zero if unknown
+     */
+    public synchronized double getAverageSpeed() {
+        long nanos = phaseNanos[Phase.TRANSFER.ordinal()];
+        return nanos < 1 ? 0 : bytes / (nanos / 1e9d);
+    }
+
+    public synchronized void writeJsonOn(@NonNull JsonStringWriter writer) {
+        writer.object()
+                .value("timestamp", timestamp)
+                .value("name", name)
+                .value("threads", threadCount)
+                .value("bytes", bytes)
+                .value("requests", requests)
+                .value("avg_response_ms", requests < 1 ? 0 : responseNanos / requests / 1000000L)
+                .value("retries", retries)
+                .value("avg_speed", (long) getAverageSpeed());
+
+        writer.object("phases");
+        for (Phase phase : Phase.values()) {
+            writer.object(phase.name().toLowerCase(Locale.ROOT))
+                    .value("ms", phaseNanos[phase.ordinal()] / 1000000L)
+                    .value("count", phaseCount[phase.ordinal()])
+                    .end();
+        }
+        writer.end();
+
+        writer.array("throughput_kib");
+        for (int i = 0; i < throughput.length; i++) {
+            writer.object()
+                    .value("from", i == 0 ? 0 : THROUGHPUT_BUCKETS[i - 1])
+                    .value("to", i < THROUGHPUT_BUCKETS.length ? THROUGHPUT_BUCKETS[i] : -1)
+                    .value("count", throughput[i])
+                    .end();
+        }
+        writer.end();
+
+        writer.end();
+    }
+}
@@ -9,6 +9,7 @@ import android.net.Uri;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -27,7 +28,7 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
     // TODO: use NewPipeSQLiteHelper ('s constants) when playlist branch is merged (?)
     private static final String DATABASE_NAME = "downloads.db";
 
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 5;
 
     /**
      * The table name of download missions (old)
@@ -56,6 +57,13 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
 
     private static final String KEY_PATH = "path";
 
+    /**
+     * The keys to the hashes of the first and last block, zero if the content is not indexable
+     */
+    private static final String KEY_HEAD_HASH = "head_hash";
+
+    private static final String KEY_TAIL_HASH = "tail_hash";
+
     /**
      * The statement to create the table
      */
@@ -66,6 +74,8 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
                     KEY_DONE + " INTEGER NOT NULL, " +
                     KEY_TIMESTAMP + " INTEGER NOT NULL, " +
                     KEY_KIND + " TEXT NOT NULL, " +
+                    KEY_HEAD_HASH + " INTEGER NOT NULL DEFAULT 0, " +
+                    KEY_TAIL_HASH + " INTEGER NOT NULL DEFAULT 0, " +
                     " UNIQUE(" + KEY_TIMESTAMP + ", " + KEY_PATH + "));";
 
 
@@ -122,6 +132,11 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
             cursor.close();
             db.execSQL("DROP TABLE " + MISSIONS_TABLE_NAME_v2);
         }
+
+        if (oldVersion == 4) {
+            db.execSQL("ALTER TABLE " + FINISHED_TABLE_NAME + " ADD COLUMN " + KEY_HEAD_HASH + " INTEGER NOT NULL DEFAULT 0;");
+            db.execSQL("ALTER TABLE " + FINISHED_TABLE_NAME + " ADD COLUMN " + KEY_TAIL_HASH + " INTEGER NOT NULL DEFAULT 0;");
+        }
     }
 
     /**
@@ -186,10 +201,85 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
 
     public void addFinishedMission(DownloadMission downloadMission) {
         ContentValues values = getValuesOfMission(Objects.requireNonNull(downloadMission));
+        if (downloadMission.isContentIndexable()) {
+            values.put(KEY_HEAD_HASH, downloadMission.getHeadHash());
+            values.put(KEY_TAIL_HASH, downloadMission.getTailHash());
+        }
         SQLiteDatabase database = getWritableDatabase();
         database.insert(FINISHED_TABLE_NAME, null, values);
     }
 
+    /**
+     * Checks if exists indexed content with the given length, this is cheap and avoids
+     * requesting the block hashes of the new resource
+     *
+     * @param length the content length
+     * @return {@code true} if at least one finished mission can be a candidate, otherwise, {@code false}
+     */
+    public boolean hasContentOfLength(long length) {
+        SQLiteDatabase database = getReadableDatabase();
+        try (Cursor cursor = database.query(FINISHED_TABLE_NAME, new String[]{KEY_TIMESTAMP},
+                KEY_DONE + " = ? AND " + KEY_HEAD_HASH + " != 0",
+                new String[]{String.valueOf(length)}, null, null, null, "1")) {
+            return cursor.getCount() > 0;
+        }
+    }
+
+    /**
+     * Search a finished mission with identical content
+     *
+     * @param length   the content length
+     * @param headHash hash of the first block
+     * @param tailHash hash of the last block
+     * @param target   the file being downloaded, is never picked as source
+     * @return the finished mission, or {@code null} if no such mission exists or its file was changed
+     */
+    @Nullable
+    public FinishedMission findContent(long length, long headHash, long tailHash,
+                                       @NonNull StoredFileHelper target) {
+        SQLiteDatabase database = getReadableDatabase();
+        try (Cursor cursor = database.query(FINISHED_TABLE_NAME, null,
+                KEY_DONE + " = ? AND " + KEY_HEAD_HASH + " = ? AND " + KEY_TAIL_HASH + " = ?",
+                new String[]{String.valueOf(length), String.valueOf(headHash), String.valueOf(tailHash)},
+                null, null, KEY_TIMESTAMP + " DESC")) {
+
+            while (cursor.moveToNext()) {
+                FinishedMission mission = getMissionFromCursor(cursor);
+
+                if (mission.storage.isInvalid() || mission.storage.equals(target)) continue;
+                if (!mission.storage.existsAsFile() || mission.storage.length() != length) continue;
+
+                return mission;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Search the most recent finished mission of the given kind downloaded from a source
+     *
+     * @param source the source url (the url of the stream)
+     * @param kind   the kind of the mission, see {@link Mission#kind}
+     * @return the finished mission, or {@code null} if no such mission exists or its file is gone
+     */
+    @Nullable
+    public FinishedMission findBySource(@NonNull String source, char kind) {
+        SQLiteDatabase database = getReadableDatabase();
+        try (Cursor cursor = database.query(FINISHED_TABLE_NAME, null,
+                KEY_SOURCE + " = ? AND " + KEY_KIND + " = ?",
+                new String[]{source, String.valueOf(kind)}, null, null, KEY_TIMESTAMP + " DESC")) {
+
+            while (cursor.moveToNext()) {
+                FinishedMission mission = getMissionFromCursor(cursor);
+
+                if (!mission.storage.isInvalid() && mission.storage.existsAsFile()) return mission;
+            }
+        }
+
+        return null;
+    }
+
     public void deleteMission(Mission mission) {
         String ts = String.valueOf(Objects.requireNonNull(mission).timestamp);
 
@@ -119,6 +119,33 @@ public class FileStream extends SharpStream {
         source.setLength(length);
     }
 
+    @Override
+    public boolean preallocate(long length) throws IOException {
+        long current = source.length();
+
+        if (length <= current) {
+            source.setLength(length);
+            return true;
+        }
+
+        if (Preallocator.allocate(source.getFD(), current, length - current)) {
+            return true;// posix_fallocate() also updates the file size
+        }
+
+        // not supported by the file system, the file is only resized
+        source.setLength(length);
+        return false;
+    }
+
+    @Override
+    public long getAvailableSpace() {
+        try {
+            return Preallocator.getAvailableSpace(source.getFD());
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
     @Override
     public void seek(long offset) throws IOException {
         source.seek(offset);
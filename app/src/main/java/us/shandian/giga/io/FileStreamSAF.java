@@ -3,6 +3,8 @@ package us.shandian.giga.io;
 import android.content.ContentResolver;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.OsConstants;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -12,6 +14,7 @@ import org.schabi.newpipe.streams.io.SharpStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 public class FileStreamSAF extends SharpStream {
@@ -138,6 +141,37 @@ public class FileStreamSAF extends SharpStream {
         channel.truncate(length);
     }
 
+    @Override
+    public boolean preallocate(long length) throws IOException {
+        long current = channel.size();
+
+        if (length <= current) {
+            channel.truncate(length);
+            return true;
+        }
+
+        if (Preallocator.allocate(file.getFileDescriptor(), current, length - current)) {
+            return true;
+        }
+
+        // the document provider can not preallocate (e.g. virtual or remote files), at least
+        // try to grow the file writing the last byte, otherwise, the file grows while downloading
+        try {
+            channel.write(ByteBuffer.allocate(1), length - 1);
+        } catch (IOException e) {
+            if (e.getCause() instanceof ErrnoException && ((ErrnoException) e.getCause()).errno == OsConstants.ENOSPC)
+                throw e;
+            Log.w("FileStreamSAF", "preallocate() cannot grow the file", e);
+        }
+
+        return false;
+    }
+
+    @Override
+    public long getAvailableSpace() {
+        return Preallocator.getAvailableSpace(file.getFileDescriptor());
+    }
+
     @Override
     public void seek(long offset) throws IOException {
         channel.position(offset);
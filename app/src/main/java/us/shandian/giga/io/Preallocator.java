@@ -0,0 +1,61 @@
+package us.shandian.giga.io;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStatVfs;
+
+import androidx.annotation.NonNull;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Reserves storage space for files opened by {@link FileStream} and {@link FileStreamSAF}.
+ * Preallocating the whole file before the download threads write scattered offsets avoids
+ * fragmentation and slow out-of-order writes on FAT/exFAT external storage.
+ */
+final class Preallocator {
+
+    private Preallocator() {
+    }
+
+    /**
+     * Allocates the disk space in the range [{@code offset}, {@code offset + length})
+     *
+     * @param fd     the file descriptor of the file
+     * @param offset the start of the range, usually the current file length
+     * @param length amount of bytes to allocate
+     * @return {@code true} if the space was allocated, {@code false} if not supported by the
+     * file system or by the document provider
+     * @throws IOException if there is not enough free space
+     */
+    static boolean allocate(@NonNull FileDescriptor fd, long offset, long length) throws IOException {
+        if (length < 1) return true;
+
+        try {
+            Os.posix_fallocate(fd, offset, length);
+            return true;
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC) {
+                throw new IOException("ENOSPC: not enough free space to allocate " + length + " bytes", e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Gets the space available for non-root users in the file system where the file is stored
+     *
+     * @param fd the file descriptor of the file
+     * @return the available space in bytes, or {@code -1} if unknown
+     */
+    static long getAvailableSpace(@NonNull FileDescriptor fd) {
+        try {
+            StructStatVfs stat = Os.fstatvfs(fd);
+            return stat.f_bavail * stat.f_frsize;
+        } catch (ErrnoException | RuntimeException e) {
+            return -1;
+        }
+    }
+}
@@ -51,6 +51,7 @@ public class DownloadManager {
     int mPrefMaxRetry;
     boolean mPrefMeteredDownloads;
     boolean mPrefQueueLimit;
+    boolean mPrefDeduplicate;
     private boolean mSelfMissionsControl;
 
     StoredDirectoryHelper mMainStorageAudio;
@@ -194,6 +195,7 @@ public class DownloadManager {
 
             mis.metadata = sub;
             mis.maxRetry = mPrefMaxRetry;
+            mis.contentIndex = mPrefDeduplicate ? mFinishedMissionStore : null;
             mis.mHandler = mHandler;
 
             mMissionsPending.add(mis);
@@ -213,6 +215,7 @@ public class DownloadManager {
             mission.timestamp = System.currentTimeMillis();
             mission.mHandler = mHandler;
             mission.maxRetry = mPrefMaxRetry;
+            mission.contentIndex = mPrefDeduplicate ? mFinishedMissionStore : null;
 
             // create metadata file
             while (true) {
@@ -510,6 +513,13 @@ public class DownloadManager {
         }
     }
 
+    void updateContentDeduplication() {
+        synchronized (this) {
+            for (DownloadMission mission : mMissionsPending)
+                mission.contentIndex = mPrefDeduplicate ? mFinishedMissionStore : null;
+        }
+    }
+
     public MissionState checkForExistingMission(StoredFileHelper storage) {
         synchronized (this) {
             DownloadMission pending = getPendingMission(storage);
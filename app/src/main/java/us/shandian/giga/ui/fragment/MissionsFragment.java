@@ -38,12 +38,17 @@ import org.schabi.newpipe.util.FilePickerActivityHelper;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import us.shandian.giga.get.DownloadMission;
+import us.shandian.giga.get.MetricsRegistry;
+import us.shandian.giga.get.MissionMetrics;
+import us.shandian.giga.get.MissionMetrics.Phase;
 import us.shandian.giga.service.DownloadManager;
 import us.shandian.giga.service.DownloadManagerService;
 import us.shandian.giga.service.DownloadManagerService.DownloadManagerBinder;
 import us.shandian.giga.ui.adapter.MissionAdapter;
+import us.shandian.giga.util.Utility;
 
 public class MissionsFragment extends Fragment {
 
@@ -197,6 +202,9 @@ public class MissionsFragment extends Fragment {
             case R.id.start_downloads:
                 mBinder.getDownloadManager().startAllMissions();
                 return true;
+            case R.id.download_statistics:
+                showDownloadStatistics();
+                return true;
             case R.id.pause_downloads:
                 mBinder.getDownloadManager().pauseAllMissions(false);
                 mAdapter.refreshMissionItems();// update items view
@@ -220,6 +228,46 @@ public class MissionsFragment extends Fragment {
                 .show();
     }
 
+    private void showDownloadStatistics() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        List<MissionMetrics> missions = registry.getMissions();
+        StringBuilder message = new StringBuilder();
+
+        for (MissionMetrics metrics : missions) {
+            if (message.length() > 0) message.append("\n\n");
+            message.append(getString(R.string.download_statistics_entry,
+                    metrics.name,
+                    metrics.threadCount,
+                    formatMillis(metrics.getPhaseMillis(Phase.PROBE)),
+                    formatMillis(metrics.getPhaseMillis(Phase.TRANSFER)),
+                    formatMillis(metrics.getPhaseMillis(Phase.RECOVERY)),
+                    formatMillis(metrics.getPhaseMillis(Phase.POSTPROCESSING)),
+                    Utility.formatBytes(metrics.getBytes()),
+                    Utility.formatSpeed(metrics.getAverageSpeed()),
+                    metrics.getRequests(),
+                    metrics.getRetries()
+            ));
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(mContext)
+                .setTitle(R.string.download_statistics)
+                .setPositiveButton(R.string.ok, null);
+
+        if (missions.isEmpty()) {
+            builder.setMessage(R.string.download_statistics_empty);
+        } else {
+            builder.setMessage(message)
+                    .setNeutralButton(R.string.download_statistics_copy_json,
+                            (dialog, which) -> Utility.copyToClipboard(mContext, registry.toJson()));
+        }
+
+        builder.create().show();
+    }
+
+    private static String formatMillis(long millis) {
+        return millis < 1000 ? millis + " ms" : Utility.stringifySeconds(millis / 1000d);
+    }
+
     public void showDeleteDownloadedFilesConfirmationPrompt() {
         // make sure the user confirms once more before deleting files on disk
         new AlertDialog.Builder(mContext)
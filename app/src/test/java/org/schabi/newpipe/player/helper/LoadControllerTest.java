@@ -0,0 +1,92 @@
+package org.schabi.newpipe.player.helper;
+
+import com.google.android.exoplayer2.C;
+
+import org.junit.Test;
+import org.schabi.newpipe.player.helper.LoadController.BufferPolicy;
+import org.schabi.newpipe.player.helper.LoadController.ContentType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadControllerTest {
+
+    @Test
+    public void testPoliciesAreValid() {
+        // the same constraints checked by DefaultLoadControl.Builder#setBufferDurationsMs()
+        for (final boolean lowMemory : new boolean[]{false, true}) {
+            for (final boolean metered : new boolean[]{false, true}) {
+                for (final ContentType type : ContentType.values()) {
+                    final BufferPolicy policy = BufferPolicy.choose(lowMemory, metered, type);
+                    assertTrue(policy.toString(), policy.minBufferMs >= policy.bufferForPlaybackMs);
+                    assertTrue(policy.toString(),
+                            policy.minBufferMs >= policy.bufferForPlaybackAfterRebufferMs);
+                    assertTrue(policy.toString(), policy.maxBufferMs >= policy.minBufferMs);
+                    assertTrue(policy.toString(), policy.backBufferMs >= 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMeteredNetworkBuffersLess() {
+        for (final ContentType type : ContentType.values()) {
+            final BufferPolicy unmetered = BufferPolicy.choose(false, false, type);
+            final BufferPolicy metered = BufferPolicy.choose(false, true, type);
+            assertTrue(metered.maxBufferMs <= unmetered.maxBufferMs);
+            assertEquals(0, metered.backBufferMs);
+        }
+    }
+
+    @Test
+    public void testLowMemoryDeviceLimitsVideoBytes() {
+        assertNotEquals(C.LENGTH_UNSET,
+                BufferPolicy.choose(true, false, ContentType.VIDEO).targetBufferBytes);
+        assertEquals(C.LENGTH_UNSET,
+                BufferPolicy.choose(false, false, ContentType.VIDEO).targetBufferBytes);
+        // audio is small, its buffer is not limited in bytes
+        assertEquals(C.LENGTH_UNSET,
+                BufferPolicy.choose(true, false, ContentType.AUDIO).targetBufferBytes);
+    }
+
+    @Test
+    public void testHeadlessAudioLimitsMemory() {
+        for (final boolean lowMemory : new boolean[]{false, true}) {
+            final BufferPolicy policy =
+                    BufferPolicy.choose(lowMemory, false, ContentType.HEADLESS_AUDIO);
+            assertEquals(BufferPolicy.HEADLESS_AUDIO_BUFFER_BYTES, policy.targetBufferBytes);
+            assertEquals(0, policy.backBufferMs);
+        }
+        assertEquals(BufferPolicy.choose(false, false, ContentType.AUDIO).maxBufferMs,
+                BufferPolicy.choose(false, false, ContentType.HEADLESS_AUDIO).maxBufferMs);
+    }
+
+    @Test
+    public void testOnlyAudioKeepsBackBuffer() {
+        for (final boolean lowMemory : new boolean[]{false, true}) {
+            for (final ContentType type : ContentType.values()) {
+                final BufferPolicy policy = BufferPolicy.choose(lowMemory, false, type);
+                if (type == ContentType.AUDIO) {
+                    assertTrue(policy.backBufferMs > 0);
+                } else {
+                    assertEquals(policy.toString(), 0, policy.backBufferMs);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAudioBuffersMoreThanLive() {
+        assertTrue(BufferPolicy.choose(false, false, ContentType.AUDIO).maxBufferMs
+                > BufferPolicy.choose(false, false, ContentType.LIVE).maxBufferMs);
+    }
+
+    @Test
+    public void testEqualConditionsGiveEqualPolicies() {
+        assertEquals(BufferPolicy.choose(false, true, ContentType.SHORT_VIDEO),
+                BufferPolicy.choose(false, true, ContentType.SHORT_VIDEO));
+        assertNotEquals(BufferPolicy.choose(false, true, ContentType.SHORT_VIDEO),
+                BufferPolicy.choose(false, false, ContentType.SHORT_VIDEO));
+    }
+}
@@ -0,0 +1,131 @@
+package org.schabi.newpipe.player.playback;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.schabi.newpipe.player.playback.MediaSourceManager.PLAYLIST_AHEAD_SIZE;
+import static org.schabi.newpipe.player.playback.MediaSourceManager.PLAYLIST_BEHIND_SIZE;
+import static org.schabi.newpipe.player.playback.MediaSourceManager.getInitialPlaylistStart;
+import static org.schabi.newpipe.player.playback.MediaSourceManager.getPlaylistEnd;
+import static org.schabi.newpipe.player.playback.MediaSourceManager.getTrimmedPlaylistStart;
+import static org.schabi.newpipe.player.playback.MediaSourceManager.isFarFromPlaylist;
+import static org.schabi.newpipe.player.playback.MediaSourceManager.isPlaylistPopulated;
+
+/**
+ * Checks the window of the play queue kept in the playlist timeline, by applying the same steps
+ * as {@link MediaSourceManager} when the current index changes.
+ */
+public class MediaSourceManagerTest {
+    private static final int QUEUE_SIZE = 300;
+    private static final int MIN_AHEAD_SIZE = 3;
+
+    private int start;
+    private int size;
+    private int rebuilds;
+
+    @Before
+    public void setup() {
+        start = 0;
+        size = 0;
+        rebuilds = 0;
+        select(0);
+    }
+
+    /**
+     * Same steps as {@code MediaSourceManager#populateSources()}, followed by those of
+     * {@code MediaSourceManager#trimSources()} once the playback is ready.
+     */
+    private void select(final int index) {
+        if (isFarFromPlaylist(start, size, index)) {
+            rebuilds++;
+            start = getInitialPlaylistStart(index);
+            size = 0;
+        }
+        if (index < start) {
+            final int newStart = getInitialPlaylistStart(index);
+            size += start - newStart;
+            start = newStart;
+        }
+        size = Math.max(0, getPlaylistEnd(QUEUE_SIZE, index, MIN_AHEAD_SIZE) - start);
+
+        assertPlaybackReady(index);
+
+        final int trimmedStart = getTrimmedPlaylistStart(start, index);
+        size -= trimmedStart - start;
+        start = trimmedStart;
+
+        assertPlaybackReady(index);
+        assertTrue(size <= 2 * PLAYLIST_BEHIND_SIZE + PLAYLIST_AHEAD_SIZE + 1);
+    }
+
+    private void assertPlaybackReady(final int index) {
+        assertTrue("index=" + index + " start=" + start + " size=" + size,
+                isPlaylistPopulated(start, size, index,
+                        getPlaylistEnd(QUEUE_SIZE, index, MIN_AHEAD_SIZE)));
+        assertTrue(index < start + size);
+    }
+
+    @Test
+    public void playForward() {
+        for (int i = 1; i < QUEUE_SIZE; i++) {
+            select(i);
+        }
+        assertEquals(QUEUE_SIZE, start + size);
+        assertEquals(0, rebuilds);
+    }
+
+    @Test
+    public void playBackwards() {
+        select(150);
+        assertEquals(1, rebuilds);
+
+        for (int i = 149; i >= 0; i--) {
+            select(i);
+        }
+        assertEquals(0, start);
+        assertEquals(PLAYLIST_AHEAD_SIZE + 1, size);
+        assertEquals(1, rebuilds);
+    }
+
+    @Test
+    public void seekBackwards() {
+        for (int i = 1; i <= 120; i++) {
+            select(i);
+        }
+
+        // a few items back, still in the playlist
+        select(115);
+        assertEquals(0, rebuilds);
+
+        // just before the playlist, which is extended
+        select(start - 1);
+        assertEquals(0, rebuilds);
+
+        // far before the playlist, which is rebuilt
+        select(20);
+        assertEquals(1, rebuilds);
+        assertEquals(20 - PLAYLIST_BEHIND_SIZE, start);
+    }
+
+    @Test
+    public void repeatFromBeginning() {
+        for (int i = 1; i < QUEUE_SIZE; i++) {
+            select(i);
+        }
+        select(0);
+        assertEquals(1, rebuilds);
+        assertEquals(0, start);
+    }
+
+    @Test
+    public void shrinkWithSmallQueue() {
+        final int end = getPlaylistEnd(10, 5, MIN_AHEAD_SIZE);
+        assertEquals(10, end);
+        assertTrue(isPlaylistPopulated(0, 10, 5, end));
+        assertFalse(isPlaylistPopulated(0, 11, 5, end));
+        assertFalse(isPlaylistPopulated(6, 4, 5, end));
+    }
+}
@@ -0,0 +1,152 @@
+package org.schabi.newpipe.player.playqueue;
+
+import org.junit.Test;
+import org.schabi.newpipe.extractor.Page;
+import org.schabi.newpipe.extractor.stream.StreamInfoItem;
+import org.schabi.newpipe.extractor.stream.StreamType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class PlayQueueCodecTest {
+    private static final int SIZE = 10;
+
+    private static List<StreamInfoItem> makeInfoItems() {
+        final List<StreamInfoItem> items = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            final StreamInfoItem item = new StreamInfoItem(
+                    1, "URL_" + i, "NAME_" + i, StreamType.VIDEO_STREAM);
+            item.setDuration(i * 60);
+            item.setUploaderName("UPLOADER");
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static void assertSameItems(final List<PlayQueueItem> expected,
+                                        final List<PlayQueueItem> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final PlayQueueItem expectedItem = expected.get(i);
+            final PlayQueueItem actualItem = actual.get(i);
+            assertNotSame(expectedItem, actualItem);
+            assertEquals(expectedItem.getTitle(), actualItem.getTitle());
+            assertEquals(expectedItem.getUrl(), actualItem.getUrl());
+            assertEquals(expectedItem.getServiceId(), actualItem.getServiceId());
+            assertEquals(expectedItem.getDuration(), actualItem.getDuration());
+            assertEquals(expectedItem.getThumbnailUrl(), actualItem.getThumbnailUrl());
+            assertEquals(expectedItem.getUploader(), actualItem.getUploader());
+            assertEquals(expectedItem.getUploaderUrl(), actualItem.getUploaderUrl());
+            assertEquals(expectedItem.getStreamType(), actualItem.getStreamType());
+            assertEquals(expectedItem.getRecoveryPosition(), actualItem.getRecoveryPosition());
+            assertEquals(expectedItem.isAutoQueued(), actualItem.isAutoQueued());
+        }
+    }
+
+    @Test
+    public void copiesSingleQueue() {
+        final PlayQueue queue = new SinglePlayQueue(makeInfoItems(), 3);
+        queue.setRecovery(3, 1234);
+        queue.getItem(SIZE - 1).setAutoQueued(true);
+        queue.setIndex(5);
+
+        final PlayQueue copy = PlayQueueCodec.copy(queue);
+
+        assertTrue(copy instanceof SinglePlayQueue);
+        assertEquals(5, copy.getIndex());
+        assertFalse(copy.isShuffled());
+        assertSameItems(queue.getStreams(), copy.getStreams());
+        assertNull(copy.getBroadcastReceiver());
+    }
+
+    @Test
+    public void copiesShuffleBackupAndHistory() {
+        final PlayQueue queue = new SinglePlayQueue(makeInfoItems(), 2);
+        queue.shuffle();
+        queue.setIndex(4);
+
+        final PlayQueue copy = PlayQueueCodec.copy(queue);
+
+        assertTrue(copy.isShuffled());
+        assertSameItems(queue.getStreams(), copy.getStreams());
+        assertSameItems(queue.getBackup(), copy.getBackup());
+        assertSameItems(queue.getHistory(), copy.getHistory());
+        // the items are shared by the lists, as in the original queue
+        assertSame(copy.getItem(), copy.getHistory().get(copy.getHistory().size() - 1));
+
+        copy.unshuffle();
+        assertEquals(queue.getBackup().indexOf(queue.getItem()), copy.getIndex());
+        assertEquals(queue.getItem().getUrl(), copy.getItem().getUrl());
+    }
+
+    @Test
+    public void copiesPlaylistQueue() {
+        final Page nextPage = new Page("NEXT_PAGE_URL");
+        final PlaylistPlayQueue queue =
+                new PlaylistPlayQueue(1, "PLAYLIST_URL", nextPage, makeInfoItems(), 0);
+
+        final PlayQueue copy = PlayQueueCodec.copy(queue);
+
+        assertTrue(copy instanceof PlaylistPlayQueue);
+        final PlaylistPlayQueue playlistCopy = (PlaylistPlayQueue) copy;
+        assertEquals(1, playlistCopy.serviceId);
+        assertEquals("PLAYLIST_URL", playlistCopy.baseUrl);
+        assertEquals("NEXT_PAGE_URL", playlistCopy.nextPage.getUrl());
+        assertFalse(playlistCopy.isInitial);
+        assertFalse(playlistCopy.isComplete());
+        assertSameItems(queue.getStreams(), copy.getStreams());
+    }
+
+    @Test
+    public void copiesEmptyChannelQueue() {
+        final ChannelPlayQueue queue = new ChannelPlayQueue(
+                0, "CHANNEL_URL", null, Collections.emptyList(), 0);
+
+        final PlayQueue copy = PlayQueueCodec.copy(queue);
+
+        assertTrue(copy instanceof ChannelPlayQueue);
+        assertTrue(copy.isEmpty());
+        assertTrue(((ChannelPlayQueue) copy).isInitial);
+        assertNull(((ChannelPlayQueue) copy).nextPage);
+    }
+
+    @Test
+    public void serializesEncoded() throws IOException, ClassNotFoundException {
+        final PlayQueue queue = new SinglePlayQueue(makeInfoItems(), 7);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(queue);
+        }
+        final Object deserialized;
+        try (ObjectInputStream input =
+                     new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            deserialized = input.readObject();
+        }
+
+        assertTrue(deserialized instanceof SinglePlayQueue);
+        assertEquals(7, ((PlayQueue) deserialized).getIndex());
+        assertSameItems(queue.getStreams(), ((PlayQueue) deserialized).getStreams());
+    }
+
+    @Test
+    public void rejectsInvalidData() {
+        assertThrows(IOException.class, () -> PlayQueueCodec.decode(new byte[]{0, 0, 0, 1, 7}));
+        assertThrows(IllegalArgumentException.class, () -> PlayQueueCodec.encode(
+                PlayQueueTest.makePlayQueue(0, Collections.emptyList())));
+    }
+}
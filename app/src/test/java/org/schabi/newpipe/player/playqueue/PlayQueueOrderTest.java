@@ -0,0 +1,129 @@
+package org.schabi.newpipe.player.playqueue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PlayQueueOrderTest {
+    private static final int SIZE = 50;
+
+    private List<PlayQueueItem> items;
+    private PlayQueueOrder order;
+
+    @Before
+    public void setup() {
+        items = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            items.add(PlayQueueTest.makeItemWithUrl("URL_" + i));
+        }
+        order = new PlayQueueOrder(items);
+    }
+
+    private void assertIndexesConsistent() {
+        final List<PlayQueueItem> playOrder = order.getPlayOrder();
+        assertEquals(order.size(), playOrder.size());
+        for (int i = 0; i < playOrder.size(); i++) {
+            assertEquals(i, order.indexOf(playOrder.get(i)));
+        }
+    }
+
+    @Test
+    public void indexOfUnshuffled() {
+        for (int i = 0; i < SIZE; i++) {
+            assertSame(items.get(i), order.get(i));
+            assertEquals(i, order.indexOf(items.get(i)));
+        }
+        assertEquals(-1, order.indexOf(PlayQueueTest.makeItemWithUrl("URL_0")));
+    }
+
+    @Test
+    public void shuffleKeepsFirstItemAndOriginalOrder() {
+        final PlayQueueItem current = order.get(10);
+        order.shuffle(10);
+
+        assertTrue(order.isShuffled());
+        assertSame(current, order.get(0));
+        assertEquals(items, order.getOriginalOrder());
+        assertNotEquals(items, order.getPlayOrder());
+        assertIndexesConsistent();
+
+        assertEquals(10, order.unshuffle(0));
+        assertFalse(order.isShuffled());
+        assertEquals(items, order.getPlayOrder());
+        assertIndexesConsistent();
+    }
+
+    @Test
+    public void moveAndRemove() {
+        order.move(0, 5);
+        assertSame(items.get(0), order.get(5));
+        assertSame(items.get(1), order.get(0));
+        assertIndexesConsistent();
+
+        final PlayQueueItem removed = order.remove(5);
+        assertSame(items.get(0), removed);
+        assertEquals(-1, order.indexOf(removed));
+        assertEquals(SIZE - 1, order.size());
+        assertIndexesConsistent();
+    }
+
+    @Test
+    public void moveAndRemoveShuffled() {
+        order.shuffle(0);
+        final List<PlayQueueItem> expected = new ArrayList<>(order.getPlayOrder());
+
+        expected.add(3, expected.remove(20));
+        order.move(20, 3);
+        assertEquals(expected, order.getPlayOrder());
+        assertIndexesConsistent();
+
+        final PlayQueueItem removed = expected.remove(7);
+        assertSame(removed, order.remove(7));
+        assertEquals(expected, order.getPlayOrder());
+        assertFalse(order.getOriginalOrder().contains(removed));
+        assertIndexesConsistent();
+
+        // the original order is kept through moves in the play order
+        final List<PlayQueueItem> original = new ArrayList<>(items);
+        original.remove(removed);
+        order.unshuffle(0);
+        assertEquals(original, order.getPlayOrder());
+    }
+
+    @Test
+    public void appendShuffled() {
+        order.shuffle(0);
+        final List<PlayQueueItem> newItems = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            newItems.add(PlayQueueTest.makeItemWithUrl("NEW_URL_" + i));
+        }
+        order.append(newItems);
+
+        assertEquals(2 * SIZE, order.size());
+        // the new items are shuffled after the old ones
+        assertTrue(newItems.containsAll(order.getPlayOrder().subList(SIZE, 2 * SIZE)));
+        assertEquals(newItems, order.getOriginalOrder().subList(SIZE, 2 * SIZE));
+        assertIndexesConsistent();
+    }
+
+    @Test
+    public void restoreOriginalOrder() {
+        order.shuffle(3);
+        final List<PlayQueueItem> playOrder = new ArrayList<>(order.getPlayOrder());
+
+        final PlayQueueOrder restored = new PlayQueueOrder(playOrder);
+        restored.restoreOriginalOrder(items);
+
+        assertTrue(restored.isShuffled());
+        assertEquals(playOrder, restored.getPlayOrder());
+        assertEquals(items, restored.getOriginalOrder());
+    }
+}
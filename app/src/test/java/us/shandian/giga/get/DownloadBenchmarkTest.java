@@ -0,0 +1,99 @@
+package us.shandian.giga.get;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+import us.shandian.giga.get.DownloadMissionTest.MissionRunner;
+import us.shandian.giga.service.DownloadManagerService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the download speed for different amounts of threads against a throttled
+ * {@link LoopbackHttpServer}. Skipped unless the {@code giga.benchmark} system property is
+ * {@code true}. The resource length and the speed of every connection can be set through the
+ * {@code giga.benchmark.length} and {@code giga.benchmark.speed} system properties, the results
+ * are appended to the file set in the {@code giga.benchmark.report} system property.
+ */
+public class DownloadBenchmarkTest {
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final int LENGTH = Integer.getInteger("giga.benchmark.length", 4 * 1024 * 1024);
+    private static final long SPEED = Long.getLong("giga.benchmark.speed", 2 * 1024 * 1024);
+    private static final String REPORT = System.getProperty("giga.benchmark.report");
+
+    @Before
+    public void setUp() {
+        assumeTrue("benchmark disabled", Boolean.getBoolean("giga.benchmark"));
+    }
+
+    @Test
+    public void throttledConnections() throws Exception {
+        for (final int threads : THREAD_COUNTS) {
+            run("throttled", threads, server -> server.setBytesPerSecond(SPEED));
+        }
+    }
+
+    @Test
+    public void slowPeerWithLatency() throws Exception {
+        for (final int threads : THREAD_COUNTS) {
+            run("latency", threads, server -> {
+                server.setBytesPerSecond(SPEED);
+                server.setLatencyMillis(100);
+            });
+        }
+    }
+
+    @Test
+    public void flakyConnections() throws Exception {
+        for (final int threads : THREAD_COUNTS) {
+            run("flaky", threads, server -> {
+                server.setBytesPerSecond(SPEED);
+                server.setDisconnectProbability(0.01);
+            });
+        }
+    }
+
+    private static void run(final String scenario, final int threads, final Scenario setup)
+            throws IOException, InterruptedException {
+        final File target = File.createTempFile("giga", ".bin");
+        final File metadata = File.createTempFile("giga", ".meta");
+
+        try (LoopbackHttpServer server = new LoopbackHttpServer(LENGTH)) {
+            setup.apply(server);
+
+            final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata,
+                    threads);
+            runner.mission.maxRetry = 1000;
+
+            final long started = System.nanoTime();
+            assertEquals(DownloadManagerService.MESSAGE_FINISHED, runner.run());
+            final double seconds = (System.nanoTime() - started) / 1e9d;
+
+            if (REPORT != null) {
+                try (Writer report = new FileWriter(REPORT, true)) {
+                    report.write(String.format(Locale.ENGLISH,
+                            "[%s] threads=%d  time=%.0f ms  speed=%.2f MB/s  requests=%d  "
+                                    + "retries=%d%n",
+                            scenario, threads, seconds * 1000, LENGTH / seconds / 1024 / 1024,
+                            server.getRequests(), runner.mission.getMetrics().getRetries()));
+                }
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            target.delete();
+            //noinspection ResultOfMethodCallIgnored
+            metadata.delete();
+        }
+    }
+
+    private interface Scenario {
+        void apply(LoopbackHttpServer server);
+    }
+}
@@ -0,0 +1,242 @@
+package us.shandian.giga.get;
+
+import android.os.Handler;
+import android.os.Message;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.schabi.newpipe.streams.io.StoredFileHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import us.shandian.giga.io.FileStream;
+import us.shandian.giga.service.DownloadManagerService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the download engine against a {@link LoopbackHttpServer}.
+ */
+public class DownloadMissionTest {
+    private static final int LENGTH = 3 * 1024 * 1024 + 1234;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private LoopbackHttpServer server;
+    private File target;
+    private File metadata;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LoopbackHttpServer(LENGTH);
+        target = File.createTempFile("giga", ".bin");
+        metadata = File.createTempFile("giga", ".meta");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+        //noinspection ResultOfMethodCallIgnored
+        target.delete();
+        //noinspection ResultOfMethodCallIgnored
+        metadata.delete();
+    }
+
+    @Test
+    public void multiThreadDownload() throws Exception {
+        final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata, 4);
+
+        assertEquals(DownloadManagerService.MESSAGE_FINISHED, runner.run());
+        assertArrayEquals(server.getContent(), Files.readAllBytes(target.toPath()));
+        assertTrue(server.getRangeRequests() > 1);
+        assertTrue(runner.mission.isContentIndexable());
+    }
+
+    @Test
+    public void fallbackWithoutRangeSupport() throws Exception {
+        server.setRangeSupport(false);
+        final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata, 4);
+
+        assertEquals(DownloadManagerService.MESSAGE_FINISHED, runner.run());
+        assertArrayEquals(server.getContent(), Files.readAllBytes(target.toPath()));
+        assertEquals(0, runner.mission.blocks.length);
+    }
+
+    @Test
+    public void randomDisconnections() throws Exception {
+        server.setDisconnectProbability(0.05);
+        final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata, 3);
+        runner.mission.maxRetry = 1000;
+
+        assertEquals(DownloadManagerService.MESSAGE_FINISHED, runner.run());
+        assertArrayEquals(server.getContent(), Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void throttledSlowPeer() throws Exception {
+        server.setLatencyMillis(50);
+        server.setBytesPerSecond(2 * 1024 * 1024);
+        final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata, 2);
+
+        assertEquals(DownloadManagerService.MESSAGE_FINISHED, runner.run());
+        assertArrayEquals(server.getContent(), Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void expiredUrl() throws Exception {
+        server.setExpireAfterRequests(2);
+        final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata, 3);
+
+        // without recovery information the mission can not renew the url
+        assertEquals(DownloadManagerService.MESSAGE_ERROR, runner.run());
+        assertEquals(DownloadMission.ERROR_HTTP_FORBIDDEN, runner.mission.errCode);
+    }
+
+    @Test
+    public void errorEndsTransferPhase() throws Exception {
+        server.setLatencyMillis(50);
+        server.setExpireAfterRequests(2);
+        final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata, 3);
+
+        assertEquals(DownloadManagerService.MESSAGE_ERROR, runner.run());
+        final MissionMetrics metrics = runner.mission.getMetrics();
+        final long transferMillis = metrics.getPhaseMillis(MissionMetrics.Phase.TRANSFER);
+        assertTrue(transferMillis > 0);
+
+        // waiting for the other threads to stop is not transfer time
+        Thread.sleep(500);
+        assertEquals(transferMillis, metrics.getPhaseMillis(MissionMetrics.Phase.TRANSFER));
+    }
+
+    @Test
+    public void rangeNotSatisfiableIsRetried() throws Exception {
+        // the initializer uses HEAD requests, the first download request gets the error
+        server.failNextRequests(416, 1);
+        final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata, 2);
+
+        assertEquals(DownloadManagerService.MESSAGE_FINISHED, runner.run());
+        assertArrayEquals(server.getContent(), Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void rangeNotSatisfiableIsRetriedInFallbackMode() throws Exception {
+        server.failNextRequests(416, 1);
+        final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata, 1);
+
+        assertEquals(DownloadManagerService.MESSAGE_FINISHED, runner.run());
+        assertArrayEquals(server.getContent(), Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void fallbackResumesWithIfRange() throws Exception {
+        // one thread means no blocks, the download runs in fallback mode
+        server.disconnectOnceAt(LENGTH / 2);
+        final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata, 1);
+        runner.mission.maxRetry = 3;
+
+        assertEquals(DownloadManagerService.MESSAGE_FINISHED, runner.run());
+        assertArrayEquals(server.getContent(), Files.readAllBytes(target.toPath()));
+        assertEquals(1, server.getConditionalRequests());
+        assertTrue(server.getBytesSent() < LENGTH + LENGTH / 4);
+    }
+
+    @Test
+    public void fallbackRestartsOnLengthMismatch() throws Exception {
+        server.disconnectOnceAt(LENGTH / 2);
+        server.reportWrongLengthOnResume();
+        final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata, 1);
+        runner.mission.maxRetry = 3;
+
+        assertEquals(DownloadManagerService.MESSAGE_FINISHED, runner.run());
+        // the partial body of the resume request must not be written at the head of the file
+        assertArrayEquals(server.getContent(), Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void fallbackAdoptsNewLengthOnRestart() throws Exception {
+        server.disconnectOnceAt(LENGTH / 2);
+        server.replaceContentOnResume(LENGTH - 100000);
+        final MissionRunner runner = new MissionRunner(server.getUrl(), target, metadata, 1);
+        runner.mission.maxRetry = 3;
+
+        assertEquals(DownloadManagerService.MESSAGE_FINISHED, runner.run());
+        // the file is truncated to the new length
+        assertArrayEquals(server.getContent(), Files.readAllBytes(target.toPath()));
+        assertEquals(LENGTH - 100000, runner.mission.length);
+        assertEquals(DownloadMission.getBlockCount(LENGTH - 100000),
+                runner.mission.blockHashes.length);
+    }
+
+    /**
+     * Creates a mission storing the file in a local file and waits until the mission finishes
+     * or fails.
+     */
+    static final class MissionRunner {
+        final DownloadMission mission;
+        private final BlockingQueue<Integer> messages = new LinkedBlockingQueue<>();
+
+        MissionRunner(final String url, final File target, final File metadata,
+                      final int threads) throws IOException {
+            final StoredFileHelper storage = mock(StoredFileHelper.class);
+            when(storage.getStream()).thenAnswer(invocation -> new FileStream(target));
+            when(storage.getName()).thenReturn(target.getName());
+            when(storage.canWrite()).thenReturn(true);
+            when(storage.existsAsFile()).thenReturn(true);
+            when(storage.preallocate(anyLong())).thenAnswer(invocation -> {
+                try (FileStream stream = new FileStream(target)) {
+                    stream.setLength(invocation.getArgument(0));
+                }
+                return false;
+            });
+
+            final Handler handler = mock(Handler.class);
+            when(handler.obtainMessage(anyInt(), any())).thenAnswer(invocation -> {
+                messages.add(invocation.getArgument(0));
+                return mock(Message.class);
+            });
+
+            mission = new DownloadMission(new String[]{url}, storage, 'v', null);
+            mission.timestamp = System.nanoTime();
+            mission.threadCount = threads;
+            mission.metadata = metadata;
+            mission.mHandler = handler;
+        }
+
+        /**
+         * Starts the mission.
+         *
+         * @return {@link DownloadManagerService#MESSAGE_FINISHED} or
+         * {@link DownloadManagerService#MESSAGE_ERROR}
+         */
+        int run() throws InterruptedException {
+            mission.start();
+
+            while (true) {
+                final Integer message = messages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                assertNotNull("mission timed out", message);
+
+                if (message == DownloadManagerService.MESSAGE_FINISHED
+                        || message == DownloadManagerService.MESSAGE_ERROR) {
+                    return message;
+                }
+                if (message == DownloadManagerService.MESSAGE_DELETED) {
+                    fail("mission deleted");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package us.shandian.giga.get;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Embedded HTTP server bound to the loopback interface, serves a single resource of random
+ * bytes and can simulate the behaviour of real CDN servers: missing range support, throttling,
+ * slow peers, expired urls (403), forced errors (e.g. 416) and random disconnects.
+ */
+final class LoopbackHttpServer implements Closeable {
+    static final String ENTITY_TAG = "\"loopback-resource\"";
+    private static final String PATH = "/resource";
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile byte[] content;
+    private final Random random = new Random(0);
+
+    private volatile boolean rangeSupport = true;
+    private volatile long bytesPerSecond = -1;
+    private volatile long latencyMillis = 0;
+    private volatile int expireAfterRequests = -1;
+    private volatile double disconnectProbability = 0;
+    private volatile int forcedErrorCode = 0;
+    private final AtomicInteger forcedErrors = new AtomicInteger(0);
+    private final AtomicLong disconnectOnceAt = new AtomicLong(-1);
+    private final AtomicBoolean wrongLengthOnResume = new AtomicBoolean(false);
+    private final AtomicReference<byte[]> contentOnResume = new AtomicReference<>();
+
+    private final AtomicInteger requests = new AtomicInteger(0);
+    private final AtomicInteger rangeRequests = new AtomicInteger(0);
+    private final AtomicInteger conditionalRequests = new AtomicInteger(0);
+    private final AtomicLong bytesSent = new AtomicLong(0);
+
+    LoopbackHttpServer(final int length) throws IOException {
+        content = new byte[length];
+        new Random(length).nextBytes(content);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PATH, this::handle);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * @param supported {@code false} to ignore the {@code Range} header, like dynamic content
+     */
+    void setRangeSupport(final boolean supported) {
+        rangeSupport = supported;
+    }
+
+    /**
+     * @param value maximum speed of every connection, {@code -1} for no limit
+     */
+    void setBytesPerSecond(final long value) {
+        bytesPerSecond = value;
+    }
+
+    /**
+     * @param value delay before sending the response headers
+     */
+    void setLatencyMillis(final long value) {
+        latencyMillis = value;
+    }
+
+    /**
+     * @param value amount of requests accepted before replying 403 to all of them
+     */
+    void setExpireAfterRequests(final int value) {
+        expireAfterRequests = value;
+    }
+
+    /**
+     * @param value probability of closing a connection in the middle of every chunk sent
+     */
+    void setDisconnectProbability(final double value) {
+        disconnectProbability = value;
+    }
+
+    /**
+     * Replies the next {@code count} GET requests with the given status code.
+     *
+     * @param code  the HTTP status code
+     * @param count amount of requests
+     */
+    void failNextRequests(final int code, final int count) {
+        forcedErrorCode = code;
+        forcedErrors.set(count);
+    }
+
+    /**
+     * Closes the connection of the first GET request reaching the given offset.
+     *
+     * @param offset offset in the resource
+     */
+    void disconnectOnceAt(final long offset) {
+        disconnectOnceAt.set(offset);
+    }
+
+    /**
+     * Announces a wrong resource length in the {@code Content-Range} of the first partial
+     * response to a GET not starting at offset 0, like a resource which changed without changing
+     * its validator. The body is still the requested range.
+     */
+    void reportWrongLengthOnResume() {
+        wrongLengthOnResume.set(true);
+    }
+
+    /**
+     * Replaces the resource on the first GET not starting at offset 0 with another one of the
+     * given length, without changing its validator, like a resource regenerated by the server.
+     *
+     * @param length the length of the new resource
+     */
+    void replaceContentOnResume(final int length) {
+        final byte[] replacement = new byte[length];
+        new Random(length).nextBytes(replacement);
+        contentOnResume.set(replacement);
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    int getRangeRequests() {
+        return rangeRequests.get();
+    }
+
+    int getConditionalRequests() {
+        return conditionalRequests.get();
+    }
+
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final int count = requests.incrementAndGet();
+            sleep(latencyMillis);
+
+            final boolean head = "HEAD".equals(exchange.getRequestMethod());
+            exchange.getResponseHeaders().set("ETag", ENTITY_TAG);
+
+            if (expireAfterRequests >= 0 && count > expireAfterRequests) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+
+            if (!head && forcedErrors.getAndDecrement() > 0) {
+                exchange.sendResponseHeaders(forcedErrorCode, -1);
+                return;
+            }
+
+            long start = 0;
+            long end = content.length - 1;
+            boolean partial = false;
+
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (ifRange != null) {
+                conditionalRequests.incrementAndGet();
+            }
+
+            if (range != null && rangeSupport && (ifRange == null || ENTITY_TAG.equals(ifRange))) {
+                rangeRequests.incrementAndGet();
+                final String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                start = Long.parseLong(bounds[0]);
+                if (!head && start > 0) {
+                    final byte[] replacement = contentOnResume.getAndSet(null);
+                    if (replacement != null) {
+                        content = replacement;
+                        end = content.length - 1;
+                    }
+                }
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(Long.parseLong(bounds[1]), content.length - 1);
+                }
+
+                if (start >= content.length) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+
+                partial = true;
+                final long total = !head && start > 0
+                        && wrongLengthOnResume.compareAndSet(true, false)
+                        ? content.length + 1 : content.length;
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + end + "/" + total);
+            }
+
+            final long length = end - start + 1;
+            final int code = partial ? 206 : 200;
+
+            if (head) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(code, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(code, length);
+            sendBody(exchange.getResponseBody(), start, end);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendBody(final OutputStream out, final long start, final long end)
+            throws IOException {
+        long position = start;
+
+        while (position <= end) {
+            final int amount = (int) Math.min(CHUNK_SIZE, end - position + 1);
+            final long disconnectAt = disconnectOnceAt.get();
+
+            if (disconnectAt >= 0 && position + amount > disconnectAt
+                    && disconnectOnceAt.compareAndSet(disconnectAt, -1)) {
+                out.write(content, (int) position, (int) (disconnectAt - position));
+                out.flush();
+                throw new IOException("simulated disconnection at " + disconnectAt);
+            }
+
+            if (disconnectProbability > 0 && nextDouble() < disconnectProbability) {
+                out.write(content, (int) position, amount / 2);
+                out.flush();
+                throw new IOException("simulated random disconnection");
+            }
+
+            out.write(content, (int) position, amount);
+            out.flush();
+            position += amount;
+            bytesSent.addAndGet(amount);
+
+            if (bytesPerSecond > 0) {
+                sleep(amount * 1000L / bytesPerSecond);
+            }
+        }
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private static void sleep(final long millis) {
+        if (millis < 1) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}